@@ -15,6 +15,7 @@
  */
 package org.cometd.documentation;
 
+import java.nio.file.Paths;
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.BayeuxServer;
@@ -24,6 +25,7 @@ import org.cometd.client.BayeuxClient;
 import org.cometd.server.DefaultSecurityPolicy;
 import org.cometd.server.ext.AcknowledgedMessagesExtension;
 import org.cometd.server.ext.ActivityExtension;
+import org.cometd.server.ext.FileAcknowledgedMessagesStore;
 
 @SuppressWarnings("unused")
 public class ExtensionsDocs {
@@ -33,6 +35,12 @@ public class ExtensionsDocs {
         // end::ack[]
     }
 
+    public static void acknowledgmentFile(BayeuxServer bayeuxServer) {
+        // tag::ackFile[]
+        bayeuxServer.addExtension(new AcknowledgedMessagesExtension(new FileAcknowledgedMessagesStore.Factory(Paths.get("/var/lib/cometd/ack"))));
+        // end::ackFile[]
+    }
+
     public static void activityClient(BayeuxServer bayeuxServer) {
         // tag::activityClient[]
         bayeuxServer.addExtension(new ActivityExtension(ActivityExtension.Activity.CLIENT, 15 * 60 * 1000L));
@@ -89,6 +97,18 @@ public class ExtensionsDocs {
         // end::bayeuxClient[]
     }
 
+    public static void channelAliasServer(BayeuxServer bayeuxServer) {
+        // tag::channelAliasServer[]
+        bayeuxServer.addExtension(new org.cometd.server.ext.ChannelAliasExtension());
+        // end::channelAliasServer[]
+    }
+
+    public static void deltaServer(BayeuxServer bayeuxServer) {
+        // tag::deltaServer[]
+        bayeuxServer.addExtension(new org.cometd.server.ext.DeltaExtension());
+        // end::deltaServer[]
+    }
+
     public static void timestamp(BayeuxServer bayeuxServer) {
         // tag::timestamp[]
         bayeuxServer.addExtension(new org.cometd.server.ext.TimestampExtension());
@@ -82,6 +82,18 @@ public class ServerLazyMessagesDocs {
     }
     // end::lazyTimeout[]
 
+    @SuppressWarnings("InnerClassMayBeStatic")
+    // tag::conflation[]
+    @Service
+    public class QuoteService {
+        @Configure("/quotes")
+        public void setupQuotesChannel(ConfigurableServerChannel channel) {
+            // Pending quotes for the same symbol replace each other.
+            channel.setConflationKey(message -> message.getDataAsMap().get("symbol"));
+        }
+    }
+    // end::conflation[]
+
     private static class NewsInfo {
     }
 }
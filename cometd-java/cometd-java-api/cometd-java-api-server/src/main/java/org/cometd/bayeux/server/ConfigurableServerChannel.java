@@ -16,6 +16,7 @@
 package org.cometd.bayeux.server;
 
 import java.util.List;
+import java.util.function.Function;
 import org.cometd.bayeux.Bayeux;
 import org.cometd.bayeux.Channel;
 
@@ -103,6 +104,33 @@ public interface ConfigurableServerChannel extends Channel {
      */
     public void setBroadcastToPublisher(boolean broadcastToPublisher);
 
+    /**
+     * @return the function that returns the conflation key of the messages published to this channel,
+     * or null if conflation is disabled or not supported by this channel
+     * @see #setConflationKey(Function)
+     */
+    public default Function<ServerMessage, Object> getConflationKey() {
+        return null;
+    }
+
+    /**
+     * <p>Sets the function that returns the conflation key of the messages published to this channel.</p>
+     * <p>When a message is queued for a session while a message with the same conflation key,
+     * published to this channel, is still pending in the session queue, the pending message
+     * is replaced by the new one, so that slow sessions only receive the latest message for
+     * each key, for example the latest quote of each instrument.</p>
+     * <p>A null function, or a function that returns null for a message, disables conflation.</p>
+     *
+     * <p>Channels that do not support conflation throw {@link UnsupportedOperationException}.</p>
+     *
+     * @param conflationKey the function that returns the conflation key of a message
+     * @throws UnsupportedOperationException if this channel does not support conflation
+     * @see #getConflationKey()
+     */
+    public default void setConflationKey(Function<ServerMessage, Object> conflationKey) {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * <p>Adds the given {@link Authorizer} that grants or denies operations on this channel.</p>
      * <p>Operations must be granted by at least one Authorizer and must not be denied by any.</p>
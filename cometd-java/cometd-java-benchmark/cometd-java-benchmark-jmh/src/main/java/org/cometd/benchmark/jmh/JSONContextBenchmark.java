@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.JSONContextServer;
+import org.cometd.server.JacksonJSONContextServer;
+import org.cometd.server.JettyJSONContextServer;
+import org.cometd.server.ServerMessageImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Compares parsing and generation of batches of Bayeux messages
+ * with the Jetty and Jackson {@link JSONContextServer}s.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONContextBenchmark {
+    @Param({"jetty", "jackson"})
+    private String jsonContext;
+    @Param({"1", "10"})
+    private int batch;
+
+    private JSONContextServer context;
+    private String json;
+    private List<ServerMessage.Mutable> messages;
+    private List<ServerMessage.Mutable> frozenMessages;
+
+    @Setup
+    public void prepare() {
+        context = "jackson".equals(jsonContext) ? new JacksonJSONContextServer() : new JettyJSONContextServer();
+        messages = new ArrayList<>();
+        frozenMessages = new ArrayList<>();
+        for (int i = 0; i < batch; ++i) {
+            messages.add(newMessage(i));
+            BenchmarkMessage frozen = newMessage(i);
+            frozen.freeze(context.generate(frozen));
+            frozenMessages.add(frozen);
+        }
+        json = context.generate(messages);
+    }
+
+    private BenchmarkMessage newMessage(int i) {
+        BenchmarkMessage message = new BenchmarkMessage();
+        message.setId(String.valueOf(i));
+        message.setChannel("/benchmark/" + i);
+        message.setClientId("31vr0jbqdl4a1ad2ceu5gdw3kc");
+        Map<String, Object> data = new HashMap<>();
+        data.put("symbol", "COMETD");
+        data.put("price", 123.45D);
+        data.put("volume", 1000 + i);
+        data.put("exchange", "NYSE");
+        message.setData(data);
+        message.getExt(true).put("ack", i);
+        return message;
+    }
+
+    @Benchmark
+    public ServerMessage.Mutable[] parse() throws ParseException {
+        return context.parse(json);
+    }
+
+    @Benchmark
+    public String generate() {
+        return context.generate(messages);
+    }
+
+    @Benchmark
+    public String generateFrozen() {
+        return context.generate(frozenMessages);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(JSONContextBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+    private static class BenchmarkMessage extends ServerMessageImpl {
+        @Override
+        protected void freeze(String json) {
+            super.freeze(json);
+        }
+    }
+}
@@ -21,12 +21,16 @@ import java.util.Map;
 import org.cometd.bayeux.BinaryData;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.transport.ClientTransport;
 import org.cometd.common.Z85;
 
 /**
  * <p>A client extension that encodes {@code byte[]} or {@link ByteBuffer} into a {@link BinaryData}
  * object using the {@link Z85} format for outgoing messages, and decodes {@link BinaryData}
  * objects back into {@code byte[]} or {@link ByteBuffer} for incoming messages.</p>
+ * <p>When the {@link ClientTransport#isBinary() transport} exchanges messages in a binary
+ * format, the binary data is sent natively and the {@link Z85} encoding is skipped.</p>
  */
 public class BinaryExtension implements ClientSession.Extension {
     private final boolean decodeToByteBuffer;
@@ -47,10 +51,16 @@ public class BinaryExtension implements ClientSession.Extension {
                 Map<String, Object> data = message.getDataAsMap();
                 BinaryData newData = new BinaryData(data);
                 message.setData(newData);
-                String encoded = (String)data.get(BinaryData.DATA);
-                Object decoded = decodeToByteBuffer ?
-                        Z85.decoder.decodeByteBuffer(encoded) :
-                        Z85.decoder.decodeBytes(encoded);
+                Object encoded = data.get(BinaryData.DATA);
+                Object decoded;
+                if (encoded instanceof String) {
+                    decoded = decodeToByteBuffer ?
+                            Z85.decoder.decodeByteBuffer((String)encoded) :
+                            Z85.decoder.decodeBytes((String)encoded);
+                } else {
+                    // Received natively, for example via a binary WebSocket subprotocol.
+                    decoded = decodeToByteBuffer ? newData.asByteBuffer() : newData.asBytes();
+                }
                 newData.put(BinaryData.DATA, decoded);
             }
         }
@@ -63,11 +73,14 @@ public class BinaryExtension implements ClientSession.Extension {
         if (data instanceof BinaryData) {
             BinaryData binaryData = (BinaryData)data;
             Object binary = binaryData.get(BinaryData.DATA);
-            String encoded;
+            boolean encode = !isBinary(session);
+            Object encoded;
             if (binary instanceof byte[]) {
-                encoded = Z85.encoder.encodeBytes(binaryData.asBytes());
+                byte[] bytes = binaryData.asBytes();
+                encoded = encode ? Z85.encoder.encodeBytes(bytes) : bytes;
             } else if (binary instanceof ByteBuffer) {
-                encoded = Z85.encoder.encodeByteBuffer(binaryData.asByteBuffer());
+                ByteBuffer buffer = binaryData.asByteBuffer();
+                encoded = encode ? Z85.encoder.encodeByteBuffer(buffer) : buffer;
             } else {
                 throw new IllegalArgumentException("Cannot Z85 encode " + binary);
             }
@@ -79,4 +92,12 @@ public class BinaryExtension implements ClientSession.Extension {
         }
         return true;
     }
+
+    private boolean isBinary(ClientSession session) {
+        if (session instanceof BayeuxClient) {
+            ClientTransport transport = ((BayeuxClient)session).getTransport();
+            return transport != null && transport.isBinary();
+        }
+        return false;
+    }
 }
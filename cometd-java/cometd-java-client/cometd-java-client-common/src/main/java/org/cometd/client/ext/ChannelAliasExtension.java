@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.ext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>This client-side extension resolves the channel aliases that the server
+ * uses in place of channel names, to reduce the bytes of each message.</p>
+ * <p>For channel aliases to work, the server must be configured with the
+ * correspondent server-side channel alias extension.</p>
+ * <p>The server assigns an alias to each channel the client subscribes to,
+ * and sends the alias definitions in the {@code /meta/subscribe} replies
+ * and in the messages themselves; this extension confirms the aliases to
+ * the server in the next {@code /meta/connect} message, after which the
+ * server starts to use them.</p>
+ */
+public class ChannelAliasExtension implements ClientSession.Extension {
+    public static final String ALIAS_FIELD = "alias";
+
+    private static final Logger _logger = LoggerFactory.getLogger(ChannelAliasExtension.class);
+
+    private final Map<String, String> _channels = new HashMap<>();
+    private final List<Integer> _unconfirmed = new ArrayList<>();
+    private boolean _serverSupportsAliases;
+
+    @Override
+    public boolean rcv(ClientSession session, Message.Mutable message) {
+        String channel = message.getChannel();
+        Map<String, Object> ext = message.getExt();
+        Object field = ext == null ? null : ext.remove(ALIAS_FIELD);
+        if (field instanceof Number) {
+            define(channel, ((Number)field).intValue());
+        } else if (!channel.startsWith("/")) {
+            String name;
+            synchronized (this) {
+                name = _channels.get(channel);
+            }
+            if (name == null) {
+                _logger.info("Unknown channel alias {}, dropping {}", channel, message);
+                return false;
+            }
+            message.setChannel(name);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean rcvMeta(ClientSession session, Message.Mutable message) {
+        String channel = message.getChannel();
+        Map<String, Object> ext = message.getExt();
+        if (Channel.META_HANDSHAKE.equals(channel)) {
+            synchronized (this) {
+                _serverSupportsAliases = ext != null && Boolean.TRUE.equals(ext.get(ALIAS_FIELD));
+            }
+        } else if (Channel.META_SUBSCRIBE.equals(channel) && message.isSuccessful() && ext != null) {
+            Object field = ext.get(ALIAS_FIELD);
+            if (field instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> aliases = (Map<String, Object>)field;
+                aliases.forEach((name, id) -> define(name, ((Number)id).intValue()));
+            }
+        }
+        return true;
+    }
+
+    private void define(String channel, int id) {
+        synchronized (this) {
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Channel alias {} for {}", id, channel);
+            }
+            _channels.put(String.valueOf(id), channel);
+            if (!_unconfirmed.contains(id)) {
+                _unconfirmed.add(id);
+            }
+        }
+    }
+
+    @Override
+    public boolean sendMeta(ClientSession session, Message.Mutable message) {
+        String channel = message.getChannel();
+        if (Channel.META_HANDSHAKE.equals(channel)) {
+            synchronized (this) {
+                _serverSupportsAliases = false;
+                _channels.clear();
+                _unconfirmed.clear();
+            }
+            message.getExt(true).put(ALIAS_FIELD, Boolean.TRUE);
+        } else if (Channel.META_CONNECT.equals(channel)) {
+            synchronized (this) {
+                if (_serverSupportsAliases && !_unconfirmed.isEmpty()) {
+                    message.getExt(true).put(ALIAS_FIELD, new ArrayList<>(_unconfirmed));
+                    _unconfirmed.clear();
+                }
+            }
+        }
+        return true;
+    }
+}
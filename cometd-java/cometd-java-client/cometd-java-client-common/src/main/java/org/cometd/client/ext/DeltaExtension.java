@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.ext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSession;
+import org.cometd.common.JSONMergePatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>This client-side extension rebuilds the data of the messages that the
+ * server sends as differences against the previous message on the same
+ * channel, so that applications always receive the full data.</p>
+ * <p>For delta encoding to work, the server must be configured with the
+ * correspondent server-side delta extension.</p>
+ * <p>When a delta cannot be applied because a previous message has been
+ * lost, the message is dropped and this extension asks the server, in the
+ * next {@code /meta/connect} message, to resync the channel with a snapshot
+ * of the full data.</p>
+ * <p>The data of the messages received on delta encoded channels is used to
+ * rebuild the data of the next messages, so it must not be modified.</p>
+ */
+public class DeltaExtension implements ClientSession.Extension {
+    public static final String DELTA_FIELD = "delta";
+    public static final String SEQ_FIELD = "seq";
+    public static final String BASE_FIELD = "base";
+
+    private static final Logger _logger = LoggerFactory.getLogger(DeltaExtension.class);
+
+    private final Map<String, State> _states = new HashMap<>();
+    private final Set<String> _resyncs = new LinkedHashSet<>();
+    private boolean _serverSupportsDeltas;
+
+    @Override
+    public boolean rcv(ClientSession session, Message.Mutable message) {
+        String channel = message.getChannel();
+        Map<String, Object> ext = message.getExt();
+        Object field = ext == null ? null : ext.remove(DELTA_FIELD);
+        if (!(field instanceof Map)) {
+            synchronized (this) {
+                _states.remove(channel);
+            }
+            return true;
+        }
+
+        Map<?, ?> delta = (Map<?, ?>)field;
+        long seq = ((Number)delta.get(SEQ_FIELD)).longValue();
+        Object base = delta.get(BASE_FIELD);
+        Map<String, Object> data = message.getDataAsMap();
+        synchronized (this) {
+            if (base == null) {
+                _states.put(channel, new State(seq, data));
+                return true;
+            }
+            State state = _states.get(channel);
+            if (state == null || state.seq != ((Number)base).longValue()) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Missing delta base {} on {}, requesting resync", base, channel);
+                }
+                _states.remove(channel);
+                _resyncs.add(channel);
+                return false;
+            }
+            state.seq = seq;
+            state.data = JSONMergePatch.apply(state.data, data);
+            message.setData(state.data);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean rcvMeta(ClientSession session, Message.Mutable message) {
+        if (Channel.META_HANDSHAKE.equals(message.getChannel())) {
+            Map<String, Object> ext = message.getExt();
+            synchronized (this) {
+                _serverSupportsDeltas = ext != null && Boolean.TRUE.equals(ext.get(DELTA_FIELD));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean sendMeta(ClientSession session, Message.Mutable message) {
+        String channel = message.getChannel();
+        if (Channel.META_HANDSHAKE.equals(channel)) {
+            synchronized (this) {
+                _serverSupportsDeltas = false;
+                _states.clear();
+                _resyncs.clear();
+            }
+            message.getExt(true).put(DELTA_FIELD, Boolean.TRUE);
+        } else if (Channel.META_CONNECT.equals(channel)) {
+            synchronized (this) {
+                if (_serverSupportsDeltas && !_resyncs.isEmpty()) {
+                    message.getExt(true).put(DELTA_FIELD, new ArrayList<>(_resyncs));
+                    _resyncs.clear();
+                }
+            }
+        }
+        return true;
+    }
+
+    private static class State {
+        private long seq;
+        private Map<String, Object> data;
+
+        private State(long seq, Map<String, Object> data) {
+            this.seq = seq;
+            this.data = data;
+        }
+    }
+}
@@ -146,6 +146,13 @@ public abstract class ClientTransport extends AbstractTransport {
     public void terminate() {
     }
 
+    /**
+     * @return whether this transport currently exchanges messages in a binary format
+     */
+    public boolean isBinary() {
+        return false;
+    }
+
     public abstract boolean accept(String version);
 
     public abstract void send(TransportListener listener, List<Message.Mutable> messages);
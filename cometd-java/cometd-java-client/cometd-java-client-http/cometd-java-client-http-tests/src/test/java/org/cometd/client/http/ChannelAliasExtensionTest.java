@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.http;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.client.ClientSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.ext.ChannelAliasExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ChannelAliasExtensionTest extends ClientServerTest {
+    @BeforeEach
+    public void prepare() throws Exception {
+        start(null);
+        bayeux.addExtension(new org.cometd.server.ext.ChannelAliasExtension());
+    }
+
+    @Test
+    public void testChannelAlias() throws Exception {
+        String channelName = "/market/equities/NASDAQ/AAPL";
+
+        BayeuxClient client = newBayeuxClient();
+        // Records the channel of messages before they are resolved.
+        BlockingQueue<String> wireChannels = new LinkedBlockingQueue<>();
+        client.addExtension(new ClientSession.Extension() {
+            @Override
+            public boolean rcv(ClientSession session, Message.Mutable message) {
+                if (!message.isPublishReply()) {
+                    wireChannels.offer(message.getChannel());
+                }
+                return true;
+            }
+        });
+        client.addExtension(new ChannelAliasExtension());
+        BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.handshake(hsReply -> client.getChannel(channelName).subscribe((c, m) -> messages.offer(m), r -> subscribeLatch.countDown()));
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        // Before the client confirms the alias, the full channel name is used.
+        bayeux.getChannel(channelName).publish(null, 0, Promise.noop());
+        Message message = messages.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(message);
+        Assertions.assertEquals(channelName, message.getChannel());
+        Assertions.assertEquals(channelName, wireChannels.poll(5, TimeUnit.SECONDS));
+
+        // The confirmation is sent with the next /meta/connect,
+        // after which the alias replaces the channel name.
+        boolean aliased = false;
+        for (int i = 1; i < 10 && !aliased; ++i) {
+            bayeux.getChannel(channelName).publish(null, i, Promise.noop());
+            message = messages.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(message);
+            Assertions.assertEquals(channelName, message.getChannel());
+            Assertions.assertEquals(i, ((Number)message.getData()).intValue());
+            String wireChannel = wireChannels.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(wireChannel);
+            aliased = !wireChannel.startsWith("/");
+            if (!aliased) {
+                Thread.sleep(100);
+            }
+        }
+        Assertions.assertTrue(aliased);
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testClientWithoutChannelAliasExtension() throws Exception {
+        String channelName = "/market/equities/NASDAQ/MSFT";
+
+        BayeuxClient client = newBayeuxClient();
+        BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.handshake(hsReply -> client.getChannel(channelName).subscribe((c, m) -> messages.offer(m), r -> subscribeLatch.countDown()));
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 3; ++i) {
+            bayeux.getChannel(channelName).publish(null, i, Promise.noop());
+            Message message = messages.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(message);
+            Assertions.assertEquals(channelName, message.getChannel());
+            Thread.sleep(100);
+        }
+
+        disconnectBayeuxClient(client);
+    }
+}
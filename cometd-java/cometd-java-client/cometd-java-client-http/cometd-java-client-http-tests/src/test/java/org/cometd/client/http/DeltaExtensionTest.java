@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.http;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.client.ClientSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.ext.DeltaExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class DeltaExtensionTest extends ClientServerTest {
+    @BeforeEach
+    public void prepare() throws Exception {
+        start(null);
+        bayeux.addExtension(new org.cometd.server.ext.DeltaExtension(4));
+    }
+
+    @Test
+    public void testDeltaEncoding() throws Exception {
+        String channelName = "/quotes/COMETD";
+
+        BayeuxClient client = newBayeuxClient();
+        // Records the data of messages before they are rebuilt.
+        BlockingQueue<Map<String, Object>> wireData = new LinkedBlockingQueue<>();
+        client.addExtension(new ClientSession.Extension() {
+            @Override
+            public boolean rcv(ClientSession session, Message.Mutable message) {
+                if (!message.isPublishReply()) {
+                    wireData.offer(message.getDataAsMap());
+                }
+                return true;
+            }
+        });
+        client.addExtension(new DeltaExtension());
+        BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.handshake(hsReply -> client.getChannel(channelName).subscribe((c, m) -> messages.offer(m), r -> subscribeLatch.countDown()));
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        // The first message is a snapshot, then deltas
+        // until a snapshot is sent again after 4 deltas.
+        for (int i = 0; i < 7; ++i) {
+            Map<String, Object> data = newQuote(i);
+            bayeux.getChannel(channelName).publish(null, data, Promise.noop());
+
+            Message message = messages.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(message);
+            Assertions.assertEquals(channelName, message.getChannel());
+            Assertions.assertEquals(data, message.getDataAsMap());
+
+            Map<String, Object> wire = wireData.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(wire);
+            if (i == 0 || i == 5) {
+                Assertions.assertEquals(data, wire);
+            } else {
+                Assertions.assertEquals(1, wire.size(), wire.toString());
+                Assertions.assertEquals(i, ((Number)wire.get("volume")).intValue());
+            }
+        }
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testSnapshotWhenDeltaIsLarger() throws Exception {
+        String channelName = "/quotes/LARGER";
+
+        BayeuxClient client = newBayeuxClient();
+        BlockingQueue<Map<String, Object>> wireData = new LinkedBlockingQueue<>();
+        client.addExtension(new ClientSession.Extension() {
+            @Override
+            public boolean rcv(ClientSession session, Message.Mutable message) {
+                if (!message.isPublishReply()) {
+                    wireData.offer(message.getDataAsMap());
+                }
+                return true;
+            }
+        });
+        client.addExtension(new DeltaExtension());
+        BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.handshake(hsReply -> client.getChannel(channelName).subscribe((c, m) -> messages.offer(m), r -> subscribeLatch.countDown()));
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        Map<String, Object> book = new HashMap<>();
+        for (int i = 0; i < 20; ++i) {
+            book.put("level" + i, (long)i);
+        }
+        Map<String, Object> data1 = newQuote(0);
+        data1.put("book", book);
+        bayeux.getChannel(channelName).publish(null, data1, Promise.noop());
+        Assertions.assertEquals(data1, messages.poll(5, TimeUnit.SECONDS).getDataAsMap());
+        Assertions.assertEquals(data1, wireData.poll(5, TimeUnit.SECONDS));
+
+        // The patch has a single field, but it removes all
+        // the nested fields, so its JSON is larger than the data.
+        Map<String, Object> data2 = newQuote(0);
+        data2.put("book", new HashMap<>());
+        bayeux.getChannel(channelName).publish(null, data2, Promise.noop());
+        Assertions.assertEquals(data2, messages.poll(5, TimeUnit.SECONDS).getDataAsMap());
+        Assertions.assertEquals(data2, wireData.poll(5, TimeUnit.SECONDS));
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testResyncAfterGap() throws Exception {
+        String channelName = "/quotes/GAP";
+
+        BayeuxClient client = newBayeuxClient();
+        // Loses one message, so that the next delta cannot be applied.
+        AtomicBoolean lost = new AtomicBoolean();
+        client.addExtension(new ClientSession.Extension() {
+            @Override
+            public boolean rcv(ClientSession session, Message.Mutable message) {
+                if (!message.isPublishReply() && ((Number)message.getDataAsMap().get("volume")).intValue() == 1) {
+                    return !lost.compareAndSet(false, true);
+                }
+                return true;
+            }
+        });
+        client.addExtension(new DeltaExtension());
+        BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.handshake(hsReply -> client.getChannel(channelName).subscribe((c, m) -> messages.offer(m), r -> subscribeLatch.countDown()));
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        bayeux.getChannel(channelName).publish(null, newQuote(0), Promise.noop());
+        Message message = messages.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(message);
+        Assertions.assertEquals(newQuote(0), message.getDataAsMap());
+
+        // The message with volume 1 is lost and the delta with volume 2 is dropped.
+        bayeux.getChannel(channelName).publish(null, newQuote(1), Promise.noop());
+        bayeux.getChannel(channelName).publish(null, newQuote(2), Promise.noop());
+        Assertions.assertNull(messages.poll(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(lost.get());
+
+        // The resync request travels with the next /meta/connect,
+        // and the next message is a snapshot again.
+        message = null;
+        for (int i = 3; i < 10 && message == null; ++i) {
+            bayeux.getChannel(channelName).publish(null, newQuote(i), Promise.noop());
+            message = messages.poll(1, TimeUnit.SECONDS);
+            if (message != null) {
+                Assertions.assertEquals(newQuote(i), message.getDataAsMap());
+            }
+        }
+        Assertions.assertNotNull(message);
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testClientWithoutDeltaExtension() throws Exception {
+        String channelName = "/quotes/PLAIN";
+
+        BayeuxClient client = newBayeuxClient();
+        BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.handshake(hsReply -> client.getChannel(channelName).subscribe((c, m) -> messages.offer(m), r -> subscribeLatch.countDown()));
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 3; ++i) {
+            Map<String, Object> data = newQuote(i);
+            bayeux.getChannel(channelName).publish(null, data, Promise.noop());
+            Message message = messages.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(message);
+            Assertions.assertEquals(data, message.getDataAsMap());
+            Assertions.assertNull(message.getExt());
+        }
+
+        disconnectBayeuxClient(client);
+    }
+
+    private Map<String, Object> newQuote(int volume) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("symbol", "COMETD");
+        data.put("exchange", "NASDAQ");
+        data.put("currency", "USD");
+        data.put("volume", (long)volume);
+        return data;
+    }
+}
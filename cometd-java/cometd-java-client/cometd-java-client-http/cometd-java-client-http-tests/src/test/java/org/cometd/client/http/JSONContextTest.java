@@ -15,7 +15,9 @@
  */
 package org.cometd.client.http;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -95,6 +97,58 @@ public class JSONContextTest extends ClientServerTest {
         Assertions.assertTrue(serverMessage instanceof ServerMessageImpl);
     }
 
+    @ParameterizedTest(name = "{index}: JSON Context Server: {0} JSON Context Client: {1}")
+    @MethodSource("jsonContexts")
+    public void testGenerateFrozenMessages(Class<JSONContextServer> jsonContextServerClass, Class<JSONContext.Client> jsonContextClientClass) throws Exception {
+        JSONContextServer jsonContextServer = jsonContextServerClass.getConstructor().newInstance();
+
+        FrozenMessage frozen = new FrozenMessage();
+        frozen.setChannel("/frozen");
+        frozen.setData("data");
+        // The frozen JSON must be generated verbatim, not from the message fields.
+        frozen.freeze("{\"channel\":\"/frozen\",\"data\":\"verbatim\"}");
+
+        ServerMessage.Mutable message = new ServerMessageImpl();
+        message.setChannel("/live");
+        message.setData("data");
+
+        String json = jsonContextServer.generate(Arrays.asList(frozen, message));
+
+        ServerMessage.Mutable[] messages = jsonContextServer.parse(json);
+        Assertions.assertEquals(2, messages.length);
+        Assertions.assertEquals("/frozen", messages[0].getChannel());
+        Assertions.assertEquals("verbatim", messages[0].getData());
+        Assertions.assertEquals("/live", messages[1].getChannel());
+        Assertions.assertEquals("data", messages[1].getData());
+    }
+
+    @ParameterizedTest
+    @MethodSource("jsonContexts")
+    public void testGenerateToOutputStream(Class<JSONContextServer> jsonContextServerClass, Class<JSONContext.Client> jsonContextClientClass) throws Exception {
+        JSONContextServer jsonContextServer = jsonContextServerClass.getConstructor().newInstance();
+
+        ServerMessage.Mutable message = new ServerMessageImpl();
+        message.setChannel("/bytes");
+        // Non-ASCII characters, including a surrogate pair, and
+        // enough of them to span more than one internal buffer.
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1024; ++i) {
+            builder.append("a\u20AC\uD83D\uDE00");
+        }
+        String data = builder.toString();
+        message.setData(data);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        jsonContextServer.generate(message, output);
+        String json = new String(output.toByteArray(), StandardCharsets.UTF_8);
+
+        // Generators may escape non-ASCII characters differently
+        // when writing bytes, so compare the parsed messages.
+        ServerMessage.Mutable[] messages = jsonContextServer.parse("[" + json + "]");
+        Assertions.assertEquals("/bytes", messages[0].getChannel());
+        Assertions.assertEquals(data, messages[0].getData());
+    }
+
     @Test
     public void testHandshakeMessageNoArray() throws Exception {
         Map<String, String> serverOptions = new HashMap<>();
@@ -179,4 +233,11 @@ public class JSONContextTest extends ClientServerTest {
 
         disconnectBayeuxClient(client);
     }
+
+    private static class FrozenMessage extends ServerMessageImpl {
+        @Override
+        protected void freeze(String json) {
+            super.freeze(json);
+        }
+    }
 }
@@ -17,8 +17,10 @@ package org.cometd.client.websocket.common;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +38,8 @@ import org.cometd.bayeux.Promise;
 import org.cometd.client.transport.HttpClientTransport;
 import org.cometd.client.transport.MessageClientTransport;
 import org.cometd.client.transport.TransportListener;
+import org.cometd.common.BinaryContext;
+import org.eclipse.jetty.util.ByteArrayOutputStream2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +50,10 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
     public static final String CONNECT_TIMEOUT_OPTION = "connectTimeout";
     public static final String IDLE_TIMEOUT_OPTION = "idleTimeout";
     public static final String STICKY_RECONNECT_OPTION = "stickyReconnect";
+    public static final String BINARY_PROTOCOL_OPTION = "binaryProtocol";
+    public static final String BINARY_CONTEXT_OPTION = "binaryContext";
+    public static final String PING_LIVENESS_OPTION = "pingLiveness";
+    public static final String PING_FIELD = "ping";
     public static final int MAX_CLOSE_REASON_LENGTH = 30;
     public static final int NORMAL_CLOSE_CODE = 1000;
     protected static final String COOKIE_HEADER = "Cookie";
@@ -54,9 +62,12 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
     private final Object _lock = this;
     private boolean _open;
     private String _protocol;
+    private String _binaryProtocol;
+    private BinaryContext.Client _binaryContext;
     private long _connectTimeout;
     private long _idleTimeout;
     private boolean _stickyReconnect;
+    private boolean _pingLiveness;
     private Delegate _delegate;
     private TransportListener _listener;
 
@@ -80,16 +91,40 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
     public void init() {
         super.init();
         _protocol = getOption(PROTOCOL_OPTION, _protocol);
+        _binaryProtocol = getOption(BINARY_PROTOCOL_OPTION, _binaryProtocol);
+        _binaryContext = _binaryProtocol == null ? null : newBinaryContext();
         setMaxNetworkDelay(15000L);
         _connectTimeout = 30000L;
         _idleTimeout = 60000L;
         _stickyReconnect = getOption(STICKY_RECONNECT_OPTION, true);
+        _pingLiveness = getOption(PING_LIVENESS_OPTION, false);
         locked(() -> {
             _open = true;
             initScheduler();
         });
     }
 
+    private BinaryContext.Client newBinaryContext() {
+        Object option = getOption(BINARY_CONTEXT_OPTION);
+        if (option instanceof BinaryContext.Client) {
+            return (BinaryContext.Client)option;
+        }
+        String className = option == null ? "org.cometd.common.JacksonCBORContextClient" : option.toString();
+        try {
+            Class<?> binaryContextClass = Thread.currentThread().getContextClassLoader().loadClass(className);
+            if (BinaryContext.Client.class.isAssignableFrom(binaryContextClass)) {
+                return (BinaryContext.Client)binaryContextClass.getConstructor().newInstance();
+            }
+        } catch (Throwable x) {
+            if (option == null && (x instanceof LinkageError || x.getCause() instanceof LinkageError)) {
+                // The default implementation needs the optional jackson-dataformat-cbor.
+                throw new IllegalStateException(className + " requires jackson-dataformat-cbor in the classpath", x);
+            }
+            throw new IllegalArgumentException("Invalid implementation of " + BinaryContext.Client.class.getName() + " provided: " + className, x);
+        }
+        throw new IllegalArgumentException("Invalid implementation of " + BinaryContext.Client.class.getName() + " provided: " + className);
+    }
+
     protected void locked(Runnable block) {
         locked(() -> {
             block.run();
@@ -107,6 +142,27 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         return _protocol;
     }
 
+    /**
+     * <p>Returns the name of the WebSocket subprotocol offered to the server
+     * so that messages travel in binary frames encoded by the
+     * {@link #getBinaryContext() binary context}, rather than as JSON text.</p>
+     * <p>Messages are sent as JSON text if the server does not accept the
+     * binary subprotocol.</p>
+     *
+     * @return the name of the binary WebSocket subprotocol, or null if binary frames are disabled
+     */
+    public String getBinaryProtocol() {
+        return _binaryProtocol;
+    }
+
+    /**
+     * @return the context that encodes messages in binary frames, or null if binary frames are disabled
+     * @see #getBinaryProtocol()
+     */
+    public BinaryContext.Client getBinaryContext() {
+        return _binaryContext;
+    }
+
     public long getIdleTimeout() {
         return _idleTimeout = getOption(IDLE_TIMEOUT_OPTION, _idleTimeout);
     }
@@ -119,6 +175,20 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         return _stickyReconnect;
     }
 
+    /**
+     * <p>Returns whether this transport asks the server to keep the connection
+     * alive with WebSocket pings, rather than with {@code /meta/connect} cycles.</p>
+     * <p>If the server supports ping liveness, it holds the {@code /meta/connect}
+     * messages until it has something to reply, and tells the interval at which
+     * this transport must send pings; the pongs tell this transport that the
+     * connection is alive while it waits for the {@code /meta/connect} reply.</p>
+     *
+     * @return whether ping liveness is requested to the server
+     */
+    public boolean isPingLiveness() {
+        return _pingLiveness;
+    }
+
     @Override
     public void abort(Throwable failure) {
         Delegate delegate = locked(() -> {
@@ -148,6 +218,12 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         return locked(() -> _delegate);
     }
 
+    @Override
+    public boolean isBinary() {
+        Delegate delegate = getDelegate();
+        return delegate != null && delegate.isBinary();
+    }
+
     @Override
     public void send(TransportListener listener, List<Mutable> messages) {
         Delegate delegate = getDelegate();
@@ -176,6 +252,25 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         try {
             delegate.registerMessages(listener, messages);
 
+            if (isPingLiveness() && delegate.isPingSupported()) {
+                for (Mutable message : messages) {
+                    if (Channel.META_CONNECT.equals(message.getChannel())) {
+                        message.getAdvice(true).put(PING_FIELD, true);
+                    }
+                }
+            }
+
+            if (delegate.isBinary()) {
+                ByteArrayOutputStream2 output = new ByteArrayOutputStream2();
+                getBinaryContext().generate(messages, output);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Sending {} binary bytes for messages {}", output.getCount(), messages);
+                }
+                listener.onSending(messages);
+                delegate.send(ByteBuffer.wrap(output.getBuf(), 0, output.getCount()));
+                return;
+            }
+
             String content = generateJSON(messages);
 
             // The onSending() callback must be invoked before the actual send
@@ -199,6 +294,9 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         private boolean _connected;
         private boolean _disconnected;
         private Map<String, Object> _advice;
+        private long _pingInterval;
+        private ScheduledFuture<?> _pingTask;
+        private volatile long _lastPong;
 
         protected void onClose(int code, String reason) {
             if (detach()) {
@@ -228,6 +326,30 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
             }
         }
 
+        /**
+         * <p>Parses the messages of a binary message with the binary context.</p>
+         *
+         * @param data the bytes of the binary message
+         * @see #isBinary()
+         */
+        protected void onData(ByteBuffer data) {
+            try {
+                Mutable[] messages = getBinaryContext().parse(data);
+                if (isAttached()) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Received binary messages {}", Arrays.asList(messages));
+                    }
+                    onMessages(new ArrayList<>(Arrays.asList(messages)));
+                } else {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Discarded binary messages {}", Arrays.asList(messages));
+                    }
+                }
+            } catch (ParseException x) {
+                fail(x, "Exception");
+            }
+        }
+
         protected void onMessages(List<Mutable> messages) {
             for (Mutable message : messages) {
                 if (isReply(message)) {
@@ -241,6 +363,10 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
                             if (advice.get(Message.TIMEOUT_FIELD) != null) {
                                 _advice = advice;
                             }
+                            Object pingInterval = advice.get(PING_FIELD);
+                            if (pingInterval instanceof Number) {
+                                startPinging(((Number)pingInterval).longValue());
+                            }
                         }
                     }
 
@@ -338,6 +464,19 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         }
 
         private void onTimeout(TransportListener listener, Message message, long delay, AtomicReference<ScheduledFuture<?>> timeoutTaskRef) {
+            if (Channel.META_CONNECT.equals(message.getChannel()) && isPingAlive()) {
+                // The server holds the /meta/connect while pongs arrive.
+                ScheduledFuture<?> newTask = getScheduler().schedule(() -> onTimeout(listener, message, delay, timeoutTaskRef), delay, TimeUnit.MILLISECONDS);
+                timeoutTaskRef.set(newTask);
+                if (!_exchanges.containsKey(message.getId())) {
+                    // The reply arrived concurrently.
+                    newTask.cancel(false);
+                }
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Extended waiting for held message reply, {} ms, task@{}", delay, Integer.toHexString(newTask.hashCode()));
+                }
+                return;
+            }
             listener.onTimeout(Collections.singletonList(message), Promise.from(result -> {
                 if (result > 0) {
                     ScheduledFuture<?> newTask = getScheduler().schedule(() -> onTimeout(listener, message, delay + result, timeoutTaskRef), result, TimeUnit.MILLISECONDS);
@@ -378,6 +517,88 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
             return exchange;
         }
 
+        private void startPinging(long interval) {
+            if (interval <= 0 || !isPingSupported()) {
+                return;
+            }
+            ScheduledFuture<?> oldTask = locked(() -> {
+                if (_pingInterval == interval) {
+                    return null;
+                }
+                _pingInterval = interval;
+                _lastPong = System.nanoTime();
+                ScheduledFuture<?> task = _pingTask;
+                _pingTask = getScheduler().scheduleWithFixedDelay(this::ping, interval, interval, TimeUnit.MILLISECONDS);
+                return task;
+            });
+            if (oldTask != null) {
+                oldTask.cancel(false);
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Pinging every {} ms", interval);
+            }
+        }
+
+        private void ping() {
+            if (isAttached()) {
+                sendPing();
+            } else {
+                stopPinging();
+            }
+        }
+
+        private void stopPinging() {
+            ScheduledFuture<?> task = locked(() -> {
+                ScheduledFuture<?> result = _pingTask;
+                _pingTask = null;
+                _pingInterval = 0;
+                return result;
+            });
+            if (task != null) {
+                task.cancel(false);
+            }
+        }
+
+        private boolean isPingAlive() {
+            long pingInterval = locked(() -> _pingInterval);
+            if (pingInterval <= 0) {
+                return false;
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _lastPong);
+            return elapsed <= pingInterval + getMaxNetworkDelay();
+        }
+
+        /**
+         * <p>Notifies that a pong frame has been received, so that the connection is alive.</p>
+         *
+         * @see #sendPing()
+         */
+        protected void onPong() {
+            _lastPong = System.nanoTime();
+        }
+
+        /**
+         * <p>Returns whether this delegate can send WebSocket pings and be notified
+         * of pongs, so that the server can be asked for ping liveness.</p>
+         *
+         * @return whether WebSocket pings are supported
+         * @see #isPingLiveness()
+         */
+        protected boolean isPingSupported() {
+            return false;
+        }
+
+        /**
+         * <p>Sends a WebSocket ping frame.</p>
+         * <p>This implementation does nothing, since pings are not
+         * {@link #isPingSupported() supported} by default; delegates that
+         * support pings override both methods.</p>
+         *
+         * @see #isPingSupported()
+         */
+        protected void sendPing() {
+        }
+
         protected String trimCloseReason(String reason) {
             if (reason != null) {
                 return reason.substring(0, Math.min(reason.length(), MAX_CLOSE_REASON_LENGTH));
@@ -387,6 +608,31 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
 
         protected abstract void send(String content);
 
+        /**
+         * <p>Returns whether the binary WebSocket subprotocol has been
+         * negotiated, so that messages travel in binary frames.</p>
+         *
+         * @return whether messages are exchanged in binary frames
+         * @see #getBinaryProtocol()
+         */
+        protected boolean isBinary() {
+            return false;
+        }
+
+        /**
+         * <p>Sends the given bytes, encoded by the binary context, as a binary frame.</p>
+         * <p>This method is only called when {@link #isBinary()} returns true,
+         * so delegates that support binary frames override both methods.
+         * This implementation fails the pending messages rather than
+         * throwing, like a failed send would.</p>
+         *
+         * @param content the bytes to send
+         * @see #isBinary()
+         */
+        protected void send(ByteBuffer content) {
+            fail(new IOException("Binary frames not supported"), "Failure");
+        }
+
         protected void fail(Throwable failure, String reason) {
             disconnect(reason);
             failMessages(failure);
@@ -419,13 +665,17 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         }
 
         private boolean detach() {
-            return locked(() -> {
+            boolean detached = locked(() -> {
                 boolean attached = this == _delegate;
                 if (attached) {
                     _delegate = null;
                 }
                 return attached;
             });
+            if (detached) {
+                stopPinging();
+            }
+            return detached;
         }
 
         protected boolean isOpen() {
@@ -22,6 +22,7 @@ import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.channels.UnresolvedAddressException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -40,6 +41,7 @@ import javax.websocket.Endpoint;
 import javax.websocket.EndpointConfig;
 import javax.websocket.HandshakeResponse;
 import javax.websocket.MessageHandler;
+import javax.websocket.PongMessage;
 import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 import org.cometd.bayeux.Message.Mutable;
@@ -160,6 +162,12 @@ public class WebSocketTransport extends AbstractWebSocketTransport {
         private void onOpen(Session session) {
             locked(() -> _session = session);
             session.addMessageHandler(this);
+            session.addMessageHandler(new MessageHandler.Whole<PongMessage>() {
+                @Override
+                public void onMessage(PongMessage pong) {
+                    onPong();
+                }
+            });
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Opened websocket session {}", session);
             }
@@ -193,6 +201,24 @@ public class WebSocketTransport extends AbstractWebSocketTransport {
             }
         }
 
+        @Override
+        protected boolean isPingSupported() {
+            return true;
+        }
+
+        @Override
+        protected void sendPing() {
+            Session session = locked(() -> _session);
+            try {
+                if (session == null) {
+                    throw new IOException("Unconnected");
+                }
+                session.getAsyncRemote().sendPing(ByteBuffer.allocate(0));
+            } catch (Throwable x) {
+                fail(x, "Failure");
+            }
+        }
+
         @Override
         protected void shutdown(String reason) {
             Session session = locked(() -> {
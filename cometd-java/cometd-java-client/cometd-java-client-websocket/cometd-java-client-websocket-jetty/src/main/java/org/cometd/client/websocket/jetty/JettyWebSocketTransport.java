@@ -21,7 +21,9 @@ import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,6 +42,7 @@ import org.eclipse.jetty.websocket.api.UpgradeException;
 import org.eclipse.jetty.websocket.api.UpgradeRequest;
 import org.eclipse.jetty.websocket.api.UpgradeResponse;
 import org.eclipse.jetty.websocket.api.WebSocketListener;
+import org.eclipse.jetty.websocket.api.WebSocketPingPongListener;
 import org.eclipse.jetty.websocket.client.ClientUpgradeRequest;
 import org.eclipse.jetty.websocket.client.WebSocketClient;
 import org.eclipse.jetty.websocket.client.io.UpgradeListener;
@@ -80,6 +83,9 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport implemen
         _webSocketClient.getPolicy().setIdleTimeout(getIdleTimeout());
         int maxMessageSize = getOption(MAX_MESSAGE_SIZE_OPTION, _webSocketClient.getPolicy().getMaxTextMessageSize());
         _webSocketClient.getPolicy().setMaxTextMessageSize(maxMessageSize);
+        if (getBinaryProtocol() != null) {
+            _webSocketClient.getPolicy().setMaxBinaryMessageSize(maxMessageSize);
+        }
 
         _webSocketSupported = true;
         _webSocketConnected = false;
@@ -92,9 +98,18 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport implemen
                 LOGGER.debug("Opening websocket session to {}", uri);
             }
             ClientUpgradeRequest request = new ClientUpgradeRequest();
+            List<String> protocols = new ArrayList<>(2);
+            // Offer the binary subprotocol first, so that it is preferred.
+            String binaryProtocol = getBinaryProtocol();
+            if (binaryProtocol != null) {
+                protocols.add(binaryProtocol);
+            }
             String protocol = getProtocol();
             if (protocol != null) {
-                request.setSubProtocols(protocol);
+                protocols.add(protocol);
+            }
+            if (!protocols.isEmpty()) {
+                request.setSubProtocols(protocols);
             }
             Delegate delegate = connect(_webSocketClient, request, uri);
             _webSocketConnected = true;
@@ -152,11 +167,14 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport implemen
         storeCookies(URI.create(getURL()), response.getHeaders());
     }
 
-    protected class JettyWebSocketDelegate extends Delegate implements WebSocketListener {
+    protected class JettyWebSocketDelegate extends Delegate implements WebSocketListener, WebSocketPingPongListener {
         private Session _session;
+        private volatile boolean _binary;
 
         @Override
         public void onWebSocketConnect(Session session) {
+            String binaryProtocol = getBinaryProtocol();
+            _binary = binaryProtocol != null && binaryProtocol.equals(session.getUpgradeResponse().getAcceptedSubProtocol());
             locked(() -> _session = session);
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Opened websocket session {}", session);
@@ -175,6 +193,14 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport implemen
 
         @Override
         public void onWebSocketBinary(byte[] payload, int offset, int len) {
+            if (_binary) {
+                onData(ByteBuffer.wrap(payload, offset, len));
+            }
+        }
+
+        @Override
+        protected boolean isBinary() {
+            return _binary;
         }
 
         @Override
@@ -204,6 +230,51 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport implemen
             }
         }
 
+        @Override
+        protected void send(ByteBuffer content) {
+            Session session = locked(() -> _session);
+            try {
+                if (session == null) {
+                    throw new IOException("Unconnected");
+                }
+                long timeout = getIdleTimeout() + 1000;
+                session.getRemote().sendBytesByFuture(content).get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException x) {
+                fail(x, "Timeout");
+            } catch (ExecutionException x) {
+                fail(x.getCause(), "Exception");
+            } catch (Throwable x) {
+                fail(x, "Failure");
+            }
+        }
+
+        @Override
+        public void onWebSocketPing(ByteBuffer payload) {
+        }
+
+        @Override
+        public void onWebSocketPong(ByteBuffer payload) {
+            onPong();
+        }
+
+        @Override
+        protected boolean isPingSupported() {
+            return true;
+        }
+
+        @Override
+        protected void sendPing() {
+            Session session = locked(() -> _session);
+            try {
+                if (session == null) {
+                    throw new IOException("Unconnected");
+                }
+                session.getRemote().sendPing(ByteBuffer.allocate(0));
+            } catch (Throwable x) {
+                fail(x, "Failure");
+            }
+        }
+
         @Override
         protected void shutdown(String reason) {
             Session session = locked(() -> {
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.List;
+import org.cometd.bayeux.Message;
+
+/**
+ * <p>Abstraction for the conversion of Bayeux messages from and to a binary
+ * format, the binary counterpart of {@link JSONContext}.</p>
+ * <p>A {@code BinaryContext} is used by WebSocket transports when a binary
+ * WebSocket subprotocol has been negotiated, so that messages travel in
+ * binary frames rather than as JSON text.</p>
+ * <p>Both peers must use the same binary format, that is identified by the
+ * name of the WebSocket subprotocol.</p>
+ *
+ * @param <T> the type of message
+ */
+public interface BinaryContext<T extends Message.Mutable> {
+    /**
+     * <p>Parses an array of messages from the given bytes.</p>
+     *
+     * @param buffer the bytes to parse from
+     * @return an array of messages
+     * @throws ParseException in case of parsing errors
+     */
+    public T[] parse(ByteBuffer buffer) throws ParseException;
+
+    /**
+     * <p>Converts a list of messages to bytes, writing them to the given stream.</p>
+     * <p>The stream is not flushed nor closed.</p>
+     *
+     * @param messages the list of messages to convert
+     * @param output   the stream to write the bytes to
+     * @throws IOException if the bytes cannot be written
+     */
+    public void generate(List<T> messages, OutputStream output) throws IOException;
+
+    /**
+     * <p>Client specific {@link BinaryContext} that binds to {@link Message.Mutable}.</p>
+     */
+    public interface Client extends BinaryContext<Message.Mutable> {
+    }
+}
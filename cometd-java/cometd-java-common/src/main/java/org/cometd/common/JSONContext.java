@@ -15,9 +15,12 @@
  */
 package org.cometd.common;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.List;
 import org.cometd.bayeux.Message;
@@ -72,6 +75,22 @@ public interface JSONContext<T extends Message.Mutable> {
      */
     public String generate(T message);
 
+    /**
+     * <p>Converts a single message to JSON, writing its UTF-8 bytes to the given stream.</p>
+     * <p>This implementation writes the bytes of the string returned by
+     * {@link #generate(Message.Mutable)}; implementations that can generate
+     * the bytes directly, without the intermediate string, should override
+     * this method.</p>
+     * <p>The stream is not flushed nor closed.</p>
+     *
+     * @param message the message to stringify
+     * @param output the stream to write the JSON bytes to
+     * @throws IOException if the bytes cannot be written
+     */
+    public default void generate(T message, OutputStream output) throws IOException {
+        output.write(generate(message).getBytes(StandardCharsets.UTF_8));
+    }
+
     /**
      * <p>Converts a list of messages to a JSON string.</p>
      *
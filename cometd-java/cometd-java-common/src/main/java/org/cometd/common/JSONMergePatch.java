@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>An implementation of JSON merge patches, defined at https://tools.ietf.org/html/rfc7386,
+ * over JSON objects represented as {@code Map<String, Object>}.</p>
+ * <p>A merge patch contains only the fields that changed; a {@code null} value
+ * removes the field, an object value is merged recursively and any other value,
+ * including arrays, replaces the field value.</p>
+ * <p>Since {@code null} means removal, a JSON object that contains {@code null}
+ * values cannot be represented by a merge patch, see {@link #diff(Map, Map)}.</p>
+ */
+public class JSONMergePatch {
+    private JSONMergePatch() {
+    }
+
+    /**
+     * <p>Computes the merge patch that transforms {@code source} into {@code target}.</p>
+     *
+     * @param source the JSON object to transform
+     * @param target the JSON object to obtain
+     * @return the merge patch, possibly empty, or null if {@code target}
+     * contains {@code null} values that a merge patch cannot represent
+     */
+    public static Map<String, Object> diff(Map<String, Object> source, Map<String, Object> target) {
+        Map<String, Object> patch = new HashMap<>();
+        for (String key : source.keySet()) {
+            if (!target.containsKey(key)) {
+                patch.put(key, null);
+            }
+        }
+        for (Map.Entry<String, Object> entry : target.entrySet()) {
+            String key = entry.getKey();
+            Object newValue = entry.getValue();
+            if (newValue == null) {
+                return null;
+            }
+            Object oldValue = source.get(key);
+            if (equal(oldValue, newValue)) {
+                continue;
+            }
+            if (newValue instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> newMap = (Map<String, Object>)newValue;
+                Map<String, Object> value;
+                if (oldValue instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> oldMap = (Map<String, Object>)oldValue;
+                    value = diff(oldMap, newMap);
+                    // Arrays nested in the objects may be equal but not identical.
+                    if (value != null && value.isEmpty()) {
+                        continue;
+                    }
+                } else {
+                    // Applied to a non-object, the patch is merged into an empty object.
+                    value = diff(Collections.emptyMap(), newMap);
+                }
+                if (value == null) {
+                    return null;
+                }
+                patch.put(key, value);
+            } else {
+                patch.put(key, newValue);
+            }
+        }
+        return patch;
+    }
+
+    private static boolean equal(Object oldValue, Object newValue) {
+        if (oldValue instanceof Object[] && newValue instanceof Object[]) {
+            return Arrays.deepEquals((Object[])oldValue, (Object[])newValue);
+        }
+        return Objects.equals(oldValue, newValue);
+    }
+
+    /**
+     * <p>Applies the given merge patch to the given JSON object.</p>
+     * <p>The given JSON object is not modified: the result is a new JSON object
+     * that shares the values not touched by the patch with the given JSON object.</p>
+     *
+     * @param source the JSON object to patch
+     * @param patch  the merge patch
+     * @return a new, patched, JSON object
+     */
+    public static Map<String, Object> apply(Map<String, Object> source, Map<String, Object> patch) {
+        Map<String, Object> result = new HashMap<>(source);
+        for (Map.Entry<String, Object> entry : patch.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (value == null) {
+                result.remove(key);
+            } else if (value instanceof Map) {
+                Object oldValue = result.get(key);
+                @SuppressWarnings("unchecked")
+                Map<String, Object> oldMap = oldValue instanceof Map ? (Map<String, Object>)oldValue : Collections.emptyMap();
+                @SuppressWarnings("unchecked")
+                Map<String, Object> valueMap = (Map<String, Object>)value;
+                result.put(key, apply(oldMap, valueMap));
+            } else {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+}
@@ -17,38 +17,91 @@ package org.cometd.common;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.List;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.async.ByteArrayFeeder;
 import com.fasterxml.jackson.core.async.ByteBufferFeeder;
 import com.fasterxml.jackson.core.async.NonBlockingInputFeeder;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.SerializerFactory;
 import com.fasterxml.jackson.databind.util.TokenBuffer;
 import org.cometd.bayeux.Message;
+import org.eclipse.jetty.util.BufferUtil;
 
 public abstract class JacksonJSONContext<M extends Message.Mutable, I extends M> {
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private final JavaType rootArrayType;
+    private final ObjectMapper objectMapper;
+    private volatile Cache cache;
 
     protected JacksonJSONContext() {
-        rootArrayType = objectMapper.constructType(rootArrayClass());
+        this(new ObjectMapper());
     }
 
+    /**
+     * <p>Creates a context that uses the given {@link ObjectMapper}, for example
+     * one created with a binary {@code JsonFactory} to implement a {@link BinaryContext}.</p>
+     *
+     * @param objectMapper the ObjectMapper used to parse and generate messages
+     */
+    protected JacksonJSONContext(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * <p>Returns the {@link ObjectMapper} used to parse and generate messages.</p>
+     * <p>The {@link ObjectReader} and {@link ObjectWriter}s used for messages are
+     * created from the {@code ObjectMapper} and cached; they are created again
+     * when the {@code ObjectMapper} replaces its configuration, for example
+     * when a feature is enabled or a module that adds serializers is registered.
+     * Changes applied in place, for example by {@link ObjectMapper#addMixIn(Class, Class)}
+     * or {@link ObjectMapper#registerSubtypes(Class[])}, are not picked up, so they
+     * must be made before the first message is parsed or generated.</p>
+     *
+     * @return the ObjectMapper used by this JSONContext
+     */
     public ObjectMapper getObjectMapper() {
         return objectMapper;
     }
 
+    private Cache getCache() {
+        Cache result = cache;
+        if (result == null || !result.isCurrent()) {
+            result = new Cache();
+            cache = result;
+        }
+        return result;
+    }
+
+    private ObjectReader getRootArrayReader() {
+        return getCache().rootArrayReader;
+    }
+
+    private ObjectWriter getMessageWriter() {
+        return getCache().messageWriter;
+    }
+
+    private ObjectWriter getMessagesWriter() {
+        return getCache().messagesWriter;
+    }
+
     protected abstract Class<I[]> rootArrayClass();
 
     public M[] parse(InputStream stream) throws ParseException {
         try {
-            return getObjectMapper().readValue(stream, rootArrayType);
+            return getRootArrayReader().readValue(stream);
         } catch (IOException x) {
             throw (ParseException)new ParseException("", -1).initCause(x);
         }
@@ -56,7 +109,7 @@ public abstract class JacksonJSONContext<M extends Message.Mutable, I extends M>
 
     public M[] parse(Reader reader) throws ParseException {
         try {
-            return getObjectMapper().readValue(reader, rootArrayType);
+            return getRootArrayReader().readValue(reader);
         } catch (IOException x) {
             throw (ParseException)new ParseException("", -1).initCause(x);
         }
@@ -64,12 +117,23 @@ public abstract class JacksonJSONContext<M extends Message.Mutable, I extends M>
 
     public M[] parse(String json) throws ParseException {
         try {
-            return getObjectMapper().readValue(json, rootArrayType);
+            return getRootArrayReader().readValue(json);
         } catch (IOException x) {
             throw (ParseException)new ParseException(json, -1).initCause(x);
         }
     }
 
+    public M[] parse(ByteBuffer buffer) throws ParseException {
+        try {
+            if (buffer.hasArray()) {
+                return getRootArrayReader().readValue(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            return getRootArrayReader().readValue(BufferUtil.toArray(buffer));
+        } catch (IOException x) {
+            throw (ParseException)new ParseException("", -1).initCause(x);
+        }
+    }
+
     public JSONContext.AsyncParser newAsyncParser() {
         try {
             JsonParser jsonParser = objectMapper.getFactory().createNonBlockingByteArrayParser();
@@ -81,22 +145,28 @@ public abstract class JacksonJSONContext<M extends Message.Mutable, I extends M>
 
     public String generate(M message) {
         try {
-            return getObjectMapper().writeValueAsString(message);
+            return getMessageWriter().writeValueAsString(message);
         } catch (IOException x) {
             throw new RuntimeException(x);
         }
     }
 
+    public void generate(M message, OutputStream output) throws IOException {
+        getMessageWriter().writeValue(output, message);
+    }
+
     public String generate(List<M> messages) {
         try {
-            Message.Mutable[] mutables = new Message.Mutable[messages.size()];
-            messages.toArray(mutables);
-            return getObjectMapper().writeValueAsString(mutables);
+            return getMessagesWriter().writeValueAsString(messages);
         } catch (IOException x) {
             throw new RuntimeException(x);
         }
     }
 
+    public void generate(List<M> messages, OutputStream output) throws IOException {
+        getMessagesWriter().writeValue(output, messages);
+    }
+
     public JSONContext.Parser getParser() {
         return new ObjectMapperParser();
     }
@@ -127,6 +197,47 @@ public abstract class JacksonJSONContext<M extends Message.Mutable, I extends M>
         }
     }
 
+    /**
+     * <p>The readers and writers created from the {@link ObjectMapper}.</p>
+     * <p>The {@code ObjectMapper} replaces its configuration objects when features
+     * are changed or serializers and deserializers are added, so their identity
+     * tells whether the cache is still current; changes that the
+     * {@code ObjectMapper} applies in place, such as mix-ins, are not detected.</p>
+     */
+    private class Cache {
+        private final SerializationConfig serializationConfig = objectMapper.getSerializationConfig();
+        private final DeserializationConfig deserializationConfig = objectMapper.getDeserializationConfig();
+        private final SerializerFactory serializerFactory = objectMapper.getSerializerFactory();
+        private final SerializerProvider serializerProvider = objectMapper.getSerializerProvider();
+        private final DeserializationContext deserializationContext = objectMapper.getDeserializationContext();
+        private final ObjectReader rootArrayReader;
+        private final ObjectWriter messageWriter;
+        private final ObjectWriter messagesWriter;
+
+        private Cache() {
+            // Resolves the deserializers once, rather than at each parse.
+            JavaType rootArrayType = objectMapper.constructType(rootArrayClass());
+            rootArrayReader = objectMapper.readerFor(rootArrayType);
+            // Do not close nor flush the stream the messages are written to.
+            messageWriter = objectMapper.writer()
+                    .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            // Resolves the serializer of the list once, rather than at each generation.
+            JavaType messagesType = objectMapper.getTypeFactory().constructCollectionType(List.class, Message.Mutable.class);
+            messagesWriter = objectMapper.writerFor(messagesType)
+                    .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        }
+
+        private boolean isCurrent() {
+            return serializationConfig == objectMapper.getSerializationConfig() &&
+                    deserializationConfig == objectMapper.getDeserializationConfig() &&
+                    serializerFactory == objectMapper.getSerializerFactory() &&
+                    serializerProvider == objectMapper.getSerializerProvider() &&
+                    deserializationContext == objectMapper.getDeserializationContext();
+        }
+    }
+
     private class AsyncJsonParser implements JSONContext.AsyncParser {
         private final JsonParser jsonParser;
         private final TokenBuffer tokenBuffer;
@@ -193,7 +304,7 @@ public abstract class JacksonJSONContext<M extends Message.Mutable, I extends M>
                 NonBlockingInputFeeder feeder = jsonParser.getNonBlockingInputFeeder();
                 feeder.endOfInput();
                 jsonParser.nextToken();
-                M[] result = objectMapper.readValue(tokenBuffer.asParser(), objectMapper.constructType(rootArrayClass()));
+                M[] result = getRootArrayReader().readValue(tokenBuffer.asParser());
                 return (R)Arrays.asList(result);
             } catch (IOException x) {
                 throw new IllegalArgumentException(x);
@@ -15,8 +15,10 @@
  */
 package org.cometd.common;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -92,10 +94,30 @@ public abstract class JettyJSONContext<M extends Message.Mutable> {
         return _messageParser.toJSON(message);
     }
 
+    public void generate(M message, OutputStream output) throws IOException {
+        generate(_messageParser, message, output);
+    }
+
     public String generate(List<M> messages) {
         return _messagesParser.toJSON(messages);
     }
 
+    /**
+     * <p>Generates the given object with the given {@link JSON} instance,
+     * encoding the characters to UTF-8 as they are generated, and writing
+     * the bytes to the given stream, without an intermediate string.</p>
+     *
+     * @param json   the JSON instance that generates the object
+     * @param object the object to generate
+     * @param output the stream to write the UTF-8 bytes to
+     * @throws IOException if the bytes cannot be written
+     */
+    protected void generate(JSON json, Object object, OutputStream output) throws IOException {
+        UTF8Appendable appendable = new UTF8Appendable(output);
+        json.append(appendable, object);
+        appendable.flush();
+    }
+
     public JSONContext.Parser getParser() {
         return new JSONParser();
     }
@@ -104,6 +126,17 @@ public abstract class JettyJSONContext<M extends Message.Mutable> {
         return new JSONGenerator();
     }
 
+    /**
+     * <p>Returns the parser for the value of the given field of a message.</p>
+     * <p>Subclasses may override to parse certain fields differently.</p>
+     *
+     * @param field the name of the message field
+     * @return the parser for the value of the message field
+     */
+    protected JSON messageFieldContext(String field) {
+        return getJSON();
+    }
+
     public void putConvertor(String className, JSON.Convertor convertor) {
         getJSON().addConvertorFor(className, convertor);
         getAsyncJSONFactory().putConvertor(className, convertor);
@@ -139,7 +172,7 @@ public abstract class JettyJSONContext<M extends Message.Mutable> {
 
         @Override
         protected JSON contextFor(String field) {
-            return getJSON();
+            return messageFieldContext(field);
         }
 
         @Override
@@ -162,7 +195,7 @@ public abstract class JettyJSONContext<M extends Message.Mutable> {
 
         @Override
         protected JSON contextFor(String field) {
-            return getJSON();
+            return messageFieldContext(field);
         }
 
         @Override
@@ -253,4 +286,76 @@ public abstract class JettyJSONContext<M extends Message.Mutable> {
             };
         }
     }
+
+    private static class UTF8Appendable implements Appendable {
+        private final byte[] bytes = new byte[1024];
+        private final OutputStream output;
+        private int count;
+        private char highSurrogate;
+
+        private UTF8Appendable(OutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public Appendable append(CharSequence chars) throws IOException {
+            return append(chars, 0, chars.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence chars, int start, int end) throws IOException {
+            for (int i = start; i < end; ++i) {
+                append(chars.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (count > bytes.length - 4) {
+                output.write(bytes, 0, count);
+                count = 0;
+            }
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    bytes[count++] = (byte)(0xF0 | (codePoint >> 18));
+                    bytes[count++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[count++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[count++] = (byte)(0x80 | (codePoint & 0x3F));
+                    return this;
+                }
+                // Unpaired surrogate, replaced like String.getBytes() does.
+                bytes[count++] = '?';
+            }
+            if (c < 0x80) {
+                bytes[count++] = (byte)c;
+            } else if (c < 0x800) {
+                bytes[count++] = (byte)(0xC0 | (c >> 6));
+                bytes[count++] = (byte)(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                bytes[count++] = '?';
+            } else {
+                bytes[count++] = (byte)(0xE0 | (c >> 12));
+                bytes[count++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                bytes[count++] = (byte)(0x80 | (c & 0x3F));
+            }
+            return this;
+        }
+
+        private void flush() throws IOException {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                bytes[count++] = '?';
+            }
+            if (count > 0) {
+                output.write(bytes, 0, count);
+                count = 0;
+            }
+        }
+    }
 }
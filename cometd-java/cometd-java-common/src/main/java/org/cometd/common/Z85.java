@@ -16,6 +16,7 @@
 package org.cometd.common;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * <p>An implementation of Z85, a format for representing binary data
@@ -55,67 +56,158 @@ public class Z85 {
 
     public static class Encoder {
         public String encodeBytes(byte[] bytes) {
-            int length = bytes.length;
+            return encodeByteBuffer(ByteBuffer.wrap(bytes));
+        }
+
+        /**
+         * <p>Encodes the remaining bytes of the given buffer, consuming them.</p>
+         *
+         * @param buffer the bytes to encode
+         * @return the Z85 encoded string
+         */
+        public String encodeByteBuffer(ByteBuffer buffer) {
+            char[] chars = new char[encodedLength(buffer.remaining())];
+            encode(buffer, chars, 0);
+            return new String(chars);
+        }
+
+        /**
+         * @param length the number of bytes to encode
+         * @return the number of characters of the encoded bytes
+         */
+        public int encodedLength(int length) {
             int remainder = length % 4;
-            int padding = 4 - (remainder == 0 ? 4 : remainder);
-            StringBuilder result = new StringBuilder();
-            long value = 0;
-            for (int i = 0; i < length + padding; ++i) {
-                boolean isPadding = i >= length;
-                value = value * 256 + (isPadding ? 0 : bytes[i] & 0xFF);
-                if ((i + 1) % 4 == 0) {
-                    int divisor = 85 * 85 * 85 * 85;
-                    for (int j = 5; j > 0; --j) {
-                        if (!isPadding || j > padding) {
-                            int code = (int)((value / divisor) % 85);
-                            result.append(encodeTable[code]);
-                        }
-                        divisor /= 85;
-                    }
-                    value = 0;
+            return length / 4 * 5 + (remainder == 0 ? 0 : remainder + 1);
+        }
+
+        /**
+         * <p>Encodes the remaining bytes of the given buffer into the given
+         * characters array, consuming the bytes.</p>
+         * <p>The characters array must have room for at least
+         * {@link #encodedLength(int)} characters from the given offset.</p>
+         *
+         * @param buffer the bytes to encode
+         * @param chars  the characters array to encode into
+         * @param offset the offset in the characters array where to start encoding
+         * @return the number of characters encoded
+         */
+        public int encode(ByteBuffer buffer, char[] chars, int offset) {
+            ByteBuffer bytes = buffer.order() == ByteOrder.BIG_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+            int index = bytes.position();
+            int limit = bytes.limit();
+            int start = offset;
+            // Two groups of 4 bytes per iteration.
+            while (limit - index >= 8) {
+                long value = bytes.getLong(index);
+                index += 8;
+                offset = encodeGroup(value >>> 32, chars, offset, 5);
+                offset = encodeGroup(value & 0xFFFFFFFFL, chars, offset, 5);
+            }
+            if (limit - index >= 4) {
+                offset = encodeGroup(bytes.getInt(index) & 0xFFFFFFFFL, chars, offset, 5);
+                index += 4;
+            }
+            int remainder = limit - index;
+            if (remainder > 0) {
+                // Pad with zeroes, and emit only the significant characters.
+                long value = 0;
+                for (int i = 0; i < 4; ++i) {
+                    value = (value << 8) | (i < remainder ? bytes.get(index + i) & 0xFF : 0);
                 }
+                offset = encodeGroup(value, chars, offset, remainder + 1);
             }
-            return result.toString();
+            buffer.position(limit);
+            return offset - start;
         }
 
-        public String encodeByteBuffer(ByteBuffer buffer) {
-            // TODO: avoid copy.
-            byte[] bytes = new byte[buffer.remaining()];
-            buffer.get(bytes);
-            return encodeBytes(bytes);
+        private static int encodeGroup(long value, char[] chars, int offset, int count) {
+            int d4 = (int)(value % 85);
+            value /= 85;
+            int d3 = (int)(value % 85);
+            value /= 85;
+            int d2 = (int)(value % 85);
+            value /= 85;
+            int d1 = (int)(value % 85);
+            int d0 = (int)(value / 85);
+            chars[offset] = encodeTable[d0];
+            chars[offset + 1] = encodeTable[d1];
+            if (count > 2) {
+                chars[offset + 2] = encodeTable[d2];
+            }
+            if (count > 3) {
+                chars[offset + 3] = encodeTable[d3];
+            }
+            if (count > 4) {
+                chars[offset + 4] = encodeTable[d4];
+            }
+            return offset + count;
         }
     }
 
     public static class Decoder {
         public byte[] decodeBytes(String string) {
-            int remainder = string.length() % 5;
-            int padding = 5 - (remainder == 0 ? 5 : remainder);
-            for (int p = 0; p < padding; ++p) {
-                string += encodeTable[encodeTable.length - 1];
-            }
+            byte[] bytes = new byte[decodedLength(string.length())];
+            decode(string, ByteBuffer.wrap(bytes));
+            return bytes;
+        }
+
+        public ByteBuffer decodeByteBuffer(String string) {
+            return ByteBuffer.wrap(decodeBytes(string));
+        }
+
+        /**
+         * @param length the number of characters to decode
+         * @return the number of bytes of the decoded characters
+         */
+        public int decodedLength(int length) {
+            int remainder = length % 5;
+            return length / 5 * 4 + (remainder == 0 ? 0 : remainder - 1);
+        }
+
+        /**
+         * <p>Decodes the given string into the given buffer.</p>
+         * <p>The buffer must have at least {@link #decodedLength(int)}
+         * bytes remaining, and its position is advanced by that amount.</p>
+         *
+         * @param string the Z85 encoded string
+         * @param buffer the buffer to decode into
+         */
+        public void decode(CharSequence string, ByteBuffer buffer) {
+            ByteBuffer bytes = buffer.order() == ByteOrder.BIG_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+            int position = bytes.position();
             int length = string.length();
-            byte[] bytes = new byte[(length * 4 / 5) - padding];
-            long value = 0;
             int index = 0;
-            for (int i = 0; i < length; ++i) {
-                int code = string.charAt(i) - 32;
-                value = value * 85 + decodeTable[code];
-                if ((i + 1) % 5 == 0) {
-                    int divisor = 256 * 256 * 256;
-                    while (divisor >= 1) {
-                        if (index < bytes.length) {
-                            bytes[index++] = (byte)((value / divisor) % 256);
-                        }
-                        divisor /= 256;
-                    }
-                    value = 0;
+            // Two groups of 5 characters per iteration.
+            while (length - index >= 10) {
+                long high = decodeGroup(string, index, 5);
+                long low = decodeGroup(string, index + 5, 5) & 0xFFFFFFFFL;
+                bytes.putLong(position, (high << 32) | low);
+                position += 8;
+                index += 10;
+            }
+            if (length - index >= 5) {
+                bytes.putInt(position, (int)decodeGroup(string, index, 5));
+                position += 4;
+                index += 5;
+            }
+            int remainder = length - index;
+            if (remainder > 0) {
+                long value = decodeGroup(string, index, remainder);
+                for (int i = 0; i < remainder - 1; ++i) {
+                    bytes.put(position++, (byte)(value >>> (24 - 8 * i)));
                 }
             }
-            return bytes;
+            buffer.position(position);
         }
 
-        public ByteBuffer decodeByteBuffer(String string) {
-            return ByteBuffer.wrap(decodeBytes(string));
+        private static long decodeGroup(CharSequence string, int index, int count) {
+            long value = 0;
+            for (int i = 0; i < 5; ++i) {
+                // Pad with the last character of the alphabet.
+                int digit = i < count ? decodeTable[string.charAt(index + i) - 32] : 84;
+                value = value * 85 + digit;
+            }
+            return value;
         }
     }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.io.StringReader;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class JSONMergePatchTest {
+    private final JettyJSONContextClient jsonContext = new JettyJSONContextClient();
+
+    @Test
+    public void testDiffAndApply() throws Exception {
+        Map<String, Object> source = parse("{\"symbol\":\"COMETD\",\"price\":1.5,\"gone\":true,\"bid\":{\"price\":1.4,\"size\":10},\"tags\":[\"a\",\"b\"]}");
+        Map<String, Object> target = parse("{\"symbol\":\"COMETD\",\"price\":1.6,\"bid\":{\"price\":1.4,\"size\":20},\"tags\":[\"a\",\"b\"],\"ask\":{\"price\":1.7}}");
+
+        Map<String, Object> patch = JSONMergePatch.diff(source, target);
+        Assertions.assertNotNull(patch);
+        Assertions.assertEquals("{\"ask\":{\"price\":1.7},\"bid\":{\"size\":20},\"gone\":null,\"price\":1.6}", generate(patch));
+
+        Map<String, Object> result = JSONMergePatch.apply(source, patch);
+        Assertions.assertEquals(generate(target), generate(result));
+        // The source is not modified.
+        Assertions.assertEquals(true, source.get("gone"));
+    }
+
+    @Test
+    public void testDiffOfEqualObjectsIsEmpty() throws Exception {
+        String json = "{\"a\":1,\"b\":{\"c\":[1,2,{\"d\":3}]}}";
+        Map<String, Object> patch = JSONMergePatch.diff(parse(json), parse(json));
+        Assertions.assertNotNull(patch);
+        Assertions.assertTrue(patch.isEmpty());
+    }
+
+    @Test
+    public void testNullValuesCannotBeRepresented() throws Exception {
+        Map<String, Object> source = parse("{\"a\":1}");
+        Assertions.assertNull(JSONMergePatch.diff(source, parse("{\"a\":null}")));
+        Assertions.assertNull(JSONMergePatch.diff(source, parse("{\"a\":{\"b\":null}}")));
+    }
+
+    @Test
+    public void testObjectReplacingNonObject() throws Exception {
+        Map<String, Object> source = parse("{\"a\":1}");
+        Map<String, Object> target = parse("{\"a\":{\"b\":2}}");
+        Map<String, Object> result = JSONMergePatch.apply(source, JSONMergePatch.diff(source, target));
+        Assertions.assertEquals(generate(target), generate(result));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> parse(String json) throws Exception {
+        return jsonContext.getParser().parse(new StringReader(json), Map.class);
+    }
+
+    private String generate(Map<String, Object> map) {
+        return jsonContext.getGenerator().generate(sorted(map));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> sorted(Map<String, Object> map) {
+        Map<String, Object> result = new TreeMap<>();
+        map.forEach((key, value) -> result.put(key, value instanceof Map ? sorted((Map<String, Object>)value) : value));
+        return result;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.math.BigDecimal;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.cometd.bayeux.Message;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class JacksonJSONContextTest {
+    @Test
+    public void testObjectMapperConfiguredAfterFirstUse() throws Exception {
+        JacksonJSONContextClient jsonContext = new JacksonJSONContextClient();
+
+        String json = "[{\"channel\":\"/foo\",\"data\":1.5}]";
+        Message.Mutable message = jsonContext.parse(json)[0];
+        Assertions.assertTrue(message.getData() instanceof Double);
+        String generated = jsonContext.generate(message);
+        Assertions.assertFalse(generated.contains("\n"));
+
+        jsonContext.getObjectMapper().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+        jsonContext.getObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+        message = jsonContext.parse(json)[0];
+        Assertions.assertTrue(message.getData() instanceof BigDecimal);
+        generated = jsonContext.generate(message);
+        Assertions.assertTrue(generated.contains("\n"), generated);
+    }
+}
@@ -15,7 +15,9 @@
  */
 package org.cometd.common;
 
-
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -35,4 +37,37 @@ public class Z85Test {
         byte[] result = Z85.decoder.decodeBytes(Z85.encoder.encodeBytes(bytes));
         Assertions.assertArrayEquals(bytes, result);
     }
+
+    @Test
+    public void testZ85AllLengths() {
+        Random random = new Random();
+        for (int length = 0; length < 64; ++length) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            String string = Z85.encoder.encodeBytes(bytes);
+            Assertions.assertEquals(Z85.encoder.encodedLength(length), string.length());
+            byte[] result = Z85.decoder.decodeBytes(string);
+            Assertions.assertArrayEquals(bytes, result);
+        }
+    }
+
+    @Test
+    public void testZ85ByteBuffers() {
+        byte[] bytes = new byte[]{0, -122, 79, -46, 111, -75, 89, -9, 91, 0};
+        // Little endian direct buffer, encoding only the "HelloWorld" bytes.
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(bytes).flip();
+        buffer.position(1).limit(bytes.length - 1);
+        char[] chars = new char[12];
+        int encoded = Z85.encoder.encode(buffer, chars, 1);
+        Assertions.assertEquals(10, encoded);
+        Assertions.assertEquals("HelloWorld", new String(chars, 1, encoded));
+        Assertions.assertFalse(buffer.hasRemaining());
+
+        ByteBuffer output = ByteBuffer.allocate(bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        output.position(1);
+        Z85.decoder.decode("HelloWorld", output);
+        Assertions.assertEquals(bytes.length - 1, output.position());
+        Assertions.assertArrayEquals(bytes, output.array());
+    }
 }
@@ -17,6 +17,9 @@ package org.cometd.server;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.util.concurrent.atomic.AtomicLong;
 import org.cometd.bayeux.Promise;
@@ -41,6 +44,10 @@ public abstract class AbstractServerTransport extends AbstractTransport implemen
     public static final String MAX_LAZY_TIMEOUT_OPTION = "maxLazyTimeout";
     public static final String META_CONNECT_DELIVERY_OPTION = "metaConnectDeliverOnly";
     public static final String MAX_QUEUE_OPTION = "maxQueue";
+    public static final String MAX_QUEUE_BYTES_OPTION = "maxQueueBytes";
+    public static final String MAX_QUEUE_POLICY_OPTION = "maxQueuePolicy";
+    public static final String SPILL_THRESHOLD_OPTION = "spillThreshold";
+    public static final String SPILL_DIRECTORY_OPTION = "spillDirectory";
     public static final String JSON_CONTEXT_OPTION = "jsonContext";
     public static final String HANDSHAKE_RECONNECT_OPTION = "handshakeReconnect";
     public static final String ALLOW_MESSAGE_DELIVERY_DURING_HANDSHAKE = "allowMessageDeliveryDuringHandshake";
@@ -58,6 +65,10 @@ public abstract class AbstractServerTransport extends AbstractTransport implemen
     private boolean _handshakeReconnect;
     private boolean _allowHandshakeDelivery;
     private int _maxMessageSize;
+    private long _maxQueueBytes;
+    private MaxQueuePolicy _maxQueuePolicy;
+    private long _spillThreshold;
+    private Path _spillDirectory;
 
     /**
      * <p>The constructor is passed the {@link BayeuxServerImpl} instance for
@@ -142,6 +153,52 @@ public abstract class AbstractServerTransport extends AbstractTransport implemen
         return _maxMessageSize;
     }
 
+    /**
+     * <p>Returns the max size, in bytes, of the frozen JSON of the messages
+     * in the queue of a session, after which the {@link #getMaxQueuePolicy()
+     * max queue policy} is applied to new messages.</p>
+     *
+     * @return the max size of a session queue in bytes, or a non-positive value for no limit
+     * @see ServerMessageImpl#getJSONSize()
+     */
+    public long getMaxQueueBytes() {
+        return _maxQueueBytes;
+    }
+
+    /**
+     * @return the policy applied to new messages when the queue of a session is full
+     */
+    public MaxQueuePolicy getMaxQueuePolicy() {
+        return _maxQueuePolicy;
+    }
+
+    /**
+     * <p>Returns the size, in bytes, of the messages kept in memory in the
+     * queue of a session, after which new messages are spilled to a
+     * memory-mapped file in the {@link #getSpillDirectory() spill directory}.</p>
+     * <p>Spilled messages are loaded back in memory when the queue is
+     * taken to be sent to the client, so that sessions of clients that
+     * are offline for a long time do not retain their messages on heap.
+     * Spilled messages do not count against the max queue limits.</p>
+     * <p>Messages of conflated channels replace a pending spilled message
+     * with the same key as they do for messages in memory; the replacement
+     * is kept in memory and takes the place of the spilled message when it
+     * is loaded back.</p>
+     *
+     * @return the size of the in-memory queue in bytes, or a non-positive value to never spill
+     */
+    public long getSpillThreshold() {
+        return _spillThreshold;
+    }
+
+    /**
+     * @return the directory of the files where messages are spilled
+     * @see #getSpillThreshold()
+     */
+    public Path getSpillDirectory() {
+        return _spillDirectory;
+    }
+
     public void setMaxMessageSize(int maxMessageSize) {
         _maxMessageSize = maxMessageSize;
     }
@@ -159,6 +216,10 @@ public abstract class AbstractServerTransport extends AbstractTransport implemen
         _handshakeReconnect = getOption(HANDSHAKE_RECONNECT_OPTION, false);
         _allowHandshakeDelivery = getOption(ALLOW_MESSAGE_DELIVERY_DURING_HANDSHAKE, false);
         _maxMessageSize = getOption(MAX_MESSAGE_SIZE_OPTION, -1);
+        _maxQueueBytes = getOption(MAX_QUEUE_BYTES_OPTION, -1L);
+        _maxQueuePolicy = MaxQueuePolicy.from(getOption(MAX_QUEUE_POLICY_OPTION, "notify"));
+        _spillThreshold = getOption(SPILL_THRESHOLD_OPTION, -1L);
+        _spillDirectory = Paths.get(getOption(SPILL_DIRECTORY_OPTION, System.getProperty("java.io.tmpdir")));
     }
 
     public void destroy() {
@@ -259,6 +320,39 @@ public abstract class AbstractServerTransport extends AbstractTransport implemen
         return json;
     }
 
+    /**
+     * <p>Writes the UTF-8 bytes of the JSON of the given message to the given stream.</p>
+     * <p>The bytes of frozen messages are written as they are, while the other
+     * messages are generated directly to the stream, without intermediate string.</p>
+     *
+     * @param msg    the message to write
+     * @param output the stream to write the message bytes to
+     * @throws IOException if the bytes cannot be written
+     * @see org.cometd.common.JSONContext#generate(org.cometd.bayeux.Message.Mutable, OutputStream)
+     */
+    protected void writeJSON(ServerMessage msg, OutputStream output) throws IOException {
+        ServerMessageImpl message = (ServerMessageImpl)(msg instanceof ServerMessageImpl ? msg : _bayeux.newMessage(msg));
+        byte[] bytes = message.getJSONBytes();
+        if (bytes == null) {
+            _jsonContext.generate(message, output);
+        } else {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * <p>Returns whether this transport writes messages as UTF-8 bytes with
+     * {@link #writeJSON(ServerMessage, OutputStream)}, rather than as strings
+     * with {@link #toJSON(ServerMessage)}.</p>
+     * <p>The server uses this information to freeze messages only with the
+     * encodings that the transports need.</p>
+     *
+     * @return whether this transport writes messages as bytes
+     */
+    protected boolean isWriteBytes() {
+        return false;
+    }
+
     public boolean allowMessageDeliveryDuringHandshake(ServerSessionImpl session) {
         return session != null && session.isAllowMessageDeliveryDuringHandshake();
     }
@@ -339,4 +433,50 @@ public abstract class AbstractServerTransport extends AbstractTransport implemen
             }
         }
     }
+
+    /**
+     * <p>The policies applied to a new message when the queue of a session
+     * is full, either because it has reached the {@link #MAX_QUEUE_OPTION
+     * max number of messages}, the {@link #getMaxQueueBytes() max size in
+     * bytes}, or because the server-wide
+     * {@link BayeuxServerImpl#getMaxQueuesBytes() budget for queued messages}
+     * is exhausted.</p>
+     */
+    public enum MaxQueuePolicy {
+        /**
+         * The {@link org.cometd.bayeux.server.ServerSession.QueueMaxedListener}s
+         * decide whether the new message is queued.
+         */
+        NOTIFY,
+        /**
+         * The new message is not queued.
+         */
+        REJECT,
+        /**
+         * {@link org.cometd.bayeux.server.ServerSession.QueueMaxedListener}s are notified and may
+         * reject the new message; otherwise, the oldest messages are
+         * removed from the queue until the new message fits, then it is queued.
+         */
+        EVICT,
+        /**
+         * The new message is not queued and the session is disconnected.
+         */
+        DISCONNECT;
+
+        private static MaxQueuePolicy from(String value) {
+            switch (value) {
+                case "notify":
+                    return NOTIFY;
+                case "reject":
+                    return REJECT;
+                case "evict":
+                    return EVICT;
+                case "disconnect":
+                    return DISCONNECT;
+                default:
+                    throw new IllegalArgumentException("Option '" + MAX_QUEUE_POLICY_OPTION +
+                            "' must be one of 'notify', 'reject', 'evict' or 'disconnect'");
+            }
+        }
+    }
 }
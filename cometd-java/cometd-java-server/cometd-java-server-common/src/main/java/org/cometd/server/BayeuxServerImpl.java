@@ -15,13 +15,17 @@
  */
 package org.cometd.server;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.text.ParseException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +39,11 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.servlet.http.HttpServletRequest;
 import org.cometd.bayeux.Bayeux;
@@ -82,7 +91,18 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     public static final String VALIDATE_MESSAGE_FIELDS_OPTION = "validateMessageFields";
     public static final String BROADCAST_TO_PUBLISHER_OPTION = "broadcastToPublisher";
     public static final String SCHEDULER_THREADS = "schedulerThreads";
+    public static final String SCHEDULER_TICK_OPTION = "schedulerTick";
     public static final String EXECUTOR_MAX_THREADS = "executorMaxThreads";
+    public static final String FAN_OUT_THRESHOLD_OPTION = "fanOutThreshold";
+    public static final String FAN_OUT_PARTITIONS_OPTION = "fanOutPartitions";
+    public static final String RAW_DATA_OPTION = "rawData";
+    public static final String COMPACT_MESSAGES_OPTION = "compactMessages";
+    public static final String FREEZE_ENCODING_OPTION = "freezeEncoding";
+    public static final String MAX_QUEUES_BYTES_OPTION = "maxQueuesBytes";
+    // Fine enough that sessions are swept by the first sweep after
+    // their expiration, to within a millisecond; advancing the wheel
+    // visits each tick, which costs a sweep period worth of ticks.
+    private static final long SESSION_SWEEP_TICK = TimeUnit.MILLISECONDS.toNanos(1);
 
     private final String _name = getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this));
     private final Logger _logger = LoggerFactory.getLogger(getClass().getPackage().getName() + "." + _name);
@@ -94,6 +114,11 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     private final Map<String, ServerTransport> _transports = new LinkedHashMap<>(); // Order is important
     private final List<String> _allowedTransports = new ArrayList<>();
     private final Map<String, Object> _options = new TreeMap<>();
+    private final SessionTable _sessionTable = new SessionTable();
+    private final AtomicLongArray _wildChannelsAdded = new AtomicLongArray(64);
+    private final TimingWheel<ServerSessionImpl> _sessionSweeps = new TimingWheel<>(SESSION_SWEEP_TICK, TimeUnit.NANOSECONDS);
+    private final ConcurrentMap<Long, LazyFlusher> _lazyFlushers = new ConcurrentHashMap<>();
+    private final LongAdder _queuesBytes = new LongAdder();
     private MarkedReference<Scheduler> _scheduler;
     private MarkedReference<Executor> _executor;
     private SecurityPolicy _policy = new DefaultSecurityPolicy();
@@ -101,6 +126,12 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     private boolean _validation;
     private boolean _broadcastToPublisher;
     private boolean _detailedDump;
+    private boolean _compactMessages;
+    private boolean _freezeString = true;
+    private boolean _freezeBytes = true;
+    private int _fanOutThreshold;
+    private FanOutLane[] _fanOutLanes;
+    private long _maxQueuesBytes;
 
     public String getName() {
         return _name;
@@ -111,6 +142,7 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         initializeMetaChannels();
         initializeJSONContext();
         initializeServerTransports();
+        initializeFreezeEncoding();
 
         if (_executor == null) {
             _executor = new MarkedReference<>(newExecutor(), true);
@@ -124,6 +156,16 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
 
         _validation = getOption(VALIDATE_MESSAGE_FIELDS_OPTION, true);
         _broadcastToPublisher = getOption(BROADCAST_TO_PUBLISHER_OPTION, true);
+        _maxQueuesBytes = getOption(MAX_QUEUES_BYTES_OPTION, -1L);
+
+        _fanOutThreshold = (int)getOption(FAN_OUT_THRESHOLD_OPTION, 0);
+        int fanOutPartitions = (int)getOption(FAN_OUT_PARTITIONS_OPTION, Runtime.getRuntime().availableProcessors());
+        if (_fanOutThreshold > 0 && fanOutPartitions > 1) {
+            _fanOutLanes = new FanOutLane[fanOutPartitions];
+            for (int i = 0; i < fanOutPartitions; ++i) {
+                _fanOutLanes[i] = new FanOutLane(getExecutor());
+            }
+        }
 
         super.doStart();
 
@@ -159,10 +201,13 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         _transports.clear();
         _allowedTransports.clear();
         _options.clear();
+        _sessionSweeps.clear();
+        _lazyFlushers.clear();
         removeBean(_scheduler.getReference());
         if (_scheduler.isMarked()) {
             _scheduler = null;
         }
+        _fanOutLanes = null;
         removeBean(_executor.getReference());
         if (_executor.isMarked()) {
             _executor = null;
@@ -195,6 +240,16 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
                 throw new IllegalArgumentException("Invalid " + JSONContextServer.class.getName() + " implementation class");
             }
         }
+        _compactMessages = getOption(COMPACT_MESSAGES_OPTION, false);
+        if (_jsonContext instanceof JettyJSONContextServer) {
+            JettyJSONContextServer jettyJSONContext = (JettyJSONContextServer)_jsonContext;
+            if (_compactMessages) {
+                jettyJSONContext.setCompactMessages(true);
+            }
+            if (getOption(RAW_DATA_OPTION, false)) {
+                jettyJSONContext.setRawData(true);
+            }
+        }
         _options.put(AbstractServerTransport.JSON_CONTEXT_OPTION, _jsonContext);
     }
 
@@ -255,6 +310,44 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         }
     }
 
+    private void initializeFreezeEncoding() {
+        Object option = getOption(FREEZE_ENCODING_OPTION);
+        String encoding = option == null ? "auto" : option.toString();
+        switch (encoding) {
+            case "string": {
+                _freezeString = true;
+                _freezeBytes = false;
+                break;
+            }
+            case "bytes": {
+                _freezeString = false;
+                _freezeBytes = true;
+                break;
+            }
+            case "auto": {
+                // Store only the encodings that the allowed transports write.
+                _freezeString = false;
+                _freezeBytes = false;
+                for (String transportName : _allowedTransports) {
+                    ServerTransport transport = getTransport(transportName);
+                    if (transport instanceof AbstractServerTransport && ((AbstractServerTransport)transport).isWriteBytes()) {
+                        _freezeBytes = true;
+                    } else {
+                        _freezeString = true;
+                    }
+                }
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException("Option '" + FREEZE_ENCODING_OPTION +
+                        "' must be one of 'auto', 'string' or 'bytes'");
+            }
+        }
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Freezing messages as string={}, bytes={}", _freezeString, _freezeBytes);
+        }
+    }
+
     private ServerTransport newWebSocketTransport() {
         try {
             ClassLoader loader = Thread.currentThread().getContextClassLoader();
@@ -334,6 +427,13 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
 
     private Scheduler newScheduler() {
         String name = _name + "-Scheduler";
+        long tick = getOption(SCHEDULER_TICK_OPTION, 0L);
+        if (tick > 0) {
+            if (getOption(SCHEDULER_THREADS) != null) {
+                _logger.warn("Option {} is ignored when option {} is set", SCHEDULER_THREADS, SCHEDULER_TICK_OPTION);
+            }
+            return new TimingWheelScheduler(name, false, tick);
+        }
         int threads = (int)getOption(SCHEDULER_THREADS, 1);
         return new ScheduledExecutorScheduler(name, false, threads);
     }
@@ -450,6 +550,7 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
                 if (_logger.isDebugEnabled()) {
                     _logger.debug("Added channel {}", channel);
                 }
+                wildChannelAdded(channel);
 
                 try {
                     for (Initializer initializer : initializers) {
@@ -478,7 +579,9 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
             // Double check if the sweeper removed this channel between the check at the top and here.
             // This is not 100% fool proof (e.g. this thread is preempted long enough for the sweeper
             // to remove the channel, but the alternative is to have a global lock)
-            _channels.putIfAbsent(channelName, channel);
+            if (_channels.putIfAbsent(channelName, channel) == null) {
+                wildChannelAdded(channel);
+            }
         }
         // Another thread may add this channel concurrently, so wait until it is initialized
         channel.waitForInitialized();
@@ -590,12 +693,28 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
 
     @Override
     public ServerMessage.Mutable newMessage() {
-        return new ServerMessageImpl();
+        return _compactMessages ? new CompactServerMessage() : new ServerMessageImpl();
     }
 
+    /**
+     * <p>Creates a mutable copy of the given message, including whether
+     * it is lazy and the conflation key of its channel.</p>
+     * <p>Extensions that replace a message with a modified copy for a
+     * session, such as {@link org.cometd.server.ext.ChannelAliasExtension},
+     * therefore keep the copy lazy and conflated like the original message;
+     * applications that need a copy that is not lazy must call
+     * {@link ServerMessage.Mutable#setLazy(boolean)} on the copy.</p>
+     *
+     * @param original the message to copy
+     * @return a mutable copy of the given message
+     */
     public ServerMessage.Mutable newMessage(ServerMessage original) {
         ServerMessage.Mutable mutable = newMessage();
         mutable.putAll(original);
+        mutable.setLazy(original.isLazy());
+        if (original instanceof ServerMessageImpl && mutable instanceof ServerMessageImpl) {
+            ((ServerMessageImpl)mutable).setConflationKey(((ServerMessageImpl)original).getConflationKey());
+        }
         return mutable;
     }
 
@@ -638,6 +757,38 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         return channel;
     }
 
+    ServerChannelImpl findServerChannel(String channelId) {
+        return _channels.get(channelId);
+    }
+
+    SessionTable getSessionTable() {
+        return _sessionTable;
+    }
+
+    private void wildChannelAdded(ServerChannelImpl channel) {
+        // Counted after the channel is in the map, see getWildChannelsAdded(String).
+        if (channel.isWild()) {
+            _wildChannelsAdded.incrementAndGet(wildChannelsAddedIndex(channel.getId()));
+        }
+    }
+
+    /**
+     * <p>Returns the number of wild channels added so far with the given name,
+     * or with a name that shares its counter, so that the channels that cache
+     * their recipients can detect that a matching wild channel that did not
+     * exist when the recipients were computed may have been added.</p>
+     *
+     * @param wildName the wild channel name
+     * @return the number of wild channels added with the given name, or more
+     */
+    long getWildChannelsAdded(String wildName) {
+        return _wildChannelsAdded.get(wildChannelsAddedIndex(wildName));
+    }
+
+    private int wildChannelsAddedIndex(String wildName) {
+        return wildName.hashCode() & (_wildChannelsAdded.length() - 1);
+    }
+
     @Override
     public List<ServerChannel> getChannels() {
         List<ServerChannel> result = new ArrayList<>();
@@ -935,46 +1086,130 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     private void notifySubscribers(ServerSessionImpl session, ServerChannelImpl channel, Mutable message, Promise<Boolean> promise) {
-        Set<String> wildSubscribers = new HashSet<>();
-        AsyncFoldLeft.run(channel.getChannelId().getWilds(), true, (result, wildName, wildLoop) -> {
-                    ServerChannelImpl wildChannel = _channels.get(wildName);
-                    if (wildChannel == null) {
-                        wildLoop.proceed(result);
-                    } else {
-                        Set<ServerSession> subscribers = wildChannel.subscribers();
-                        if (_logger.isDebugEnabled()) {
-                            _logger.debug("Notifying {} subscribers on {}", subscribers.size(), wildChannel);
-                        }
-                        AsyncFoldLeft.run(subscribers, true, (r, subscriber, loop) -> {
-                            if (wildSubscribers.add(subscriber.getId())) {
-                                if (subscriber == session && !channel.isBroadcastToPublisher()) {
-                                    loop.proceed(true);
-                                } else {
-                                    ((ServerSessionImpl)subscriber).deliver1(session, message, Promise.from(b -> loop.proceed(true), loop::fail));
-                                }
-                            } else {
-                                loop.proceed(r);
-                            }
-                        }, Promise.from(y -> wildLoop.proceed(true), wildLoop::fail));
+        List<ServerSessionImpl> subscribers = channel.recipients();
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Notifying {} subscribers on {}", subscribers.size(), channel);
+        }
+        conflate(channel, message);
+        FanOutLane[] lanes = _fanOutLanes;
+        if (lanes != null) {
+            // Deliveries to small channels also go through the lanes, so that
+            // they do not overtake deliveries to large channels that are still
+            // pending for the same sessions; if the lanes are idle, small
+            // channels are delivered by the publishing thread.
+            boolean inline = subscribers.size() < _fanOutThreshold;
+            fanOut(session, channel, message, lanes, inline, promise);
+        } else {
+            deliver(session, channel, message, subscribers, promise);
+        }
+    }
+
+    private void conflate(ServerChannelImpl channel, Mutable message) {
+        Function<ServerMessage, Object> conflationKey = channel.getConflationKey();
+        if (conflationKey != null && message instanceof ServerMessageImpl) {
+            try {
+                // Compute the key once per message, rather than once per subscriber.
+                Object key = conflationKey.apply(message);
+                if (key != null) {
+                    ((ServerMessageImpl)message).setConflationKey(new AbstractMap.SimpleImmutableEntry<>(channel.getId(), key));
+                }
+            } catch (Throwable x) {
+                _logger.info("Exception while computing conflation key for " + message, x);
+            }
+        }
+    }
+
+    private void fanOut(ServerSessionImpl session, ServerChannelImpl channel, Mutable message, FanOutLane[] lanes, boolean inline, Promise<Boolean> promise) {
+        // Each partition is delivered by its own lane, so that the delivery
+        // to a large number of subscribers is spread across threads, while
+        // lanes preserve the order of the messages delivered to each session.
+        List<List<ServerSessionImpl>> partitions = channel.partitions(lanes.length);
+        AtomicInteger pending = new AtomicInteger(partitions.size());
+        AtomicBoolean failed = new AtomicBoolean();
+        Promise<Boolean> partitionPromise = Promise.from(
+                result -> {
+                    if (pending.decrementAndGet() == 0 && !failed.get()) {
+                        promise.succeed(true);
                     }
-                }, Promise.from(b -> {
-                    Set<ServerSession> subscribers = channel.subscribers();
-                    if (_logger.isDebugEnabled()) {
-                        _logger.debug("Notifying {} subscribers on {}", subscribers.size(), channel);
+                },
+                failure -> {
+                    if (failed.compareAndSet(false, true)) {
+                        promise.fail(failure);
                     }
-                    AsyncFoldLeft.run(subscribers, true, (result, subscriber, loop) -> {
-                        if (!wildSubscribers.contains(subscriber.getId())) {
-                            if (subscriber == session && !channel.isBroadcastToPublisher()) {
-                                loop.proceed(true);
-                            } else {
-                                ((ServerSessionImpl)subscriber).deliver1(session, message, Promise.from(y -> loop.proceed(true), loop::fail));
-                            }
-                        } else {
-                            loop.proceed(true);
-                        }
-                    }, promise);
-                }, promise::fail)
-        );
+                });
+        for (int i = 0; i < partitions.size(); ++i) {
+            List<ServerSessionImpl> partition = partitions.get(i);
+            if (partition.isEmpty()) {
+                partitionPromise.succeed(true);
+            } else {
+                lanes[i].submit(new FanOutLane.Task() {
+                    @Override
+                    public void run(Runnable done) {
+                        deliver(session, channel, message, partition, Promise.from(
+                                result -> {
+                                    done.run();
+                                    partitionPromise.succeed(result);
+                                },
+                                failure -> {
+                                    done.run();
+                                    partitionPromise.fail(failure);
+                                }));
+                    }
+
+                    @Override
+                    public void fail(Throwable failure) {
+                        partitionPromise.fail(failure);
+                    }
+                }, inline);
+            }
+        }
+    }
+
+    /**
+     * <p>Delivers a message directly to a session, through the lane of the
+     * session if parallel delivery is enabled, so that it does not overtake
+     * the messages published before it that are still pending.</p>
+     *
+     * @param session the session to deliver the message to
+     * @param sender  the session that sends the message
+     * @param message the message to deliver
+     * @param promise the promise to notify with the result of the delivery
+     */
+    void deliverInLane(ServerSessionImpl session, ServerSession sender, Mutable message, Promise<Boolean> promise) {
+        FanOutLane[] lanes = _fanOutLanes;
+        if (lanes == null) {
+            session.deliver1(sender, message, promise);
+        } else {
+            lanes[ServerChannelImpl.partitionOf(session, lanes.length)].submit(new FanOutLane.Task() {
+                @Override
+                public void run(Runnable done) {
+                    session.deliver1(sender, message, Promise.from(
+                            result -> {
+                                done.run();
+                                promise.succeed(result);
+                            },
+                            failure -> {
+                                done.run();
+                                promise.fail(failure);
+                            }));
+                }
+
+                @Override
+                public void fail(Throwable failure) {
+                    promise.fail(failure);
+                }
+            }, true);
+        }
+    }
+
+    private void deliver(ServerSessionImpl session, ServerChannelImpl channel, Mutable message, List<ServerSessionImpl> subscribers, Promise<Boolean> promise) {
+        AsyncFoldLeft.run(subscribers, true, (result, subscriber, loop) -> {
+            if (subscriber == session && !channel.isBroadcastToPublisher()) {
+                loop.proceed(true);
+            } else {
+                subscriber.deliver1(session, message, Promise.from(y -> loop.proceed(true), loop::fail));
+            }
+        }, promise);
     }
 
     private void notifyListeners(ServerSessionImpl session, ServerChannelImpl channel, Mutable message, Promise<Boolean> promise) {
@@ -1036,15 +1271,79 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         }
     }
 
+    /**
+     * <p>Returns the server-wide budget, in bytes, for the frozen JSON of
+     * the messages in the queues of all sessions.</p>
+     * <p>When the budget is exhausted, sessions that have messages in their
+     * queue, typically slow consumers, apply their
+     * {@link AbstractServerTransport#getMaxQueuePolicy() max queue policy}
+     * to new messages, while sessions that keep up are not affected.</p>
+     *
+     * @return the budget for queued messages in bytes, or a non-positive value for no limit
+     */
+    public long getMaxQueuesBytes() {
+        return _maxQueuesBytes;
+    }
+
+    /**
+     * @return the size, in bytes, of the messages in the queues of all sessions
+     */
+    public long getQueuesBytes() {
+        return _queuesBytes.sum();
+    }
+
+    void addQueuesBytes(long delta) {
+        _queuesBytes.add(delta);
+    }
+
     public void freeze(Mutable mutable) {
         if (mutable instanceof ServerMessageImpl) {
             ServerMessageImpl message = (ServerMessageImpl)mutable;
             if (message.isFrozen()) {
                 return;
             }
-            String json = _jsonContext.generate(message);
-            message.freeze(json);
+            String json = null;
+            if (_freezeString) {
+                json = _jsonContext.generate(message);
+                message.freeze(json);
+            }
+            if (_freezeBytes) {
+                if (json != null) {
+                    message.freeze(json.getBytes(StandardCharsets.UTF_8));
+                } else {
+                    ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+                    try {
+                        _jsonContext.generate(message, output);
+                    } catch (IOException x) {
+                        // Cannot happen, writing to memory.
+                        throw new UncheckedIOException(x);
+                    }
+                    message.freeze(output.toByteArray());
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Parses a message from the given JSON UTF-8 bytes, typically those of
+     * a frozen message that have been stored, and freezes the message with
+     * the same bytes, so that they are not generated again when it is sent.</p>
+     *
+     * @param json the JSON UTF-8 bytes of a message
+     * @return the frozen message
+     * @throws ParseException if the bytes are not the JSON of a message
+     */
+    public Mutable parseFrozen(byte[] json) throws ParseException {
+        String text = new String(json, StandardCharsets.UTF_8);
+        Mutable[] messages = _jsonContext.parse("[" + text + "]");
+        if (messages.length != 1) {
+            throw new ParseException(text, 0);
+        }
+        Mutable message = messages[0];
+        if (message instanceof ServerMessageImpl) {
+            ((ServerMessageImpl)message).freeze(json);
         }
+        return message;
     }
 
     private void notifyOnMessage(MessageListener listener, ServerSession from, ServerChannel to, Mutable mutable, Promise<Boolean> promise) {
@@ -1295,10 +1594,31 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     private void sweepSessions() {
+        // Only the sessions whose sweep is due are visited.
         long now = System.nanoTime();
-        for (ServerSessionImpl session : _sessions.values()) {
-            session.sweep(now);
-        }
+        _sessionSweeps.advance(now, (session, deadline) -> session.sweep(deadline, now));
+    }
+
+    /**
+     * <p>Schedules a sweep of the given session at the given time.</p>
+     *
+     * @param session the session to sweep
+     * @param time    the time of the sweep, in {@link System#nanoTime()} units
+     * @return the entry of the sweep, that can be cancelled
+     */
+    TimingWheel.Entry<ServerSessionImpl> scheduleSweep(ServerSessionImpl session, long time) {
+        return _sessionSweeps.schedule(session, time);
+    }
+
+    /**
+     * <p>Flushes the given session within the given lazy timeout,
+     * along with the other sessions that have the same lazy timeout.</p>
+     *
+     * @param session     the session to flush
+     * @param lazyTimeout the lazy timeout, in milliseconds
+     */
+    void flushLazy(ServerSessionImpl session, long lazyTimeout) {
+        _lazyFlushers.computeIfAbsent(lazyTimeout, timeout -> new LazyFlusher(this, timeout)).add(session);
     }
 
     @ManagedAttribute("Reports additional details in the dump() operation")
@@ -0,0 +1,611 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * <p>A {@link ServerMessageImpl} that stores the Bayeux envelope fields,
+ * such as {@code channel}, {@code id} or {@code clientId}, in dedicated
+ * fields rather than in hash map entries.</p>
+ * <p>Only the fields that are not part of the envelope are stored in the
+ * underlying hash map, whose table is therefore never allocated for most
+ * messages, so that creating a message does not allocate a hash table and
+ * one entry per field.</p>
+ */
+public class CompactServerMessage extends ServerMessageImpl {
+    private static final long serialVersionUID = -3416254862427834512L;
+    private static final String[] FIELDS = {
+            CHANNEL_FIELD,
+            ID_FIELD,
+            CLIENT_ID_FIELD,
+            DATA_FIELD,
+            EXT_FIELD,
+            ADVICE_FIELD,
+            SUCCESSFUL_FIELD,
+            SUBSCRIPTION_FIELD,
+            CONNECTION_TYPE_FIELD,
+            ERROR_FIELD
+    };
+
+    // A null field means that the field is absent,
+    // while Null.VALUE means that the field is null.
+    private Object _channel;
+    private Object _id;
+    private Object _clientId;
+    private Object _data;
+    private Object _ext;
+    private Object _advice;
+    private Object _successful;
+    private Object _subscription;
+    private Object _connectionType;
+    private Object _error;
+
+    @Override
+    public String getChannel() {
+        return (String)unmask(_channel);
+    }
+
+    @Override
+    public String getClientId() {
+        return (String)unmask(_clientId);
+    }
+
+    @Override
+    public int size() {
+        int size = super.size();
+        for (int i = 0; i < FIELDS.length; ++i) {
+            if (field(i) != null) {
+                ++size;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return super.containsKey(key);
+        }
+        return field(index) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < FIELDS.length; ++i) {
+            Object field = field(i);
+            if (field != null && Objects.equals(value(i), value)) {
+                return true;
+            }
+        }
+        return super.containsValue(value);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return super.get(key);
+        }
+        return value(index);
+    }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return super.getOrDefault(key, defaultValue);
+        }
+        Object field = field(index);
+        return field == null ? defaultValue : value(index);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return super.put(key, value);
+        }
+        if (isFrozen()) {
+            throw new UnsupportedOperationException();
+        }
+        return previous(field(index, value == null ? Null.VALUE : value));
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> map) {
+        map.forEach(this::put);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return super.remove(key);
+        }
+        return previous(field(index, null));
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < FIELDS.length; ++i) {
+            field(i, null);
+        }
+        super.clear();
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        if (indexOf(key) < 0) {
+            return super.putIfAbsent(key, value);
+        }
+        Object existing = get(key);
+        if (existing == null) {
+            existing = put(key, value);
+        }
+        return existing;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (indexOf(key) < 0) {
+            return super.remove(key, value);
+        }
+        if (containsKey(key) && Objects.equals(get(key), value)) {
+            remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        if (indexOf(key) < 0) {
+            return super.replace(key, oldValue, newValue);
+        }
+        if (containsKey(key) && Objects.equals(get(key), oldValue)) {
+            put(key, newValue);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Object replace(String key, Object value) {
+        if (indexOf(key) < 0) {
+            return super.replace(key, value);
+        }
+        return containsKey(key) ? put(key, value) : null;
+    }
+
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ?> function) {
+        if (indexOf(key) < 0) {
+            return super.computeIfAbsent(key, function);
+        }
+        Object value = get(key);
+        if (value == null) {
+            value = function.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ?> function) {
+        if (indexOf(key) < 0) {
+            return super.computeIfPresent(key, function);
+        }
+        Object oldValue = get(key);
+        if (oldValue == null) {
+            return null;
+        }
+        return store(key, function.apply(key, oldValue));
+    }
+
+    @Override
+    public Object compute(String key, BiFunction<? super String, ? super Object, ?> function) {
+        if (indexOf(key) < 0) {
+            return super.compute(key, function);
+        }
+        return store(key, function.apply(key, get(key)));
+    }
+
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ?> function) {
+        if (indexOf(key) < 0) {
+            return super.merge(key, value, function);
+        }
+        Object oldValue = get(key);
+        return store(key, oldValue == null ? value : function.apply(oldValue, value));
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+        for (int i = 0; i < FIELDS.length; ++i) {
+            Object field = field(i);
+            if (field != null) {
+                action.accept(FIELDS[i], value(i));
+            }
+        }
+        super.forEach(action);
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ?> function) {
+        for (int i = 0; i < FIELDS.length; ++i) {
+            Object field = field(i);
+            if (field != null) {
+                put(FIELDS[i], function.apply(FIELDS[i], value(i)));
+            }
+        }
+        super.replaceAll(function);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<Map.Entry<String, Object>> iterator = entrySet().iterator();
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return iterator.next().getKey();
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CompactServerMessage.this.size();
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+        };
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return new AbstractCollection<Object>() {
+            @Override
+            public Iterator<Object> iterator() {
+                Iterator<Map.Entry<String, Object>> iterator = entrySet().iterator();
+                return new Iterator<Object>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Object next() {
+                        return iterator.next().getValue();
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CompactServerMessage.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new EntrySet();
+    }
+
+    @Override
+    public Object clone() {
+        CompactServerMessage clone = (CompactServerMessage)super.clone();
+        // The hash map clone copies all the entries in its table,
+        // but the envelope fields have already been copied.
+        clone.removeFieldEntries();
+        return clone;
+    }
+
+    private void removeFieldEntries() {
+        for (String key : FIELDS) {
+            super.remove(key);
+        }
+    }
+
+    private Object store(String key, Object value) {
+        if (value == null) {
+            remove(key);
+        } else {
+            put(key, value);
+        }
+        return value;
+    }
+
+    private static int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        switch ((String)key) {
+            case CHANNEL_FIELD:
+                return 0;
+            case ID_FIELD:
+                return 1;
+            case CLIENT_ID_FIELD:
+                return 2;
+            case DATA_FIELD:
+                return 3;
+            case EXT_FIELD:
+                return 4;
+            case ADVICE_FIELD:
+                return 5;
+            case SUCCESSFUL_FIELD:
+                return 6;
+            case SUBSCRIPTION_FIELD:
+                return 7;
+            case CONNECTION_TYPE_FIELD:
+                return 8;
+            case ERROR_FIELD:
+                return 9;
+            default:
+                return -1;
+        }
+    }
+
+    private Object field(int index) {
+        switch (index) {
+            case 0:
+                return _channel;
+            case 1:
+                return _id;
+            case 2:
+                return _clientId;
+            case 3:
+                return _data;
+            case 4:
+                return _ext;
+            case 5:
+                return _advice;
+            case 6:
+                return _successful;
+            case 7:
+                return _subscription;
+            case 8:
+                return _connectionType;
+            case 9:
+                return _error;
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private Object field(int index, Object value) {
+        Object result = field(index);
+        switch (index) {
+            case 0:
+                _channel = value;
+                break;
+            case 1:
+                _id = value;
+                break;
+            case 2:
+                _clientId = value;
+                break;
+            case 3:
+                _data = value;
+                break;
+            case 4:
+                _ext = value;
+                break;
+            case 5:
+                _advice = value;
+                break;
+            case 6:
+                _successful = value;
+                break;
+            case 7:
+                _subscription = value;
+                break;
+            case 8:
+                _connectionType = value;
+                break;
+            case 9:
+                _error = value;
+                break;
+            default:
+                throw new IllegalArgumentException();
+        }
+        return result;
+    }
+
+    private static Object unmask(Object field) {
+        return field == Null.VALUE ? null : field;
+    }
+
+    private static Object previous(Object field) {
+        if (field instanceof RawData) {
+            return ((RawData)field).value();
+        }
+        return unmask(field);
+    }
+
+    private Object value(int index) {
+        Object field = field(index);
+        if (field instanceof RawData) {
+            Object value = ((RawData)field).value();
+            if (isFrozen()) {
+                // Frozen messages may be shared among threads,
+                // so they are not modified: the raw data caches
+                // its value and is still generated verbatim.
+                return value;
+            }
+            field(index, value);
+            return value;
+        }
+        return unmask(field);
+    }
+
+    /**
+     * @return whether the data of this message is still the JSON text it has been received with
+     */
+    boolean hasRawData() {
+        return _data instanceof RawData;
+    }
+
+    /**
+     * @return a read-only view of this message where the data, if still
+     * the JSON text it has been received with, is not parsed
+     */
+    Map<String, Object> asRawMap() {
+        return new AbstractMap<String, Object>() {
+            @Override
+            public Set<Entry<String, Object>> entrySet() {
+                return new AbstractSet<Entry<String, Object>>() {
+                    @Override
+                    public Iterator<Entry<String, Object>> iterator() {
+                        return new EntryIterator(true);
+                    }
+
+                    @Override
+                    public int size() {
+                        return CompactServerMessage.this.size();
+                    }
+                };
+            }
+        };
+    }
+
+    private Iterator<Map.Entry<String, Object>> entries() {
+        return super.entrySet().iterator();
+    }
+
+    private enum Null {
+        VALUE
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new EntryIterator(false);
+        }
+
+        @Override
+        public int size() {
+            return CompactServerMessage.this.size();
+        }
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private final boolean raw;
+        private int next;
+        private int current = -1;
+        private Iterator<Map.Entry<String, Object>> entries;
+
+        private EntryIterator(boolean raw) {
+            this.raw = raw;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next < FIELDS.length) {
+                if (field(next) != null) {
+                    return true;
+                }
+                ++next;
+            }
+            if (entries == null) {
+                entries = entries();
+            }
+            return entries.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (next < FIELDS.length) {
+                current = next++;
+                Object value = raw ? unmask(field(current)) : value(current);
+                return new FieldEntry(FIELDS[current], value);
+            }
+            current = -1;
+            return entries.next();
+        }
+
+        @Override
+        public void remove() {
+            if (current >= 0) {
+                if (isFrozen()) {
+                    throw new UnsupportedOperationException();
+                }
+                field(current, null);
+                current = -1;
+            } else if (entries != null) {
+                entries.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private class FieldEntry extends AbstractMap.SimpleEntry<String, Object> {
+        private FieldEntry(String key, Object value) {
+            super(key, value);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Runs the deliveries of a partition of the subscribers of broadcast channels.</p>
+ * <p>Tasks submitted to a lane run one at a time, in submission order;
+ * a task is given a {@link Runnable} that it must run when it completes,
+ * possibly asynchronously, to let the next task run.
+ * Since a session is always assigned to the same lane, messages are
+ * delivered to the session in the order they have been published, while
+ * different lanes deliver in parallel.</p>
+ * <p>Tasks run in an {@link Executor}, or in the submitting thread when
+ * they are submitted inline and the lane is idle.
+ * Tasks that cannot be run because the executor rejects them are failed.</p>
+ */
+class FanOutLane implements Runnable {
+    private static final Logger _logger = LoggerFactory.getLogger(FanOutLane.class);
+
+    private final Queue<Task> _tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _pending = new AtomicInteger();
+    private final Executor _executor;
+
+    FanOutLane(Executor executor) {
+        _executor = executor;
+    }
+
+    /**
+     * @param task   the task to run
+     * @param inline whether to run the task in the calling thread if the lane is idle
+     */
+    void submit(Task task, boolean inline) {
+        _tasks.offer(task);
+        if (_pending.getAndIncrement() == 0) {
+            if (inline) {
+                run();
+            } else {
+                execute();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        Task task = _tasks.poll();
+        AtomicBoolean completed = new AtomicBoolean();
+        Runnable done = () -> {
+            if (completed.compareAndSet(false, true)) {
+                next();
+            }
+        };
+        try {
+            task.run(done);
+        } catch (Throwable x) {
+            _logger.info("Exception while running fan out task " + task, x);
+            done.run();
+        }
+    }
+
+    private void execute() {
+        try {
+            _executor.execute(this);
+        } catch (RejectedExecutionException x) {
+            fail(x);
+            next();
+        }
+    }
+
+    private void next() {
+        while (_pending.decrementAndGet() > 0) {
+            try {
+                _executor.execute(this);
+                return;
+            } catch (RejectedExecutionException x) {
+                fail(x);
+            }
+        }
+    }
+
+    private void fail(Throwable failure) {
+        Task task = _tasks.poll();
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Could not run fan out task " + task, failure);
+        }
+        try {
+            task.fail(failure);
+        } catch (Throwable x) {
+            _logger.info("Exception while failing fan out task " + task, x);
+        }
+    }
+
+    interface Task {
+        /**
+         * @param done the callback to run when the task completes
+         */
+        void run(Runnable done);
+
+        /**
+         * @param failure the reason why the task could not be run
+         */
+        void fail(Throwable failure);
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * <p>A compressed set of non-negative {@code int}s.</p>
+ * <p>Values are partitioned by their high 16 bits into chunks; each chunk
+ * stores its low 16 bits either in a sorted array, when the chunk is
+ * sparse, or in a fixed size bitmap, when the chunk is dense.
+ * Sparse sets therefore cost about 2 bytes per value, while dense sets
+ * cost about 1 bit per value.</p>
+ * <p>This class is not thread safe.</p>
+ */
+final class IntBitmap {
+    // The max cardinality of an array chunk, beyond which a bitmap chunk is smaller.
+    private static final int ARRAY_MAX_SIZE = 4096;
+
+    private char[] _keys = new char[0];
+    private Chunk[] _chunks = new Chunk[0];
+    private int _size;
+    private int _cardinality;
+
+    IntBitmap() {
+    }
+
+    private IntBitmap(IntBitmap that) {
+        _keys = Arrays.copyOf(that._keys, that._size);
+        _chunks = new Chunk[that._size];
+        for (int i = 0; i < that._size; ++i) {
+            _chunks[i] = that._chunks[i].copy();
+        }
+        _size = that._size;
+        _cardinality = that._cardinality;
+    }
+
+    /**
+     * @param value the value to add
+     * @return whether the value was added because it was not present
+     */
+    boolean add(int value) {
+        char key = high(value);
+        char low = low(value);
+        int index = indexOf(key);
+        if (index >= 0) {
+            Chunk chunk = _chunks[index];
+            if (chunk.contains(low)) {
+                return false;
+            }
+            _chunks[index] = chunk.add(low);
+        } else {
+            insert(-index - 1, key, new ArrayChunk().add(low));
+        }
+        ++_cardinality;
+        return true;
+    }
+
+    /**
+     * @param value the value to remove
+     * @return whether the value was removed because it was present
+     */
+    boolean remove(int value) {
+        int index = indexOf(high(value));
+        if (index < 0) {
+            return false;
+        }
+        char low = low(value);
+        Chunk chunk = _chunks[index];
+        if (!chunk.contains(low)) {
+            return false;
+        }
+        chunk = chunk.remove(low);
+        if (chunk.cardinality() == 0) {
+            delete(index);
+        } else {
+            _chunks[index] = chunk;
+        }
+        --_cardinality;
+        return true;
+    }
+
+    boolean contains(int value) {
+        int index = indexOf(high(value));
+        return index >= 0 && _chunks[index].contains(low(value));
+    }
+
+    int cardinality() {
+        return _cardinality;
+    }
+
+    boolean isEmpty() {
+        return _cardinality == 0;
+    }
+
+    void clear() {
+        _keys = new char[0];
+        _chunks = new Chunk[0];
+        _size = 0;
+        _cardinality = 0;
+    }
+
+    /**
+     * @return a copy of this bitmap that does not share state with this bitmap
+     */
+    IntBitmap copy() {
+        return new IntBitmap(this);
+    }
+
+    /**
+     * <p>Adds all the values of the given bitmap to this bitmap.</p>
+     *
+     * @param that the bitmap whose values are added to this bitmap
+     */
+    void or(IntBitmap that) {
+        for (int i = 0; i < that._size; ++i) {
+            char key = that._keys[i];
+            Chunk chunk = that._chunks[i];
+            int index = indexOf(key);
+            if (index >= 0) {
+                Chunk mine = _chunks[index];
+                _cardinality -= mine.cardinality();
+                mine = mine.or(chunk);
+                _cardinality += mine.cardinality();
+                _chunks[index] = mine;
+            } else {
+                insert(-index - 1, key, chunk.copy());
+                _cardinality += chunk.cardinality();
+            }
+        }
+    }
+
+    /**
+     * <p>Invokes the given consumer for each value, in ascending order.</p>
+     *
+     * @param consumer the consumer of the values
+     */
+    void forEach(IntConsumer consumer) {
+        for (int i = 0; i < _size; ++i) {
+            _chunks[i].forEach(_keys[i] << 16, consumer);
+        }
+    }
+
+    private int indexOf(char key) {
+        return Arrays.binarySearch(_keys, 0, _size, key);
+    }
+
+    private void insert(int index, char key, Chunk chunk) {
+        if (_size == _keys.length) {
+            int capacity = Math.max(4, _size + (_size >> 1));
+            _keys = Arrays.copyOf(_keys, capacity);
+            _chunks = Arrays.copyOf(_chunks, capacity);
+        }
+        System.arraycopy(_keys, index, _keys, index + 1, _size - index);
+        System.arraycopy(_chunks, index, _chunks, index + 1, _size - index);
+        _keys[index] = key;
+        _chunks[index] = chunk;
+        ++_size;
+    }
+
+    private void delete(int index) {
+        System.arraycopy(_keys, index + 1, _keys, index, _size - index - 1);
+        System.arraycopy(_chunks, index + 1, _chunks, index, _size - index - 1);
+        --_size;
+        _chunks[_size] = null;
+    }
+
+    private static char high(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid value " + value);
+        }
+        return (char)(value >>> 16);
+    }
+
+    private static char low(int value) {
+        return (char)value;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        forEach(value -> {
+            if (builder.length() > 1) {
+                builder.append(",");
+            }
+            builder.append(value);
+        });
+        return builder.append("}").toString();
+    }
+
+    private interface Chunk {
+        int cardinality();
+
+        boolean contains(char value);
+
+        /**
+         * @param value a value that is not present in this chunk
+         * @return this chunk or a different chunk with the value added
+         */
+        Chunk add(char value);
+
+        /**
+         * @param value a value that is present in this chunk
+         * @return this chunk or a different chunk with the value removed
+         */
+        Chunk remove(char value);
+
+        /**
+         * @param that the chunk to union with this chunk
+         * @return this chunk or a different chunk with the union of the values
+         */
+        Chunk or(Chunk that);
+
+        Chunk copy();
+
+        void forEach(int high, IntConsumer consumer);
+    }
+
+    private static class ArrayChunk implements Chunk {
+        private char[] _values;
+        private int _cardinality;
+
+        private ArrayChunk() {
+            this(new char[4], 0);
+        }
+
+        private ArrayChunk(char[] values, int cardinality) {
+            _values = values;
+            _cardinality = cardinality;
+        }
+
+        @Override
+        public int cardinality() {
+            return _cardinality;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return Arrays.binarySearch(_values, 0, _cardinality, value) >= 0;
+        }
+
+        @Override
+        public Chunk add(char value) {
+            if (_cardinality == ARRAY_MAX_SIZE) {
+                return toBitmapChunk().add(value);
+            }
+            int index = -Arrays.binarySearch(_values, 0, _cardinality, value) - 1;
+            if (_cardinality == _values.length) {
+                int capacity = Math.min(ARRAY_MAX_SIZE, _cardinality + (_cardinality >> 1) + 1);
+                _values = Arrays.copyOf(_values, capacity);
+            }
+            System.arraycopy(_values, index, _values, index + 1, _cardinality - index);
+            _values[index] = value;
+            ++_cardinality;
+            return this;
+        }
+
+        @Override
+        public Chunk remove(char value) {
+            int index = Arrays.binarySearch(_values, 0, _cardinality, value);
+            System.arraycopy(_values, index + 1, _values, index, _cardinality - index - 1);
+            --_cardinality;
+            return this;
+        }
+
+        @Override
+        public Chunk or(Chunk that) {
+            if (that instanceof BitmapChunk) {
+                return that.copy().or(this);
+            }
+            ArrayChunk other = (ArrayChunk)that;
+            if (_cardinality + other._cardinality > ARRAY_MAX_SIZE) {
+                return toBitmapChunk().or(other);
+            }
+            char[] values = new char[_cardinality + other._cardinality];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < _cardinality && j < other._cardinality) {
+                char a = _values[i];
+                char b = other._values[j];
+                if (a < b) {
+                    values[k++] = a;
+                    ++i;
+                } else if (a > b) {
+                    values[k++] = b;
+                    ++j;
+                } else {
+                    values[k++] = a;
+                    ++i;
+                    ++j;
+                }
+            }
+            while (i < _cardinality) {
+                values[k++] = _values[i++];
+            }
+            while (j < other._cardinality) {
+                values[k++] = other._values[j++];
+            }
+            _values = values;
+            _cardinality = k;
+            return this;
+        }
+
+        @Override
+        public Chunk copy() {
+            return new ArrayChunk(Arrays.copyOf(_values, Math.max(_cardinality, 1)), _cardinality);
+        }
+
+        @Override
+        public void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < _cardinality; ++i) {
+                consumer.accept(high | _values[i]);
+            }
+        }
+
+        private BitmapChunk toBitmapChunk() {
+            BitmapChunk result = new BitmapChunk();
+            for (int i = 0; i < _cardinality; ++i) {
+                result.set(_values[i]);
+            }
+            return result;
+        }
+    }
+
+    private static class BitmapChunk implements Chunk {
+        private final long[] _words;
+        private int _cardinality;
+
+        private BitmapChunk() {
+            this(new long[1 << 10], 0);
+        }
+
+        private BitmapChunk(long[] words, int cardinality) {
+            _words = words;
+            _cardinality = cardinality;
+        }
+
+        @Override
+        public int cardinality() {
+            return _cardinality;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return (_words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        private void set(char value) {
+            _words[value >>> 6] |= 1L << value;
+            ++_cardinality;
+        }
+
+        @Override
+        public Chunk add(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        public Chunk remove(char value) {
+            _words[value >>> 6] &= ~(1L << value);
+            --_cardinality;
+            if (_cardinality <= ARRAY_MAX_SIZE / 2) {
+                // Convert back only well below the threshold, to avoid
+                // flipping representation when adding and removing.
+                return toArrayChunk();
+            }
+            return this;
+        }
+
+        @Override
+        public Chunk or(Chunk that) {
+            if (that instanceof BitmapChunk) {
+                long[] words = ((BitmapChunk)that)._words;
+                int cardinality = 0;
+                for (int i = 0; i < _words.length; ++i) {
+                    long word = _words[i] | words[i];
+                    _words[i] = word;
+                    cardinality += Long.bitCount(word);
+                }
+                _cardinality = cardinality;
+            } else {
+                ArrayChunk other = (ArrayChunk)that;
+                for (int i = 0; i < other._cardinality; ++i) {
+                    char value = other._values[i];
+                    if (!contains(value)) {
+                        set(value);
+                    }
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public Chunk copy() {
+            return new BitmapChunk(_words.clone(), _cardinality);
+        }
+
+        @Override
+        public void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < _words.length; ++i) {
+                long word = _words[i];
+                while (word != 0) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    consumer.accept(high | (i << 6) | bit);
+                    word &= word - 1;
+                }
+            }
+        }
+
+        private ArrayChunk toArrayChunk() {
+            char[] values = new char[_cardinality];
+            int[] index = new int[1];
+            forEach(0, value -> values[index[0]++] = (char)value);
+            return new ArrayChunk(values, _cardinality);
+        }
+    }
+}
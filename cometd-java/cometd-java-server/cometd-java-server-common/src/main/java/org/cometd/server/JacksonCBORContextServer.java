@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.common.JacksonJSONContext;
+
+/**
+ * <p>A {@link BinaryContextServer} that encodes messages in the
+ * <a href="https://cbor.io">CBOR</a> format with Jackson.</p>
+ * <p>Frozen messages are encoded from their fields, since their
+ * frozen JSON cannot be copied into a CBOR document.</p>
+ */
+public class JacksonCBORContextServer extends JacksonJSONContext<ServerMessage.Mutable, ServerMessageImpl> implements BinaryContextServer {
+    public JacksonCBORContextServer() {
+        super(new CBORMapper());
+    }
+
+    @Override
+    protected Class<ServerMessageImpl[]> rootArrayClass() {
+        return ServerMessageImpl[].class;
+    }
+}
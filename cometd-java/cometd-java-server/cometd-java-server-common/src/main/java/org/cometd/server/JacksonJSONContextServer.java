@@ -15,10 +15,30 @@
  */
 package org.cometd.server;
 
+import java.io.IOException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.ser.ContextualSerializer;
+import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.type.MapType;
+import org.cometd.bayeux.Message;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.common.JacksonJSONContext;
 
 public class JacksonJSONContextServer extends JacksonJSONContext<ServerMessage.Mutable, ServerMessageImpl> implements JSONContextServer {
+    public JacksonJSONContextServer() {
+        getObjectMapper().registerModule(new SimpleModule("cometd-server").setSerializerModifier(new FrozenMessageSerializerModifier()));
+    }
+
     @Override
     protected Class<ServerMessageImpl[]> rootArrayClass() {
         return ServerMessageImpl[].class;
@@ -51,4 +71,72 @@ public class JacksonJSONContextServer extends JacksonJSONContext<ServerMessage.M
             return json;
         }
     }
+
+    private static class FrozenMessageSerializerModifier extends BeanSerializerModifier {
+        @Override
+        public JsonSerializer<?> modifyMapSerializer(SerializationConfig config, MapType valueType, BeanDescription beanDesc, JsonSerializer<?> serializer) {
+            // Messages are also serialized with their declared
+            // type, for example Message.Mutable, so wrap them all.
+            if (Message.class.isAssignableFrom(valueType.getRawClass())) {
+                @SuppressWarnings("unchecked")
+                JsonSerializer<Object> delegate = (JsonSerializer<Object>)serializer;
+                return new FrozenMessageSerializer(delegate);
+            }
+            return serializer;
+        }
+    }
+
+    /**
+     * <p>Writes the JSON of frozen messages verbatim, for example when the
+     * same message is generated in the batches of many sessions, and
+     * delegates to the default map serializer for the other messages.</p>
+     */
+    private static class FrozenMessageSerializer extends StdSerializer<Message> implements ContextualSerializer, ResolvableSerializer {
+        private final JsonSerializer<Object> delegate;
+
+        private FrozenMessageSerializer(JsonSerializer<Object> delegate) {
+            super(Message.class);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void serialize(Message message, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            String json = message instanceof ServerMessageImpl ? ((ServerMessageImpl)message).getJSON() : null;
+            if (json == null) {
+                delegate.serialize(message, generator, provider);
+            } else {
+                generator.writeRawValue(json);
+            }
+        }
+
+        @Override
+        public void serializeWithType(Message message, JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
+            // The frozen JSON does not contain type information.
+            delegate.serializeWithType(message, generator, provider, typeSerializer);
+        }
+
+        @Override
+        public boolean isEmpty(SerializerProvider provider, Message message) {
+            return delegate.isEmpty(provider, message);
+        }
+
+        @Override
+        public JsonSerializer<?> createContextual(SerializerProvider provider, BeanProperty property) throws JsonMappingException {
+            if (delegate instanceof ContextualSerializer) {
+                @SuppressWarnings("unchecked")
+                JsonSerializer<Object> contextual = (JsonSerializer<Object>)((ContextualSerializer)delegate).createContextual(provider, property);
+                if (contextual != delegate) {
+                    return new FrozenMessageSerializer(contextual);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public void resolve(SerializerProvider provider) throws JsonMappingException {
+            if (delegate instanceof ResolvableSerializer) {
+                ((ResolvableSerializer)delegate).resolve(provider);
+            }
+        }
+    }
 }
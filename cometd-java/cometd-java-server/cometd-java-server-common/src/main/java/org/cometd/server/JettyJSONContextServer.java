@@ -15,17 +15,79 @@
  */
 package org.cometd.server;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import org.cometd.bayeux.Message;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.common.JettyJSONContext;
 import org.eclipse.jetty.util.ajax.AsyncJSON;
+import org.eclipse.jetty.util.ajax.JSON;
 
 public class JettyJSONContextServer extends JettyJSONContext<ServerMessage.Mutable> implements JSONContextServer {
+    private final JSON _rawDataJSON = new RawDataJSON();
+    private boolean _rawData;
+    private boolean _compactMessages;
+
+    /**
+     * @return whether the {@code data} field of messages is kept as JSON text
+     * @see #setRawData(boolean)
+     */
+    public boolean isRawData() {
+        return _rawData;
+    }
+
+    /**
+     * <p>Sets whether the {@code data} field of messages parsed from JSON text
+     * is kept as JSON text, rather than being parsed.</p>
+     * <p>The JSON text of the {@code data} field is validated but not parsed,
+     * and it is parsed only when the data is accessed, for example via
+     * {@link Message#getData()}; if the data is not accessed, the JSON text
+     * is generated verbatim.
+     * This saves parsing and generating the data of messages that are only
+     * routed by the server.</p>
+     * <p>Messages parsed by {@link #newAsyncParser() asynchronous parsers}
+     * are always fully parsed.</p>
+     * <p>The raw data is stored in {@link CompactServerMessage}s, which are
+     * therefore parsed regardless of {@link #isCompactMessages()}.</p>
+     *
+     * @param rawData whether the {@code data} field of messages is kept as JSON text
+     */
+    public void setRawData(boolean rawData) {
+        _rawData = rawData;
+    }
+
+    /**
+     * @return whether messages are parsed as {@link CompactServerMessage}s
+     * @see #setCompactMessages(boolean)
+     */
+    public boolean isCompactMessages() {
+        return _compactMessages;
+    }
+
+    /**
+     * <p>Sets whether messages parsed from JSON text are {@link CompactServerMessage}s,
+     * rather than {@link ServerMessageImpl}s.</p>
+     *
+     * @param compactMessages whether messages are parsed as {@link CompactServerMessage}s
+     */
+    public void setCompactMessages(boolean compactMessages) {
+        _compactMessages = compactMessages;
+    }
+
+    @Override
+    protected JSON messageFieldContext(String field) {
+        if (_rawData && Message.DATA_FIELD.equals(field)) {
+            return _rawDataJSON;
+        }
+        return super.messageFieldContext(field);
+    }
+
     @Override
     protected ServerMessage.Mutable newRoot() {
-        return new ServerMessageImpl();
+        return _compactMessages || _rawData ? new CompactServerMessage() : new ServerMessageImpl();
     }
 
     @Override
@@ -59,11 +121,52 @@ public class JettyJSONContextServer extends JettyJSONContext<ServerMessage.Mutab
     public String generate(ServerMessage.Mutable message) {
         String json = JSONContextServer.super.generate(message);
         if (json == null) {
-            json = super.generate(message);
+            json = toJSON(message);
         }
         return json;
     }
 
+    @Override
+    public void generate(ServerMessage.Mutable message, OutputStream output) throws IOException {
+        byte[] bytes = message instanceof ServerMessageImpl ? ((ServerMessageImpl)message).getJSONBytes() : null;
+        if (bytes == null) {
+            Object object = message;
+            if (message instanceof CompactServerMessage) {
+                CompactServerMessage compact = (CompactServerMessage)message;
+                if (compact.hasRawData()) {
+                    object = compact.asRawMap();
+                }
+            }
+            generate(getJSON(), object, output);
+        } else {
+            output.write(bytes);
+        }
+    }
+
+    @Override
+    public String generate(List<ServerMessage.Mutable> messages) {
+        StringBuilder builder = new StringBuilder();
+        builder.append('[');
+        for (int i = 0; i < messages.size(); ++i) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(generate(messages.get(i)));
+        }
+        builder.append(']');
+        return builder.toString();
+    }
+
+    private String toJSON(Object object) {
+        if (object instanceof CompactServerMessage) {
+            CompactServerMessage message = (CompactServerMessage)object;
+            if (message.hasRawData()) {
+                return getJSON().toJSON(message.asRawMap());
+            }
+        }
+        return getJSON().toJSON(object);
+    }
+
     @Override
     public Generator getGenerator() {
         return new JSONGeneratorServer();
@@ -77,9 +180,214 @@ public class JettyJSONContextServer extends JettyJSONContext<ServerMessage.Mutab
                 json = ((ServerMessageImpl)object).getJSON();
             }
             if (json == null) {
-                json = super.generate(object);
+                json = toJSON(object);
             }
             return json;
         }
     }
+
+    /**
+     * <p>Validates the JSON text of the {@code data} field without parsing it,
+     * so that it can be parsed lazily and generated verbatim.</p>
+     * <p>Insignificant whitespace is removed.</p>
+     */
+    private class RawDataJSON extends JSON {
+        @Override
+        public Object parse(Source source) {
+            StringBuilder builder = new StringBuilder();
+            value(source, builder);
+            String json = builder.toString();
+            // Raw data always has a non-null value.
+            if ("null".equals(json)) {
+                return null;
+            }
+            return new RawData(json, getJSON());
+        }
+
+        private void value(Source source, StringBuilder builder) {
+            skipWhitespace(source);
+            char c = peek(source);
+            switch (c) {
+                case '{':
+                    object(source, builder);
+                    break;
+                case '[':
+                    array(source, builder);
+                    break;
+                case '"':
+                    string(source, builder);
+                    break;
+                case 't':
+                    literal("true", source, builder);
+                    break;
+                case 'f':
+                    literal("false", source, builder);
+                    break;
+                case 'n':
+                    literal("null", source, builder);
+                    break;
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        number(source, builder);
+                    } else {
+                        throw new IllegalStateException("Invalid JSON character '" + c + "'");
+                    }
+                    break;
+            }
+        }
+
+        private void object(Source source, StringBuilder builder) {
+            builder.append(next(source));
+            skipWhitespace(source);
+            if (peek(source) == '}') {
+                builder.append(next(source));
+                return;
+            }
+            while (true) {
+                skipWhitespace(source);
+                if (peek(source) != '"') {
+                    throw new IllegalStateException("Invalid JSON object field");
+                }
+                string(source, builder);
+                skipWhitespace(source);
+                expect(':', source, builder);
+                value(source, builder);
+                skipWhitespace(source);
+                char c = next(source);
+                builder.append(c);
+                if (c == '}') {
+                    return;
+                }
+                if (c != ',') {
+                    throw new IllegalStateException("Invalid JSON object");
+                }
+            }
+        }
+
+        private void array(Source source, StringBuilder builder) {
+            builder.append(next(source));
+            skipWhitespace(source);
+            if (peek(source) == ']') {
+                builder.append(next(source));
+                return;
+            }
+            while (true) {
+                value(source, builder);
+                skipWhitespace(source);
+                char c = next(source);
+                builder.append(c);
+                if (c == ']') {
+                    return;
+                }
+                if (c != ',') {
+                    throw new IllegalStateException("Invalid JSON array");
+                }
+            }
+        }
+
+        private void string(Source source, StringBuilder builder) {
+            builder.append(next(source));
+            while (true) {
+                char c = next(source);
+                builder.append(c);
+                if (c == '"') {
+                    return;
+                }
+                if (c == '\\') {
+                    char escape = next(source);
+                    builder.append(escape);
+                    if (escape == 'u') {
+                        for (int i = 0; i < 4; ++i) {
+                            char hex = next(source);
+                            if (Character.digit(hex, 16) < 0) {
+                                throw new IllegalStateException("Invalid JSON unicode escape");
+                            }
+                            builder.append(hex);
+                        }
+                    } else if ("\"\\/bfnrt".indexOf(escape) < 0) {
+                        throw new IllegalStateException("Invalid JSON escape");
+                    }
+                } else if (c < 0x20) {
+                    throw new IllegalStateException("Invalid JSON string character");
+                }
+            }
+        }
+
+        private void number(Source source, StringBuilder builder) {
+            // RFC 8259: -? (0 | [1-9] [0-9]*) (. [0-9]+)? ([eE] [+-]? [0-9]+)?
+            if (peek(source) == '-') {
+                builder.append(next(source));
+            }
+            char c = next(source);
+            if (c == '0') {
+                builder.append(c);
+            } else if (c >= '1' && c <= '9') {
+                builder.append(c);
+                digits(source, builder, false);
+            } else {
+                throw new IllegalStateException("Invalid JSON number");
+            }
+            if (source.hasNext() && source.peek() == '.') {
+                builder.append(source.next());
+                digits(source, builder, true);
+            }
+            if (source.hasNext() && (source.peek() == 'e' || source.peek() == 'E')) {
+                builder.append(source.next());
+                if (source.hasNext() && (source.peek() == '+' || source.peek() == '-')) {
+                    builder.append(source.next());
+                }
+                digits(source, builder, true);
+            }
+        }
+
+        private void digits(Source source, StringBuilder builder, boolean required) {
+            boolean any = false;
+            while (source.hasNext() && source.peek() >= '0' && source.peek() <= '9') {
+                builder.append(source.next());
+                any = true;
+            }
+            if (required && !any) {
+                throw new IllegalStateException("Invalid JSON number");
+            }
+        }
+
+        private void literal(String literal, Source source, StringBuilder builder) {
+            for (int i = 0; i < literal.length(); ++i) {
+                expect(literal.charAt(i), source, builder);
+            }
+        }
+
+        private void expect(char expected, Source source, StringBuilder builder) {
+            char c = next(source);
+            if (c != expected) {
+                throw new IllegalStateException("Invalid JSON character '" + c + "', expected '" + expected + "'");
+            }
+            builder.append(c);
+        }
+
+        private void skipWhitespace(Source source) {
+            while (source.hasNext() && isWhitespace(source.peek())) {
+                source.next();
+            }
+        }
+
+        private boolean isWhitespace(char c) {
+            // RFC 8259, section 2: only space, tab, line feed and carriage return.
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+        }
+
+        private char peek(Source source) {
+            if (!source.hasNext()) {
+                throw new IllegalStateException("Unexpected end of JSON");
+            }
+            return source.peek();
+        }
+
+        private char next(Source source) {
+            if (!source.hasNext()) {
+                throw new IllegalStateException("Unexpected end of JSON");
+            }
+            return source.next();
+        }
+    }
 }
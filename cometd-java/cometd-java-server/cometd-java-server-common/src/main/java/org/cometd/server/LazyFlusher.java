@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Flushes together the sessions that have pending lazy messages
+ * with the same lazy timeout.</p>
+ * <p>Rather than scheduling one task per session, a single task is
+ * scheduled when the first session is added, and when it runs it flushes
+ * all the sessions added in the meantime, so that a lazy message broadcast
+ * to many sessions only schedules one task.
+ * Sessions are therefore flushed within the lazy timeout, possibly
+ * earlier than the lazy timeout after their lazy message.</p>
+ */
+class LazyFlusher implements Runnable {
+    private static final Logger _logger = LoggerFactory.getLogger(LazyFlusher.class);
+
+    private final Queue<ServerSessionImpl> _sessions = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean _scheduled = new AtomicBoolean();
+    private final BayeuxServerImpl _bayeux;
+    private final long _lazyTimeout;
+
+    LazyFlusher(BayeuxServerImpl bayeux, long lazyTimeout) {
+        _bayeux = bayeux;
+        _lazyTimeout = lazyTimeout;
+    }
+
+    void add(ServerSessionImpl session) {
+        _sessions.offer(session);
+        if (_scheduled.compareAndSet(false, true)) {
+            _bayeux.schedule(this, _lazyTimeout);
+        }
+    }
+
+    @Override
+    public void run() {
+        // Reset before draining, so that sessions added
+        // after the drain schedule the next flush.
+        _scheduled.set(false);
+        ServerSessionImpl session;
+        while ((session = _sessions.poll()) != null) {
+            try {
+                session.flushLazy();
+            } catch (Throwable x) {
+                _logger.info("Exception while flushing lazy messages of " + session, x);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x[lazyTimeout=%d]", getClass().getSimpleName(), hashCode(), _lazyTimeout);
+    }
+}
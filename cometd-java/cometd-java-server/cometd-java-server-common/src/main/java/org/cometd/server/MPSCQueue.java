@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * <p>A multiple producers, single consumer, unbounded linked queue.</p>
+ * <p>{@link #offer(Object)} may be called concurrently by any number of
+ * threads and never blocks: producers only swap the tail of the queue.</p>
+ * <p>All the other methods that read or remove elements must be called by
+ * one thread at a time, for example while holding a lock.
+ * An element offered concurrently with a consumer method may or may not be
+ * seen by that method, but it is seen by a subsequent consumer method.</p>
+ * <p>{@link #size()}, {@link #weight()} and {@link #isEmpty()} may be called
+ * by any thread.</p>
+ * <p>The queue optionally keeps track of the total weight of its elements,
+ * as computed by a weigher function, notifying a listener of the changes.</p>
+ *
+ * @param <E> the type of the elements
+ */
+final class MPSCQueue<E> extends AbstractQueue<E> {
+    private final AtomicReference<Node<E>> _tail;
+    private final AtomicInteger _size = new AtomicInteger();
+    private final AtomicLong _weight = new AtomicLong();
+    private final ToLongFunction<? super E> _weigher;
+    private final LongConsumer _weightListener;
+    private Node<E> _head;
+
+    MPSCQueue() {
+        this(null, null);
+    }
+
+    /**
+     * @param weigher        the function that computes the weight of an element, or null
+     * @param weightListener the listener of the changes of the total weight, or null
+     */
+    MPSCQueue(ToLongFunction<? super E> weigher, LongConsumer weightListener) {
+        Node<E> stub = new Node<>(null);
+        _head = stub;
+        _tail = new AtomicReference<>(stub);
+        _weigher = weigher;
+        _weightListener = weightListener;
+    }
+
+    @Override
+    public boolean offer(E element) {
+        append(element);
+        return true;
+    }
+
+    /**
+     * <p>Adds the given element like {@link #offer(Object)} does, and returns
+     * the node that holds it, to be passed to {@link #replace(Node, Object)}.</p>
+     *
+     * @param element the element to add
+     * @return the node that holds the element
+     */
+    Node<E> append(E element) {
+        Node<E> node = new Node<>(Objects.requireNonNull(element));
+        // Count before linking, so that a consumer never sees
+        // a negative size after removing the new element.
+        _size.incrementAndGet();
+        // The weight is recorded in the node, so that it
+        // is subtracted unchanged when the node is emptied.
+        node.weight = weigh(element);
+        addWeight(node.weight);
+        Node<E> previous = _tail.getAndSet(node);
+        // Between the swap above and the link below, the node
+        // is not yet reachable by the consumer, which therefore
+        // sees the queue ending at the previous node.
+        previous.next = node;
+        return node;
+    }
+
+    /**
+     * <p>Replaces, in place, the element held by the given node,
+     * provided that the element has not been removed yet.</p>
+     * <p>This is a consumer method.</p>
+     *
+     * @param node        the node returned by {@link #append(Object)}
+     * @param replacement the replacement element
+     * @return whether the element has been replaced
+     */
+    boolean replace(Node<E> node, E replacement) {
+        if (node.item == null) {
+            return false;
+        }
+        node.item = Objects.requireNonNull(replacement);
+        long weight = weigh(replacement);
+        addWeight(weight - node.weight);
+        node.weight = weight;
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        while (true) {
+            Node<E> next = _head.next;
+            if (next == null) {
+                return null;
+            }
+            _head = next;
+            E element = next.item;
+            // Skip the elements removed via iterator.
+            if (element != null) {
+                next.item = null;
+                _size.decrementAndGet();
+                addWeight(-next.weight);
+                return element;
+            }
+        }
+    }
+
+    @Override
+    public E peek() {
+        Node<E> node = _head.next;
+        while (node != null) {
+            E element = node.item;
+            if (element != null) {
+                return element;
+            }
+            node = node.next;
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return Math.max(0, _size.get());
+    }
+
+    /**
+     * @return the total weight of the elements in this queue
+     */
+    long weight() {
+        return Math.max(0, _weight.get());
+    }
+
+    private long weigh(E element) {
+        return _weigher == null ? 0 : _weigher.applyAsLong(element);
+    }
+
+    private void addWeight(long delta) {
+        if (delta != 0) {
+            _weight.addAndGet(delta);
+            if (_weightListener != null) {
+                _weightListener.accept(delta);
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private Node<E> _node = _head;
+            private Node<E> _last;
+            private E _next;
+
+            @Override
+            public boolean hasNext() {
+                while (_next == null) {
+                    Node<E> node = _node.next;
+                    if (node == null) {
+                        return false;
+                    }
+                    _node = node;
+                    _next = node.item;
+                }
+                return true;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                E result = _next;
+                _next = null;
+                _last = _node;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                Node<E> last = _last;
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                _last = null;
+                // Nodes cannot be unlinked because producers may be
+                // linking to them, so leave an empty node behind.
+                if (last.item != null) {
+                    last.item = null;
+                    _size.decrementAndGet();
+                    addWeight(-last.weight);
+                }
+            }
+        };
+    }
+
+    static final class Node<E> {
+        private volatile Node<E> next;
+        private E item;
+        private long weight;
+
+        private Node(E item) {
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.io.IOException;
+import java.io.Serializable;
+import org.eclipse.jetty.util.ajax.JSON;
+
+/**
+ * <p>The {@code data} field of a message, kept as the JSON text it has
+ * been received with.</p>
+ * <p>The JSON text is parsed only when the data is accessed, and it is
+ * generated verbatim if the data has not been accessed.</p>
+ * <p>The parsed value is computed once and safely published, so that
+ * the data of frozen messages shared among threads can be accessed
+ * concurrently. Raw data is serialized as its parsed value.</p>
+ *
+ * @see JettyJSONContextServer#setRawData(boolean)
+ */
+class RawData implements JSON.Generator, Serializable {
+    private static final long serialVersionUID = 2270283941290637254L;
+
+    private final String _json;
+    private final transient JSON _parser;
+    private transient volatile Object _value;
+
+    RawData(String json, JSON parser) {
+        _json = json;
+        _parser = parser;
+    }
+
+    /**
+     * @return the parsed value of the JSON text, never null
+     */
+    Object value() {
+        Object value = _value;
+        if (value == null) {
+            synchronized (this) {
+                value = _value;
+                if (value == null) {
+                    value = _parser.parse(new JSON.StringSource(_json));
+                    _value = value;
+                }
+            }
+        }
+        return value;
+    }
+
+    private Object writeReplace() {
+        return value();
+    }
+
+    @Override
+    public void addJSON(Appendable buffer) {
+        try {
+            buffer.append(_json);
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return _json;
+    }
+}
@@ -16,16 +16,19 @@
 package org.cometd.server;
 
 import java.io.IOException;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import org.cometd.bayeux.ChannelId;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.Session;
@@ -46,15 +49,19 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
     private final BayeuxServerImpl _bayeux;
     private final ChannelId _id;
     private final AttributesMap _attributes = new AttributesMap();
-    private final Set<ServerSession> _subscribers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final IntBitmap _subscribers = new IntBitmap();
+    private final Set<ServerSession> _subscribersView = new SubscribersView();
     private final List<ServerChannelListener> _listeners = new CopyOnWriteArrayList<>();
     private final List<Authorizer> _authorizers = new CopyOnWriteArrayList<>();
     private final CountDownLatch _initialized = new CountDownLatch(1);
     private final AtomicInteger _sweeperPasses = new AtomicInteger();
+    private final AtomicLong _subscribersVersion = new AtomicLong();
+    private volatile Recipients _recipients;
     private boolean _lazy;
     private long _lazyTimeout = -1;
     private boolean _persistent;
     private boolean _broadcastToPublisher = true;
+    private volatile Function<ServerMessage, Object> _conflationKey;
 
     protected ServerChannelImpl(BayeuxServerImpl bayeux, ChannelId id) {
         _bayeux = bayeux;
@@ -109,23 +116,32 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
 
         resetSweeperPasses();
 
-        if (session.subscribe(this)) {
-            if (_subscribers.add(session)) {
-                for (ServerChannelListener listener : _listeners) {
-                    if (listener instanceof SubscriptionListener) {
-                        notifySubscribed((SubscriptionListener)listener, session, this, message);
-                    }
+        boolean added;
+        // Subscribe under the session lock, so that the session
+        // index cannot be released while it is being added.
+        synchronized (session.getLock()) {
+            if (!session.subscribe(this)) {
+                return false;
+            }
+            synchronized (_subscribers) {
+                added = _subscribers.add(session.getIndex());
+            }
+        }
+
+        if (added) {
+            subscribersChanged();
+            for (ServerChannelListener listener : _listeners) {
+                if (listener instanceof SubscriptionListener) {
+                    notifySubscribed((SubscriptionListener)listener, session, this, message);
                 }
-                for (BayeuxServer.BayeuxServerListener listener : _bayeux.getListeners()) {
-                    if (listener instanceof BayeuxServer.SubscriptionListener) {
-                        notifySubscribed((BayeuxServer.SubscriptionListener)listener, session, this, message);
-                    }
+            }
+            for (BayeuxServer.BayeuxServerListener listener : _bayeux.getListeners()) {
+                if (listener instanceof BayeuxServer.SubscriptionListener) {
+                    notifySubscribed((BayeuxServer.SubscriptionListener)listener, session, this, message);
                 }
             }
-            return true;
-        } else {
-            return false;
         }
+        return true;
     }
 
     private void notifySubscribed(SubscriptionListener listener, ServerSession session, ServerChannel channel, ServerMessage message) {
@@ -162,7 +178,16 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
             return false;
         }
 
-        if (_subscribers.remove(session)) {
+        boolean removed;
+        synchronized (session.getLock()) {
+            int index = session.getIndex();
+            synchronized (_subscribers) {
+                removed = index >= 0 && _subscribers.remove(index);
+            }
+        }
+
+        if (removed) {
+            subscribersChanged();
             session.unsubscribedFrom(this);
             for (ServerChannelListener listener : _listeners) {
                 if (listener instanceof SubscriptionListener) {
@@ -201,7 +226,118 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
     }
 
     public Set<ServerSession> subscribers() {
-        return _subscribers;
+        return _subscribersView;
+    }
+
+    /**
+     * <p>Returns the sessions that receive the messages published to this channel,
+     * that is the union of the subscribers of this channel and of the subscribers
+     * of the matching wild channels.</p>
+     * <p>Subscribers are stored as bitmaps of session indexes, so the union is
+     * computed by OR-ing the bitmaps, which also removes duplicates.</p>
+     * <p>The result is cached and recomputed only after the subscribers of this
+     * channel or of the matching wild channels change, or after a matching wild
+     * channel is created or removed, so that publishing does not need to merge
+     * and deduplicate the subscribers for every message.</p>
+     *
+     * @return the deduplicated recipients of the messages published to this channel
+     */
+    List<ServerSessionImpl> recipients() {
+        return currentRecipients().sessions;
+    }
+
+    private Recipients currentRecipients() {
+        Recipients recipients = _recipients;
+        if (recipients == null || !isCurrent(recipients)) {
+            recipients = computeRecipients();
+            _recipients = recipients;
+        }
+        return recipients;
+    }
+
+    private boolean isCurrent(Recipients recipients) {
+        if (recipients.version != _subscribersVersion.get()) {
+            return false;
+        }
+        // A wild channel changes its version when it is removed, while
+        // for a missing wild channel the version is its added count.
+        ServerChannelImpl[] wildChannels = recipients.wildChannels;
+        for (int i = 0; i < wildChannels.length; ++i) {
+            ServerChannelImpl wildChannel = wildChannels[i];
+            long wildVersion = wildChannel == null ? _bayeux.getWildChannelsAdded(_id.getWilds().get(i)) : wildChannel._subscribersVersion.get();
+            if (wildVersion != recipients.wildVersions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>Returns the {@link #recipients() recipients} split into the given
+     * number of partitions.</p>
+     * <p>A session is always assigned to the same partition, for all channels,
+     * so that partitions with the same index can be delivered sequentially
+     * while partitions with different indexes are delivered in parallel.</p>
+     *
+     * @param count the number of partitions
+     * @return the recipients split into partitions
+     */
+    List<List<ServerSessionImpl>> partitions(int count) {
+        return currentRecipients().partitions(count);
+    }
+
+    static int partitionOf(ServerSessionImpl session, int count) {
+        // The identity hash code is stable for the lifetime of the session.
+        return Math.floorMod(System.identityHashCode(session), count);
+    }
+
+    private Recipients computeRecipients() {
+        // Read the versions before merging the subscribers, so
+        // that a concurrent change invalidates the value computed here.
+        long version = _subscribersVersion.get();
+        List<String> wildNames = _id.getWilds();
+        ServerChannelImpl[] wildChannels = new ServerChannelImpl[wildNames.size()];
+        long[] wildVersions = new long[wildChannels.length];
+        for (int i = 0; i < wildChannels.length; ++i) {
+            String wildName = wildNames.get(i);
+            long added = _bayeux.getWildChannelsAdded(wildName);
+            ServerChannelImpl wildChannel = _bayeux.findServerChannel(wildName);
+            if (wildChannel == null) {
+                wildVersions[i] = added;
+            } else {
+                wildChannels[i] = wildChannel;
+                wildVersions[i] = wildChannel._subscribersVersion.get();
+            }
+        }
+        List<ServerSessionImpl> sessions = _bayeux.getSessionTable().resolve(() -> {
+            IntBitmap indexes = new IntBitmap();
+            for (ServerChannelImpl wildChannel : wildChannels) {
+                if (wildChannel != null) {
+                    wildChannel.orSubscribers(indexes);
+                }
+            }
+            orSubscribers(indexes);
+            return indexes;
+        });
+        return new Recipients(version, wildChannels, wildVersions, Collections.unmodifiableList(sessions));
+    }
+
+    private void orSubscribers(IntBitmap indexes) {
+        synchronized (_subscribers) {
+            indexes.or(_subscribers);
+        }
+    }
+
+    private boolean hasSubscribers() {
+        synchronized (_subscribers) {
+            return !_subscribers.isEmpty();
+        }
+    }
+
+    private void subscribersChanged() {
+        // The subscribers of a wild channel are recipients of the
+        // matching channels, which compare this version as well.
+        _subscribersVersion.incrementAndGet();
     }
 
     @Override
@@ -270,6 +406,16 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
         _broadcastToPublisher = broadcastToPublisher;
     }
 
+    @Override
+    public Function<ServerMessage, Object> getConflationKey() {
+        return _conflationKey;
+    }
+
+    @Override
+    public void setConflationKey(Function<ServerMessage, Object> conflationKey) {
+        _conflationKey = conflationKey;
+    }
+
     @Override
     public void removeListener(ServerChannelListener listener) {
         _listeners.remove(listener);
@@ -332,7 +478,7 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
     protected void sweep() {
         waitForInitialized();
 
-        for (ServerSession session : _subscribers) {
+        for (ServerSession session : subscribers()) {
             if (!session.isHandshook()) {
                 unsubscribe(session);
             }
@@ -342,7 +488,7 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
             return;
         }
 
-        if (!_subscribers.isEmpty()) {
+        if (hasSubscribers()) {
             return;
         }
 
@@ -366,10 +512,19 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
     @Override
     public void remove() {
         if (_bayeux.removeServerChannel(this)) {
-            for (ServerSession subscriber : _subscribers) {
-                ((ServerSessionImpl)subscriber).unsubscribedFrom(this);
+            // Clear the subscribers before notifying the sessions,
+            // as they may release their index when notified.
+            List<ServerSessionImpl> subscribers = _bayeux.getSessionTable().resolve(() -> {
+                synchronized (_subscribers) {
+                    IntBitmap indexes = _subscribers.copy();
+                    _subscribers.clear();
+                    return indexes;
+                }
+            });
+            subscribersChanged();
+            for (ServerSessionImpl subscriber : subscribers) {
+                subscriber.unsubscribedFrom(this);
             }
-            _subscribers.clear();
         }
 
         _listeners.clear();
@@ -439,4 +594,68 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
     public String toString() {
         return _id.toString();
     }
+
+    private class SubscribersView extends AbstractSet<ServerSession> {
+        @Override
+        public boolean contains(Object obj) {
+            if (!(obj instanceof ServerSessionImpl)) {
+                return false;
+            }
+            ServerSessionImpl session = (ServerSessionImpl)obj;
+            synchronized (session.getLock()) {
+                int index = session.getIndex();
+                synchronized (_subscribers) {
+                    return index >= 0 && _subscribers.contains(index);
+                }
+            }
+        }
+
+        @Override
+        public Iterator<ServerSession> iterator() {
+            List<ServerSessionImpl> subscribers = _bayeux.getSessionTable().resolve(() -> {
+                synchronized (_subscribers) {
+                    return _subscribers.copy();
+                }
+            });
+            return Collections.<ServerSession>unmodifiableList(subscribers).iterator();
+        }
+
+        @Override
+        public int size() {
+            synchronized (_subscribers) {
+                return _subscribers.cardinality();
+            }
+        }
+    }
+
+    private static class Recipients {
+        private final long version;
+        private final ServerChannelImpl[] wildChannels;
+        private final long[] wildVersions;
+        private final List<ServerSessionImpl> sessions;
+        private volatile List<List<ServerSessionImpl>> partitions;
+
+        private Recipients(long version, ServerChannelImpl[] wildChannels, long[] wildVersions, List<ServerSessionImpl> sessions) {
+            this.version = version;
+            this.wildChannels = wildChannels;
+            this.wildVersions = wildVersions;
+            this.sessions = sessions;
+        }
+
+        private List<List<ServerSessionImpl>> partitions(int count) {
+            List<List<ServerSessionImpl>> result = partitions;
+            if (result == null || result.size() != count) {
+                int capacity = sessions.size() / count + 1;
+                result = new ArrayList<>(count);
+                for (int i = 0; i < count; ++i) {
+                    result.add(new ArrayList<>(capacity));
+                }
+                for (ServerSessionImpl session : sessions) {
+                    result.get(partitionOf(session, count)).add(session);
+                }
+                partitions = result;
+            }
+            return result;
+        }
+    }
 }
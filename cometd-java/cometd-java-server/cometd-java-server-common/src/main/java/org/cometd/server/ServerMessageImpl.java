@@ -15,6 +15,8 @@
  */
 package org.cometd.server;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.AbstractSet;
 import java.util.Collections;
@@ -30,12 +32,15 @@ public class ServerMessageImpl extends HashMapMessage implements ServerMessage.M
     private static final long serialVersionUID = 6412048662640296067L;
 
     private boolean _lazy;
-    private String _json;
+    private volatile String _json;
+    private transient volatile byte[] _jsonBytes;
+    private transient volatile int _jsonSize;
+    private transient volatile String _jsonArray;
     private transient ServerMessage.Mutable _associated;
     private transient boolean _handled;
-    private transient byte[] _jsonBytes;
     private transient BayeuxContext _context;
     private transient ServerTransport _transport;
+    private transient Object _conflationKey;
 
     @Override
     public ServerMessage.Mutable getAssociated() {
@@ -83,24 +88,152 @@ public class ServerMessageImpl extends HashMapMessage implements ServerMessage.M
         _handled = handled;
     }
 
+    /**
+     * <p>Freezes this message with the given JSON string.</p>
+     * <p>Only the string is stored; the UTF-8 bytes, unless also
+     * frozen with {@link #freeze(byte[])}, are encoded each time
+     * they are needed, and not retained by this message.</p>
+     *
+     * @param json the JSON of this message
+     */
     protected void freeze(String json) {
         _json = json;
-        // A message can be queued to different sessions, each with
-        // different transports. WebSocket transports write only strings, not
-        // bytes so these will be wasted, but only if all transports write strings.
-        _jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * <p>Freezes this message with the given JSON UTF-8 bytes.</p>
+     * <p>Only the bytes are stored; the string, unless also
+     * frozen with {@link #freeze(String)}, is decoded each time
+     * it is needed, and not retained by this message.</p>
+     *
+     * @param json the JSON UTF-8 bytes of this message
+     */
+    protected void freeze(byte[] json) {
+        _jsonBytes = json;
     }
 
     protected boolean isFrozen() {
-        return _json != null;
+        return _json != null || _jsonBytes != null;
+    }
+
+    /**
+     * <p>Returns the size, in bytes, of the UTF-8 encoding of the frozen
+     * JSON of this message.</p>
+     * <p>If this message is only frozen as a string, the size is computed
+     * without encoding the string, only once.</p>
+     *
+     * @return the size of the frozen JSON, or 0 if this message is not frozen
+     */
+    public int getJSONSize() {
+        byte[] bytes = _jsonBytes;
+        if (bytes != null) {
+            return bytes.length;
+        }
+        int size = _jsonSize;
+        if (size == 0) {
+            String json = _json;
+            if (json != null) {
+                size = utf8Length(json);
+                _jsonSize = size;
+            }
+        }
+        return size;
+    }
+
+    private static int utf8Length(String string) {
+        int length = string.length();
+        int result = length;
+        for (int i = 0; i < length; ++i) {
+            char c = string.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                    // A surrogate pair is 2 chars and 4 bytes.
+                    result += 2;
+                    ++i;
+                } else {
+                    // Lone surrogates are encoded as '?'.
+                    result += Character.isSurrogate(c) ? 0 : 2;
+                }
+            } else if (c >= 0x80) {
+                result += 1;
+            }
+        }
+        return result;
     }
 
     public String getJSON() {
-        return _json;
+        String json = _json;
+        if (json == null) {
+            // Derived, but not stored, so that
+            // queued messages retain one encoding.
+            byte[] bytes = _jsonBytes;
+            if (bytes != null) {
+                json = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return json;
     }
 
     public byte[] getJSONBytes() {
-        return _jsonBytes;
+        byte[] bytes = _jsonBytes;
+        if (bytes == null) {
+            // Derived, but not stored, so that
+            // queued messages retain one encoding.
+            String json = _json;
+            if (json != null) {
+                bytes = json.getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * <p>Returns the frozen JSON of this message wrapped in a JSON array,
+     * that is the text of a frame that carries only this message.</p>
+     * <p>The array is built the first time it is needed and kept with this
+     * message, so that all the sessions this message is delivered to write
+     * the same text.</p>
+     *
+     * @return the JSON array that contains only this message, or null if this message is not frozen
+     */
+    public String getJSONArray() {
+        String array = _jsonArray;
+        if (array == null) {
+            String json = getJSON();
+            if (json != null) {
+                array = new StringBuilder(json.length() + 2).append('[').append(json).append(']').toString();
+                _jsonArray = array;
+            }
+        }
+        return array;
+    }
+
+    /**
+     * @return the key that identifies the messages that replace each other in session queues, or null
+     * @see org.cometd.bayeux.server.ConfigurableServerChannel#setConflationKey(java.util.function.Function)
+     */
+    Object getConflationKey() {
+        return _conflationKey;
+    }
+
+    void setConflationKey(Object conflationKey) {
+        _conflationKey = conflationKey;
+    }
+
+    private void writeObject(ObjectOutputStream output) throws IOException {
+        // Only the JSON string is serialized, as the UTF-8 bytes can
+        // be derived from it, so that the serialized form is unchanged.
+        ObjectOutputStream.PutField fields = output.putFields();
+        fields.put("_lazy", _lazy);
+        String json = _json;
+        if (json == null) {
+            byte[] bytes = _jsonBytes;
+            if (bytes != null) {
+                json = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        fields.put("_json", json);
+        output.writeFields();
     }
 
     @Override
@@ -16,7 +16,9 @@
 package org.cometd.server;
 
 import java.io.IOException;
-import java.util.ArrayDeque;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -44,7 +46,6 @@ import org.cometd.server.AbstractServerTransport.Scheduler;
 import org.eclipse.jetty.util.AttributesMap;
 import org.eclipse.jetty.util.component.Dumpable;
 import org.eclipse.jetty.util.component.DumpableCollection;
-import org.eclipse.jetty.util.thread.Scheduler.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,17 +57,28 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     private final String _id;
     private final List<ServerSessionListener> _listeners = new CopyOnWriteArrayList<>();
     private final List<Extension> _extensions = new CopyOnWriteArrayList<>();
-    private final Queue<ServerMessage> _queue = new ArrayDeque<>();
+    private final MPSCQueue<ServerMessage> _queue;
+    private final Map<Object, MPSCQueue.Node<ServerMessage>> _conflated = new HashMap<>();
+    private final Map<Object, Long> _spilledConflated = new HashMap<>();
+    private final Map<Long, ServerMessage.Mutable> _spilledReplacements = new HashMap<>();
     private final LocalSessionImpl _localSession;
     private final AttributesMap _attributes = new AttributesMap();
     private final Set<ServerChannelImpl> subscriptions = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    private final LazyTask _lazyTask = new LazyTask();
-    private AbstractServerTransport.Scheduler _scheduler = new Scheduler.None(0);
+    private final AtomicLong _lazyFlushTimeout = new AtomicLong();
+    private final AtomicLong _queuesBytes = new AtomicLong();
+    private volatile AbstractServerTransport.Scheduler _scheduler = new Scheduler.None(0);
     private ServerTransport _transport;
+    private volatile boolean _binary;
     private ServerTransport _advisedTransport;
     private Object _endPoint;
     private State _state = State.NEW;
+    private int _index = -1;
     private int _maxQueue = -1;
+    private long _maxQueueBytes = -1;
+    private AbstractServerTransport.MaxQueuePolicy _maxQueuePolicy = AbstractServerTransport.MaxQueuePolicy.NOTIFY;
+    private long _spillThreshold = -1;
+    private Path _spillDirectory;
+    private SpillFile _spill;
     private long _transientTimeout = -1;
     private long _transientInterval = -1;
     private long _timeout = -1;
@@ -75,11 +87,13 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     private long _maxProcessing = -1;
     private long _maxLazy = -1;
     private boolean _metaConnectDelivery;
-    private int _batch;
+    private volatile int _batch;
     private String _userAgent;
     private long _messageTime;
     private long _expireTime;
-    private boolean _nonLazyMessages;
+    private long _sweepTime;
+    private TimingWheel.Entry<ServerSessionImpl> _sweepEntry;
+    private volatile boolean _nonLazyMessages;
     private boolean _broadcastToPublisher;
     private boolean _allowMessageDeliveryDuringHandshake;
     private String _browserId;
@@ -91,6 +105,9 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     public ServerSessionImpl(BayeuxServerImpl bayeux, LocalSessionImpl localSession, String idHint) {
         _bayeux = bayeux;
         _localSession = localSession;
+        // Always contribute to the server-wide size of the queues, since
+        // the budget may be configured after this session is created.
+        _queue = new MPSCQueue<>(ServerSessionImpl::sizeOf, this::addQueuesBytes);
 
         StringBuilder id = new StringBuilder(30);
         int len = 20;
@@ -147,6 +164,25 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         _browserId = browserId;
     }
 
+    /**
+     * <p>Invoked when the sweep scheduled at the given deadline is due.</p>
+     *
+     * @param deadline the deadline the sweep was scheduled at
+     * @param now      the current time
+     */
+    void sweep(long deadline, long now) {
+        synchronized (getLock()) {
+            // Only the earliest sweep scheduled is valid,
+            // the others have been superseded by it.
+            if (deadline != _sweepTime) {
+                return;
+            }
+            _sweepTime = 0;
+            _sweepEntry = null;
+        }
+        sweep(now);
+    }
+
     protected void sweep(long now) {
         if (isLocalSession()) {
             return;
@@ -156,9 +192,14 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         Scheduler scheduler = null;
         synchronized (getLock()) {
             if (_expireTime == 0) {
-                if (_maxProcessing > 0 && now > _messageTime + _maxProcessing) {
-                    _logger.info("Sweeping during processing {}", this);
-                    remove = true;
+                if (_maxProcessing > 0) {
+                    long expiration = _messageTime + _maxProcessing;
+                    if (now > expiration) {
+                        _logger.info("Sweeping during processing {}", this);
+                        remove = true;
+                    } else {
+                        scheduleSweep(expiration);
+                    }
                 }
             } else {
                 if (now > _expireTime) {
@@ -166,6 +207,8 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
                         _logger.debug("Sweeping {}", this);
                     }
                     remove = true;
+                } else {
+                    scheduleSweep(_expireTime);
                 }
             }
             if (remove) {
@@ -178,6 +221,42 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         }
     }
 
+    /**
+     * <p>Schedules a sweep of this session at the given time, unless
+     * an earlier sweep is already scheduled.</p>
+     * <p>Sweeps are not cancelled when the expiration is extended: when
+     * a sweep is due, the session verifies whether it is actually expired
+     * and, if it is not, schedules another sweep at its new expiration time.
+     * Sweeps are only cancelled when superseded by an earlier sweep, or when
+     * the session is removed.</p>
+     * <p>Must be called with the {@link #getLock() lock} held.</p>
+     *
+     * @param time the time of the sweep
+     */
+    private void scheduleSweep(long time) {
+        if (isTerminated()) {
+            return;
+        }
+        if (_sweepTime == 0 || time - _sweepTime < 0) {
+            cancelSweep();
+            _sweepTime = time;
+            _sweepEntry = _bayeux.scheduleSweep(this, time);
+        }
+    }
+
+    /**
+     * <p>Cancels the scheduled sweep, if any, so that this
+     * session is not retained until the sweep is due.</p>
+     * <p>Must be called with the {@link #getLock() lock} held.</p>
+     */
+    private void cancelSweep() {
+        if (_sweepEntry != null) {
+            _sweepEntry.cancel();
+            _sweepEntry = null;
+        }
+        _sweepTime = 0;
+    }
+
     @Override
     public Set<ServerChannel> getSubscriptions() {
         return Collections.unmodifiableSet(subscriptions);
@@ -220,7 +299,7 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         ServerSession serverSession = session;
         _bayeux.extendOutgoing(serverSession, this, message, Promise.from(b -> {
             if (b) {
-                deliver1(serverSession, message, promise);
+                _bayeux.deliverInLane(this, serverSession, message, promise);
             } else {
                 promise.succeed(false);
             }
@@ -279,25 +358,256 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     private Boolean enqueueMessage(ServerSession sender, ServerMessage.Mutable message) {
+        Object conflationKey = message instanceof ServerMessageImpl ? ((ServerMessageImpl)message).getConflationKey() : null;
+        if (conflationKey == null && !hasQueueListeners() && !hasQueueLimits() && _spillThreshold <= 0) {
+            // Without listeners that need to observe the queue
+            // consistently, enqueue without taking the lock.
+            addMessage(message);
+            return _batch == 0;
+        }
+        boolean disconnect = false;
+        Boolean result = null;
         synchronized (getLock()) {
-            for (ServerSessionListener listener : _listeners) {
-                if (listener instanceof QueueMaxedListener) {
-                    int maxQueueSize = _maxQueue;
-                    if (maxQueueSize > 0 && _queue.size() >= maxQueueSize) {
-                        if (!notifyQueueMaxed((QueueMaxedListener)listener, this, _queue, sender, message)) {
-                            return null;
+            if (conflationKey != null && conflateMessage(conflationKey, message)) {
+                for (ServerSessionListener listener : _listeners) {
+                    if (listener instanceof QueueListener) {
+                        notifyQueued((QueueListener)listener, sender, message);
+                    }
+                }
+                return _batch == 0;
+            }
+            if (isQueueMaxed(message)) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Queue maxed, policy {}, size {}, bytes {}: {}", _maxQueuePolicy, _queue.size(), _queue.weight(), this);
+                }
+                switch (_maxQueuePolicy) {
+                    case NOTIFY: {
+                        for (ServerSessionListener listener : _listeners) {
+                            if (listener instanceof QueueMaxedListener) {
+                                if (!notifyQueueMaxed((QueueMaxedListener)listener, this, _queue, sender, message)) {
+                                    return null;
+                                }
+                            }
+                        }
+                        break;
+                    }
+                    case REJECT: {
+                        return null;
+                    }
+                    case EVICT: {
+                        // Listeners may make room themselves, or reject the message.
+                        for (ServerSessionListener listener : _listeners) {
+                            if (listener instanceof QueueMaxedListener) {
+                                if (!notifyQueueMaxed((QueueMaxedListener)listener, this, _queue, sender, message)) {
+                                    return null;
+                                }
+                            }
+                        }
+                        while (!_queue.isEmpty() && isQueueMaxed(message)) {
+                            ServerMessage evicted = _queue.poll();
+                            if (_logger.isDebugEnabled()) {
+                                _logger.debug("Evicted {} for {}", evicted, this);
+                            }
                         }
+                        break;
+                    }
+                    case DISCONNECT: {
+                        disconnect = true;
+                        break;
+                    }
+                    default: {
+                        throw new IllegalStateException("Invalid policy " + _maxQueuePolicy);
                     }
                 }
             }
-            addMessage(message);
-            for (ServerSessionListener listener : _listeners) {
-                if (listener instanceof QueueListener) {
-                    notifyQueued((QueueListener)listener, sender, message);
+            if (!disconnect) {
+                if (spill(message, conflationKey)) {
+                    updateNonLazyMessages(message);
+                } else if (conflationKey == null) {
+                    addMessage(message);
+                } else {
+                    _conflated.put(conflationKey, _queue.append(message));
+                    updateNonLazyMessages(message);
+                }
+                for (ServerSessionListener listener : _listeners) {
+                    if (listener instanceof QueueListener) {
+                        notifyQueued((QueueListener)listener, sender, message);
+                    }
                 }
+                result = _batch == 0;
             }
-            return _batch == 0;
         }
+        if (disconnect) {
+            disconnect();
+        }
+        return result;
+    }
+
+    private boolean hasQueueLimits() {
+        if (_maxQueueBytes > 0 || _bayeux.getMaxQueuesBytes() > 0) {
+            return true;
+        }
+        // With the NOTIFY policy, only the listeners can act on the limit.
+        return _maxQueue > 0 && _maxQueuePolicy != AbstractServerTransport.MaxQueuePolicy.NOTIFY;
+    }
+
+    private boolean isQueueMaxed(ServerMessage message) {
+        int maxQueue = _maxQueue;
+        if (maxQueue > 0 && _queue.size() >= maxQueue) {
+            return true;
+        }
+        long size = sizeOf(message);
+        long maxQueueBytes = _maxQueueBytes;
+        if (maxQueueBytes > 0 && _queue.weight() + size > maxQueueBytes) {
+            return true;
+        }
+        // When the server-wide budget is exhausted, only the
+        // sessions that have queued messages are affected.
+        long maxQueuesBytes = _bayeux.getMaxQueuesBytes();
+        return maxQueuesBytes > 0 && !_queue.isEmpty() && _bayeux.getQueuesBytes() + size > maxQueuesBytes;
+    }
+
+    private boolean spill(ServerMessage.Mutable message, Object conflationKey) {
+        long spillThreshold = _spillThreshold;
+        if (spillThreshold <= 0) {
+            return false;
+        }
+        // Once spilling, keep spilling to preserve the message order.
+        boolean spilling = _spill != null && !_spill.isEmpty();
+        if (!spilling && _queue.weight() + sizeOf(message) <= spillThreshold) {
+            return false;
+        }
+        byte[] json = message instanceof ServerMessageImpl ? ((ServerMessageImpl)message).getJSONBytes() : null;
+        if (json == null) {
+            json = _bayeux.getJSONContext().generate(message).getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            if (_spill == null) {
+                _spill = new SpillFile(_spillDirectory);
+            }
+            long sequence = _spill.append(json);
+            if (conflationKey != null) {
+                // Later messages with the same key replace
+                // this one when it is loaded from the file.
+                _spilledConflated.put(conflationKey, sequence);
+            }
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Spilled {} to {} for {}", message, _spill, this);
+            }
+            return true;
+        } catch (Throwable x) {
+            _logger.info("Could not spill message for " + this, x);
+            // Keep the message order by loading the spilled
+            // messages before queueing the message in memory.
+            unspill();
+            return false;
+        }
+    }
+
+    private void unspill() {
+        SpillFile spill = _spill;
+        if (spill == null || spill.isEmpty()) {
+            return;
+        }
+        // Load one record at a time, and remove it from the file
+        // only after it is queued, so that a failure loses nothing.
+        int loaded = 0;
+        while (!spill.isEmpty()) {
+            ServerMessage.Mutable message = _spilledReplacements.remove(spill.first());
+            if (message == null) {
+                message = parseSpilled(spill.peek());
+            }
+            if (message != null) {
+                _queue.offer(message);
+                ++loaded;
+            }
+            spill.remove();
+        }
+        _spilledConflated.clear();
+        _spilledReplacements.clear();
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Loaded {} spilled messages for {}", loaded, this);
+        }
+    }
+
+    private ServerMessage.Mutable parseSpilled(byte[] record) {
+        try {
+            // Keep the message frozen with the spilled bytes,
+            // so that it is not generated again when sent.
+            return _bayeux.parseFrozen(record);
+        } catch (ParseException x) {
+            _logger.info("Could not load spilled message for " + this, x);
+            return null;
+        }
+    }
+
+    private void closeSpill() {
+        SpillFile spill = _spill;
+        _spill = null;
+        _spilledConflated.clear();
+        _spilledReplacements.clear();
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (Throwable x) {
+                _logger.trace("Could not close " + spill, x);
+            }
+        }
+    }
+
+    private static long sizeOf(ServerMessage message) {
+        // Messages are frozen before being queued, so their size is known.
+        return message instanceof ServerMessageImpl ? ((ServerMessageImpl)message).getJSONSize() : 0;
+    }
+
+    private void addQueuesBytes(long delta) {
+        while (true) {
+            long bytes = _queuesBytes.get();
+            // Removed sessions do not contribute anymore.
+            if (bytes == Long.MIN_VALUE) {
+                return;
+            }
+            if (_queuesBytes.compareAndSet(bytes, bytes + delta)) {
+                _bayeux.addQueuesBytes(delta);
+                return;
+            }
+        }
+    }
+
+    private boolean conflateMessage(Object conflationKey, ServerMessage.Mutable message) {
+        MPSCQueue.Node<ServerMessage> node = _conflated.get(conflationKey);
+        if (node == null) {
+            return conflateSpilledMessage(conflationKey, message);
+        }
+        // The pending message may have been removed from
+        // the queue, for example by a DeQueueListener.
+        if (!_queue.replace(node, message)) {
+            return false;
+        }
+        updateNonLazyMessages(message);
+        return true;
+    }
+
+    private boolean conflateSpilledMessage(Object conflationKey, ServerMessage.Mutable message) {
+        Long sequence = _spilledConflated.get(conflationKey);
+        SpillFile spill = _spill;
+        if (sequence == null || spill == null || sequence < spill.first()) {
+            return false;
+        }
+        // The spilled message cannot be replaced in the file,
+        // so it is replaced when it is loaded from the file.
+        _spilledReplacements.put(sequence, message);
+        updateNonLazyMessages(message);
+        return true;
+    }
+
+    private boolean hasQueueListeners() {
+        for (ServerSessionListener listener : _listeners) {
+            if (listener instanceof QueueMaxedListener || listener instanceof QueueListener) {
+                return true;
+            }
+        }
+        return false;
     }
 
     protected void extendOutgoing(ServerSession sender, ServerMessage.Mutable message, Promise<ServerMessage.Mutable> promise) {
@@ -355,6 +665,10 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         AbstractServerTransport transport = message == null ? null : (AbstractServerTransport)message.getServerTransport();
         if (transport != null) {
             _maxQueue = transport.getOption(AbstractServerTransport.MAX_QUEUE_OPTION, -1);
+            _maxQueueBytes = transport.getMaxQueueBytes();
+            _maxQueuePolicy = transport.getMaxQueuePolicy();
+            _spillThreshold = transport.getSpillThreshold();
+            _spillDirectory = transport.getSpillDirectory();
             _maxProcessing = transport.getOption(AbstractServerTransport.MAX_PROCESSING_OPTION, -1);
             _maxLazy = transport.getMaxLazyTimeout();
         }
@@ -439,26 +753,62 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         return this;
     }
 
+    /**
+     * <p>Returns the queue of messages to be delivered to the remote client.</p>
+     * <p>Messages may be added to the queue concurrently without holding
+     * the {@link #getLock() lock}, but all other operations that read or
+     * remove messages must be performed while holding the lock.</p>
+     *
+     * @return the queue of messages of this session
+     */
     public Queue<ServerMessage> getQueue() {
         return _queue;
     }
 
-    public boolean hasNonLazyMessages() {
+    /**
+     * @return the size, in bytes, of the frozen JSON of the messages in the queue
+     * @see ServerMessageImpl#getJSONSize()
+     */
+    public long getQueueBytes() {
+        return _queue.weight();
+    }
+
+    /**
+     * @return the number of messages spilled to disk
+     * @see AbstractServerTransport#getSpillThreshold()
+     */
+    public int getSpilledMessages() {
         synchronized (getLock()) {
-            return _nonLazyMessages;
+            SpillFile spill = _spill;
+            return spill == null ? 0 : spill.size();
         }
     }
 
+    public boolean hasNonLazyMessages() {
+        return _nonLazyMessages;
+    }
+
     protected void addMessage(ServerMessage message) {
-        synchronized (getLock()) {
-            _queue.add(message);
-            _nonLazyMessages |= !message.isLazy();
+        _queue.offer(message);
+        updateNonLazyMessages(message);
+    }
+
+    private void updateNonLazyMessages(ServerMessage message) {
+        // Set the flag after adding the message, so that a concurrent
+        // takeQueue() that clears the flag cannot leave the message
+        // in the queue without the flag being set.
+        if (!message.isLazy()) {
+            _nonLazyMessages = true;
         }
     }
 
     public List<ServerMessage> takeQueue(List<ServerMessage.Mutable> replies) {
         List<ServerMessage> copy = Collections.emptyList();
         synchronized (getLock()) {
+            // Spilled messages follow the messages in memory,
+            // and listeners must see all the queued messages.
+            unspill();
+
             // Always call listeners, even if the queue is
             // empty since they may add messages to the queue.
             for (ServerSessionListener listener : _listeners) {
@@ -467,14 +817,19 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
                 }
             }
 
+            // Clear the flag before draining the queue, so that
+            // messages added concurrently set it again.
+            _nonLazyMessages = false;
+
             int size = _queue.size();
             if (size > 0) {
                 copy = new ArrayList<>(size);
-                copy.addAll(_queue);
-                _queue.clear();
+                ServerMessage message;
+                while ((message = _queue.poll()) != null) {
+                    copy.add(message);
+                }
             }
-
-            _nonLazyMessages = false;
+            _conflated.clear();
         }
         return copy;
     }
@@ -563,11 +918,12 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     public void flush() {
-        Scheduler scheduler;
-        synchronized (getLock()) {
-            _lazyTask.cancel();
-            scheduler = _scheduler;
+        // No locking, so that enqueuing a message and waking
+        // up the scheduler does not contend with the transport.
+        if (_lazyFlushTimeout.get() != 0) {
+            _lazyFlushTimeout.set(0);
         }
+        Scheduler scheduler = _scheduler;
         if (_localSession == null) {
             // It's a remote session, schedule delivery and return.
             scheduler.schedule();
@@ -582,24 +938,43 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     private void flushLazy(ServerMessage message) {
-        synchronized (getLock()) {
-            ServerChannel channel = _bayeux.getChannel(message.getChannel());
-            long lazyTimeout = -1;
-            if (channel != null) {
-                lazyTimeout = channel.getLazyTimeout();
-            }
-            if (lazyTimeout <= 0) {
-                lazyTimeout = _maxLazy;
-            }
+        ServerChannel channel = _bayeux.getChannel(message.getChannel());
+        long lazyTimeout = -1;
+        if (channel != null) {
+            lazyTimeout = channel.getLazyTimeout();
+        }
+        if (lazyTimeout <= 0) {
+            lazyTimeout = _maxLazy;
+        }
 
-            if (lazyTimeout <= 0) {
-                flush();
-            } else {
-                _lazyTask.schedule(lazyTimeout);
+        if (lazyTimeout <= 0) {
+            flush();
+        } else {
+            while (true) {
+                long current = _lazyFlushTimeout.get();
+                // Already added to a flusher that runs at least as early.
+                if (current > 0 && current <= lazyTimeout) {
+                    break;
+                }
+                if (_lazyFlushTimeout.compareAndSet(current, lazyTimeout)) {
+                    // Sessions with the same lazy timeout are flushed together.
+                    _bayeux.flushLazy(this, lazyTimeout);
+                    break;
+                }
             }
         }
     }
 
+    /**
+     * <p>Flushes this session if it has not been flushed since
+     * it has been added to a {@link LazyFlusher}.</p>
+     */
+    void flushLazy() {
+        if (_lazyFlushTimeout.getAndSet(0) != 0) {
+            flush();
+        }
+    }
+
     public void destroyScheduler() {
         Scheduler oldScheduler;
         synchronized (getLock()) {
@@ -624,6 +999,9 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
                 long maxInterval = calculateMaxInterval(getServerTransport().getMaxInterval());
                 _expireTime = Math.max(_expireTime, now + TimeUnit.MILLISECONDS.toNanos(maxInterval));
             }
+            if (_expireTime == 0 && _maxProcessing > 0) {
+                scheduleSweep(_messageTime + _maxProcessing);
+            }
         }
         if (_logger.isDebugEnabled()) {
             _logger.debug("{} expiration for {}", metaConnect ? "Cancelled" : "Delayed", this);
@@ -644,6 +1022,7 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
             if (metaConnectCycle == 0 || metaConnectCycle == getMetaConnectCycle()) {
                 scheduled = true;
                 _expireTime = now + TimeUnit.MILLISECONDS.toNanos(interval + maxInterval);
+                scheduleSweep(_expireTime);
             }
         }
         if (_logger.isDebugEnabled()) {
@@ -741,6 +1120,14 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         _advisedTransport = null;
     }
 
+    /**
+     * @param transport the transport the advice is for
+     * @return whether {@link #takeAdvice(ServerTransport)} would return a new advice
+     */
+    public boolean hasAdvice(ServerTransport transport) {
+        return transport != null && transport != _advisedTransport;
+    }
+
     public Map<String, Object> takeAdvice(ServerTransport transport) {
         if (transport == null || transport == _advisedTransport) {
             // The advice has not changed, so return null.
@@ -780,7 +1167,29 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     public void setServerTransport(ServerTransport transport) {
+        setServerTransport(transport, false);
+    }
+
+    /**
+     * @param transport the transport used by this session
+     * @param binary    whether the transport exchanges messages with this session in a binary format
+     * @see #isBinary()
+     */
+    public void setServerTransport(ServerTransport transport, boolean binary) {
         _transport = transport;
+        _binary = binary;
+    }
+
+    /**
+     * <p>Returns whether messages are delivered to this session in a binary format,
+     * for example when a binary WebSocket subprotocol has been negotiated.</p>
+     * <p>Extensions may use this information to avoid text encodings of binary data.</p>
+     *
+     * @return whether messages are delivered to this session in a binary format
+     * @see BinaryContextServer
+     */
+    public boolean isBinary() {
+        return _binary;
     }
 
     public boolean updateServerEndPoint(Object newEndPoint) {
@@ -825,6 +1234,13 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     void added(ServerMessage message) {
+        if (!isLocalSession()) {
+            // Make sure that the session is swept at least once,
+            // even if its expiration is never scheduled.
+            synchronized (getLock()) {
+                scheduleSweep(System.nanoTime());
+            }
+        }
         for (ServerSessionListener listener : _listeners) {
             if (listener instanceof AddedListener) {
                 notifyAdded((AddedListener)listener, this, message);
@@ -842,6 +1258,15 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         synchronized (getLock()) {
             result = isHandshook();
             _state = timeout ? State.EXPIRED : State.DISCONNECTED;
+            cancelSweep();
+            // The spilled messages cannot be delivered anymore.
+            closeSpill();
+        }
+        // Messages may still be queued and flushed after the removal,
+        // but they do not count against the server-wide budget anymore.
+        long queuesBytes = _queuesBytes.getAndSet(Long.MIN_VALUE);
+        if (queuesBytes != Long.MIN_VALUE) {
+            _bayeux.addQueuesBytes(-queuesBytes);
         }
         if (result) {
             for (ServerChannelImpl channel : subscriptions) {
@@ -854,6 +1279,7 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
                 }
             }
         }
+        releaseIndex();
         return result;
     }
 
@@ -896,6 +1322,9 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
             if (isTerminated()) {
                 return false;
             } else {
+                if (_index < 0) {
+                    _index = _bayeux.getSessionTable().add(this);
+                }
                 subscriptions.add(channel);
                 return true;
             }
@@ -904,6 +1333,30 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
 
     protected void unsubscribedFrom(ServerChannelImpl channel) {
         subscriptions.remove(channel);
+        releaseIndex();
+    }
+
+    /**
+     * <p>Returns the index of this session, used to store this session
+     * in the channels subscribers bitmaps, or -1 if this session has
+     * no index because it never subscribed or it has been removed.</p>
+     * <p>Must be called with the {@link #getLock() lock} held.</p>
+     *
+     * @return the index of this session, or -1
+     */
+    int getIndex() {
+        return _index;
+    }
+
+    private void releaseIndex() {
+        synchronized (getLock()) {
+            // The index can be reused only after it has been
+            // removed from the subscribers of all channels.
+            if (_index >= 0 && isTerminated() && subscriptions.isEmpty()) {
+                _bayeux.getSessionTable().remove(_index);
+                _index = -1;
+            }
+        }
     }
 
     public long calculateTimeout(long defaultTimeout) {
@@ -992,34 +1445,6 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
                 TimeUnit.NANOSECONDS.toMillis(expire));
     }
 
-    private class LazyTask implements Runnable {
-        private long _execution;
-        private volatile Task _task;
-
-        @Override
-        public void run() {
-            flush();
-            _execution = 0;
-            _task = null;
-        }
-
-        public boolean cancel() {
-            Task task = _task;
-            return task != null && task.cancel();
-        }
-
-        public boolean schedule(long lazyTimeout) {
-            long execution = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lazyTimeout);
-            if (_task == null || execution < _execution) {
-                cancel();
-                _execution = execution;
-                _task = _bayeux.schedule(this, lazyTimeout);
-                return true;
-            }
-            return false;
-        }
-    }
-
     private enum State {
         NEW, HANDSHAKEN, CONNECTED, DISCONNECTED, EXPIRED
     }
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * <p>Assigns dense {@code int} indexes to {@link ServerSessionImpl}s,
+ * so that sets of sessions can be stored as {@link IntBitmap}s.</p>
+ * <p>Indexes are reused after they are released, so that they stay
+ * small and bitmaps stay compact.
+ * To avoid that an index is reused while a bitmap containing it is
+ * being resolved to sessions, indexes are released under a write lock,
+ * while bitmaps are resolved under a read lock.</p>
+ */
+class SessionTable {
+    private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+    private final BitSet _free = new BitSet();
+    private ServerSessionImpl[] _sessions = new ServerSessionImpl[64];
+    private int _size;
+
+    int add(ServerSessionImpl session) {
+        _lock.writeLock().lock();
+        try {
+            int index = _free.nextSetBit(0);
+            if (index >= 0) {
+                _free.clear(index);
+            } else {
+                index = _size++;
+                if (index == _sessions.length) {
+                    ServerSessionImpl[] sessions = new ServerSessionImpl[index + (index >> 1)];
+                    System.arraycopy(_sessions, 0, sessions, 0, index);
+                    _sessions = sessions;
+                }
+            }
+            _sessions[index] = session;
+            return index;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int index) {
+        _lock.writeLock().lock();
+        try {
+            _sessions[index] = null;
+            _free.set(index);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>Resolves the session indexes returned by the given supplier to sessions.</p>
+     * <p>The supplier is invoked under the read lock, so that the indexes
+     * it returns cannot be released and reused before being resolved.</p>
+     *
+     * @param indexes the supplier of the session indexes
+     * @return the sessions corresponding to the indexes
+     */
+    List<ServerSessionImpl> resolve(Supplier<IntBitmap> indexes) {
+        _lock.readLock().lock();
+        try {
+            IntBitmap bitmap = indexes.get();
+            List<ServerSessionImpl> result = new ArrayList<>(bitmap.cardinality());
+            ServerSessionImpl[] sessions = _sessions;
+            bitmap.forEach(index -> {
+                ServerSessionImpl session = sessions[index];
+                if (session != null) {
+                    result.add(session);
+                }
+            });
+            return result;
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>An append-only file of records, memory-mapped in segments.</p>
+ * <p>Records are appended to the last mapped segment, and a new segment
+ * is mapped when the last one is full, so appending never reads from disk
+ * and the records are paged out by the operating system as needed.</p>
+ * <p>Records are read back one by one and in order with {@link #peek()},
+ * and removed with {@link #remove()} once they have been processed;
+ * when all the records are removed, the file is reused from the beginning.
+ * The file is deleted when closed.</p>
+ * <p>This class is not thread-safe.</p>
+ */
+final class SpillFile implements Closeable {
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+
+    private final List<MappedByteBuffer> _segments = new ArrayList<>();
+    private final FileChannel _channel;
+    private final int _segmentSize;
+    private long _mapped;
+    private int _readSegment;
+    private int _readOffset;
+    private long _first;
+    private int _count;
+    private long _bytes;
+
+    SpillFile(Path directory) throws IOException {
+        this(directory, SEGMENT_SIZE);
+    }
+
+    SpillFile(Path directory, int segmentSize) throws IOException {
+        Path file = Files.createTempFile(directory, "cometd-spill-", ".bin");
+        _channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        _segmentSize = segmentSize;
+    }
+
+    /**
+     * @param record the record to append
+     * @return the sequence number of the record
+     * @throws IOException if the file cannot be mapped
+     * @see #first()
+     */
+    long append(byte[] record) throws IOException {
+        int length = Integer.BYTES + record.length;
+        MappedByteBuffer segment = _segments.isEmpty() ? null : _segments.get(_segments.size() - 1);
+        if (segment == null || segment.remaining() < length) {
+            // Records larger than a segment have a segment of their own.
+            int size = Math.max(_segmentSize, length);
+            segment = _channel.map(FileChannel.MapMode.READ_WRITE, _mapped, size);
+            _mapped += size;
+            _segments.add(segment);
+        }
+        segment.putInt(record.length);
+        segment.put(record);
+        _bytes += record.length;
+        return _first + _count++;
+    }
+
+    /**
+     * @return the first record, or null if this file is empty
+     */
+    byte[] peek() {
+        if (_count == 0) {
+            return null;
+        }
+        ByteBuffer buffer = readSegment().duplicate();
+        buffer.position(_readOffset);
+        byte[] record = new byte[buffer.getInt()];
+        buffer.get(record);
+        return record;
+    }
+
+    /**
+     * <p>Removes the first record.</p>
+     */
+    void remove() {
+        if (_count == 0) {
+            return;
+        }
+        int length = readSegment().getInt(_readOffset);
+        _readOffset += Integer.BYTES + length;
+        _bytes -= length;
+        ++_first;
+        if (--_count == 0) {
+            // The segments are unmapped when garbage collected,
+            // and the file regions are mapped again when needed.
+            _segments.clear();
+            _mapped = 0;
+            _readSegment = 0;
+            _readOffset = 0;
+        }
+    }
+
+    private MappedByteBuffer readSegment() {
+        MappedByteBuffer segment = _segments.get(_readSegment);
+        // The segment position is where the next record is written.
+        while (_readOffset == segment.position()) {
+            // Let the consumed segment be unmapped when garbage collected.
+            _segments.set(_readSegment, null);
+            ++_readSegment;
+            _readOffset = 0;
+            segment = _segments.get(_readSegment);
+        }
+        return segment;
+    }
+
+    /**
+     * <p>Returns the sequence number of the first record.</p>
+     * <p>Records are numbered in the order they are appended, and
+     * numbers are not reused when the file is reused.</p>
+     *
+     * @return the sequence number of the first record
+     */
+    long first() {
+        return _first;
+    }
+
+    boolean isEmpty() {
+        return _count == 0;
+    }
+
+    /**
+     * @return the number of records in this file
+     */
+    int size() {
+        return _count;
+    }
+
+    /**
+     * @return the total size of the records in this file, in bytes
+     */
+    long bytes() {
+        return _bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _segments.clear();
+        _channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x[records=%d,bytes=%d]", getClass().getSimpleName(), hashCode(), _count, _bytes);
+    }
+}
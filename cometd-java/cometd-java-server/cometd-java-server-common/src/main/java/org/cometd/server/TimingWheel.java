@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * <p>A hierarchical timing wheel that tracks deadlines of items.</p>
+ * <p>Time is divided in ticks; each level of the wheel has 64 slots, and a slot
+ * of a level spans 64 times the ticks of a slot of the previous level.
+ * An item is stored in the slot of the lowest level that can hold its deadline;
+ * when time reaches the slot of a higher level, its items cascade to the lower
+ * levels, until they reach the first level, where they become due.</p>
+ * <p>{@link #schedule(Object, long)} is O(1) and does not block: items are
+ * queued and only stored into the wheel by the next {@link #advance(long, ObjLongConsumer)}.
+ * {@link #advance(long, ObjLongConsumer)} only touches the items that are due,
+ * and those that cascade; when it has to visit more ticks than there are items,
+ * for example after a long idle period, it stores the items again at the current
+ * tick instead of visiting each elapsed tick.</p>
+ * <p>The wheel is meant to be used for deadlines that are verified when they
+ * become due, and that are rescheduled if they have been extended, so that
+ * extending a deadline is free.
+ * Items that will never be due can be {@link Entry#cancel() cancelled}, so that
+ * they are not retained by the wheel until their deadline.</p>
+ *
+ * @param <T> the type of the items
+ */
+class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = 1L << (SLOT_BITS * LEVELS);
+
+    private final MPSCQueue<Entry<T>> _pending = new MPSCQueue<>();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Entry<T>[][] _slots = new Entry[LEVELS][SLOTS];
+    private final long _origin = System.nanoTime();
+    private final long _tickNanos;
+    private long _tick;
+    private int _size;
+
+    /**
+     * @param tick the duration of a tick
+     * @param unit the unit of the tick duration
+     */
+    TimingWheel(long tick, TimeUnit unit) {
+        _tickNanos = Math.max(1, unit.toNanos(tick));
+    }
+
+    /**
+     * <p>Schedules the given item at the given deadline.</p>
+     * <p>This method may be called concurrently by any thread.</p>
+     *
+     * @param item     the item to schedule
+     * @param deadline the deadline, in {@link System#nanoTime()} units
+     * @return the entry of the scheduled item, that can be cancelled
+     */
+    Entry<T> schedule(T item, long deadline) {
+        Entry<T> entry = new Entry<>(item, deadline);
+        _pending.offer(entry);
+        return entry;
+    }
+
+    /**
+     * <p>Advances the wheel up to the given time, and passes the items that
+     * are due to the given consumer, along with the deadline they have
+     * been scheduled at.</p>
+     * <p>Items are due when the tick following their deadline has been
+     * reached, so that they are never due before their deadline.</p>
+     * <p>The consumer is invoked without holding the wheel lock, so that
+     * it may schedule items again.</p>
+     *
+     * @param now      the current time, in {@link System#nanoTime()} units
+     * @param consumer the consumer of the items that are due
+     */
+    void advance(long now, ObjLongConsumer<T> consumer) {
+        List<Entry<T>> due = new ArrayList<>();
+        synchronized (this) {
+            long nowTick = tickOf(now);
+            if (nowTick - _tick > _size) {
+                skipTo(nowTick);
+            }
+            Entry<T> entry;
+            while ((entry = _pending.poll()) != null) {
+                if (!entry.isCancelled()) {
+                    insert(entry, _tick);
+                }
+            }
+            while (_tick <= nowTick) {
+                long tick = _tick++;
+                // Cascade the higher levels first, as their
+                // items may become due at the current tick.
+                for (int level = LEVELS - 1; level > 0; --level) {
+                    if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                        int slot = (int)((tick >>> (SLOT_BITS * level)) & MASK);
+                        Entry<T> list = _slots[level][slot];
+                        _slots[level][slot] = null;
+                        while (list != null) {
+                            Entry<T> next = list.next;
+                            --_size;
+                            // Cancelled entries are dropped when they cascade.
+                            if (!list.isCancelled()) {
+                                insert(list, tick);
+                            }
+                            list = next;
+                        }
+                    }
+                }
+                int slot = (int)(tick & MASK);
+                Entry<T> list = _slots[0][slot];
+                _slots[0][slot] = null;
+                while (list != null) {
+                    --_size;
+                    due.add(list);
+                    list = list.next;
+                }
+            }
+        }
+        for (Entry<T> entry : due) {
+            T item = entry.item;
+            if (item != null) {
+                consumer.accept(item, entry.deadline);
+            }
+        }
+    }
+
+    /**
+     * <p>Removes all the items from this wheel.</p>
+     */
+    synchronized void clear() {
+        _pending.clear();
+        for (Entry<T>[] slots : _slots) {
+            Arrays.fill(slots, null);
+        }
+        _size = 0;
+    }
+
+    private void skipTo(long tick) {
+        // Cheaper than visiting each tick when there are fewer items
+        // than ticks; items whose deadline has passed are due at once.
+        if (_size == 0) {
+            _tick = tick;
+            return;
+        }
+        List<Entry<T>> entries = new ArrayList<>(_size);
+        for (Entry<T>[] slots : _slots) {
+            for (int slot = 0; slot < SLOTS; ++slot) {
+                Entry<T> list = slots[slot];
+                slots[slot] = null;
+                while (list != null) {
+                    entries.add(list);
+                    list = list.next;
+                }
+            }
+        }
+        _size = 0;
+        _tick = tick;
+        for (Entry<T> entry : entries) {
+            if (!entry.isCancelled()) {
+                insert(entry, tick);
+            }
+        }
+    }
+
+    private long tickOf(long time) {
+        return Math.floorDiv(time - _origin, _tickNanos);
+    }
+
+    private long ceilTickOf(long time) {
+        return -Math.floorDiv(_origin - time, _tickNanos);
+    }
+
+    private void insert(Entry<T> entry, long currentTick) {
+        // Deadlines in the past are due at the current tick; deadlines
+        // beyond the wheel range are stored in the farthest slot, and
+        // will cascade down until they become due.
+        long deadlineTick = Math.max(ceilTickOf(entry.deadline), currentTick);
+        deadlineTick = Math.min(deadlineTick, currentTick + MAX_TICKS - 1);
+        long delta = deadlineTick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            ++level;
+        }
+        int slot = (int)((deadlineTick >>> (SLOT_BITS * level)) & MASK);
+        entry.next = _slots[level][slot];
+        _slots[level][slot] = entry;
+        ++_size;
+    }
+
+    /**
+     * <p>The entry of an item scheduled in the wheel.</p>
+     *
+     * @param <T> the type of the item
+     */
+    static class Entry<T> {
+        private final long deadline;
+        private volatile T item;
+        private Entry<T> next;
+
+        private Entry(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+
+        /**
+         * <p>Cancels this entry, so that its item is never due.</p>
+         * <p>The item is released immediately, while the entry is
+         * discarded by the wheel when its slot is reached.</p>
+         * <p>This method may be called concurrently by any thread.</p>
+         */
+        void cancel() {
+            item = null;
+        }
+
+        private boolean isCancelled() {
+            return item == null;
+        }
+    }
+}
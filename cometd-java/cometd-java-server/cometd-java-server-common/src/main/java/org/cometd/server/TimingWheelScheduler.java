@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link Scheduler} backed by a hierarchical timing wheel.</p>
+ * <p>This scheduler is tuned for a large number of timeouts that are
+ * mostly cancelled before they expire, such as those of suspended
+ * {@code /meta/connect} messages: scheduling and cancelling a task
+ * is O(1) and does not take locks, at the cost of running tasks
+ * with a precision of one tick.</p>
+ * <p>Cancelled tasks are not removed from the wheel, but they release
+ * the {@link Runnable} they reference, and they are discarded when
+ * they become due.</p>
+ * <p>Tasks are run by the single scheduler thread, so they should
+ * not block. The scheduler thread wakes up every tick only while there
+ * are tasks that have not run and are not cancelled.</p>
+ */
+public class TimingWheelScheduler extends AbstractLifeCycle implements Scheduler {
+    private static final Logger _logger = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    private final String _name;
+    private final boolean _daemon;
+    private final long _tickNanos;
+    private final TimingWheel<WheelTask> _wheel;
+    private final AtomicInteger _tasks = new AtomicInteger();
+    private volatile Thread _thread;
+
+    /**
+     * @param name   the name of the scheduler thread
+     * @param daemon whether the scheduler thread is a daemon thread
+     * @param tick   the duration of a tick, in milliseconds
+     */
+    public TimingWheelScheduler(String name, boolean daemon, long tick) {
+        _name = name == null ? "TimingWheelScheduler-" + hashCode() : name;
+        _daemon = daemon;
+        _tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tick));
+        _wheel = new TimingWheel<>(_tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the duration of a tick, in milliseconds
+     */
+    public long getTick() {
+        return TimeUnit.NANOSECONDS.toMillis(_tickNanos);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        Thread thread = new Thread(this::tick, _name);
+        thread.setDaemon(_daemon);
+        _thread = thread;
+        thread.start();
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        Thread thread = _thread;
+        _thread = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+        _wheel.clear();
+        _tasks.set(0);
+        super.doStop();
+    }
+
+    @Override
+    public Task schedule(Runnable task, long delay, TimeUnit unit) {
+        if (_thread == null) {
+            throw new RejectedExecutionException("Cannot schedule task, scheduler " + this + " is not running");
+        }
+        WheelTask wheelTask = new WheelTask(task);
+        _wheel.schedule(wheelTask, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        if (_tasks.getAndIncrement() == 0) {
+            // Wake up the scheduler thread, parked while idle.
+            LockSupport.unpark(_thread);
+        }
+        return wheelTask;
+    }
+
+    private void tick() {
+        while (_thread != null) {
+            if (_tasks.get() == 0) {
+                LockSupport.park();
+            } else {
+                LockSupport.parkNanos(_tickNanos);
+            }
+            if (_thread == null) {
+                break;
+            }
+            _wheel.advance(System.nanoTime(), (task, deadline) -> task.run());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x[%s,tick=%dms]", getClass().getSimpleName(), hashCode(), _name, getTick());
+    }
+
+    private class WheelTask implements Task {
+        private final AtomicReference<Runnable> _task;
+
+        private WheelTask(Runnable task) {
+            _task = new AtomicReference<>(task);
+        }
+
+        private void run() {
+            Runnable task = _task.getAndSet(null);
+            if (task != null) {
+                _tasks.decrementAndGet();
+                try {
+                    task.run();
+                } catch (Throwable x) {
+                    _logger.warn("Exception while running task " + task, x);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            if (_task.getAndSet(null) != null) {
+                _tasks.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
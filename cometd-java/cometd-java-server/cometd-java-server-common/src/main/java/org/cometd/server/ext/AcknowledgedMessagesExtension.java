@@ -34,10 +34,25 @@ import org.slf4j.LoggerFactory;
  * <p>The main role of this extension is to install the
  * {@link AcknowledgedMessagesSessionExtension} on the {@link ServerSession}
  * instances created during successful handshakes.</p>
+ * <p>Unacknowledged messages are kept in memory, unless an
+ * {@link AcknowledgedMessagesStore.Factory} is specified, for example
+ * to keep them in files with {@link FileAcknowledgedMessagesStore}.</p>
  */
 public class AcknowledgedMessagesExtension implements Extension {
     private final Logger _logger = LoggerFactory.getLogger(getClass().getName());
     private final List<Listener> _listeners = new CopyOnWriteArrayList<>();
+    private final AcknowledgedMessagesStore.Factory _storeFactory;
+
+    public AcknowledgedMessagesExtension() {
+        this(null);
+    }
+
+    /**
+     * @param storeFactory the factory of the stores of unacknowledged messages, or null to store them in memory
+     */
+    public AcknowledgedMessagesExtension(AcknowledgedMessagesStore.Factory storeFactory) {
+        _storeFactory = storeFactory;
+    }
 
     public void addListener(Listener listener) {
         _listeners.add(listener);
@@ -73,7 +88,10 @@ public class AcknowledgedMessagesExtension implements Extension {
     }
 
     protected AcknowledgedMessagesSessionExtension newSessionExtension(ServerSession session) {
-        return new AcknowledgedMessagesSessionExtension(session);
+        if (_storeFactory == null) {
+            return new AcknowledgedMessagesSessionExtension(session);
+        }
+        return new AcknowledgedMessagesSessionExtension(session, _storeFactory.newStore(session));
     }
 
     /**
@@ -33,20 +33,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Tracks the batch id of messages sent to a client.
+ * <p>Tracks the batch id of messages sent to a client.</p>
+ * <p>Unacknowledged messages are kept in an {@link AcknowledgedMessagesStore},
+ * by default in memory.</p>
  */
-public class AcknowledgedMessagesSessionExtension implements Extension, ServerSession.DeQueueListener, ServerSession.QueueListener {
+public class AcknowledgedMessagesSessionExtension implements Extension, ServerSession.DeQueueListener, ServerSession.QueueListener, ServerSession.RemovedListener {
     private static final Logger _logger = LoggerFactory.getLogger(AcknowledgedMessagesSessionExtension.class);
 
     private final List<AcknowledgedMessagesExtension.Listener> _listeners = new CopyOnWriteArrayList<>();
     private final Map<String, Long> _batches = new HashMap<>();
     private final ServerSessionImpl _session;
-    private final BatchArrayQueue<ServerMessage> _queue;
+    private final AcknowledgedMessagesStore _queue;
     private long _lastBatch;
 
     public AcknowledgedMessagesSessionExtension(ServerSession session) {
+        this(session, new MemoryStore(16, ((ServerSessionImpl)session).getLock()));
+    }
+
+    /**
+     * @param session the session
+     * @param store   the store of the unacknowledged messages of the session
+     */
+    public AcknowledgedMessagesSessionExtension(ServerSession session, AcknowledgedMessagesStore store) {
         _session = (ServerSessionImpl)session;
-        _queue = new BatchArrayQueue<>(16, _session.getLock());
+        _queue = store;
         _session.setMetaConnectDeliveryOnly(true);
         _session.addListener(this);
     }
@@ -192,7 +202,16 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
 
     protected void importMessages(ServerSessionImpl session) {
         synchronized (_session.getLock()) {
-            _queue.addAll(session.getQueue());
+            for (ServerMessage message : session.getQueue()) {
+                _queue.offer(message);
+            }
+        }
+    }
+
+    @Override
+    public void removed(ServerSession session, ServerMessage message, boolean timeout) {
+        synchronized (_session.getLock()) {
+            _queue.close();
         }
     }
 
@@ -221,7 +240,14 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
     }
 
     // Used only in tests.
+    @SuppressWarnings("unchecked")
     BatchArrayQueue<ServerMessage> getBatchArrayQueue() {
-        return _queue;
+        return _queue instanceof BatchArrayQueue ? (BatchArrayQueue<ServerMessage>)_queue : null;
+    }
+
+    private static class MemoryStore extends BatchArrayQueue<ServerMessage> implements AcknowledgedMessagesStore {
+        private MemoryStore(int initial, Object lock) {
+            super(initial, lock);
+        }
     }
 }
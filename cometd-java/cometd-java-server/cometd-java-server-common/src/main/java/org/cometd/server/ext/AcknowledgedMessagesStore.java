@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.util.Queue;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+
+/**
+ * <p>Stores the messages sent to a session that supports message
+ * acknowledgement, until the client acknowledges their batch.</p>
+ * <p>Messages are stored in the current batch; a batch is closed when it
+ * is sent to the client, and cleared when the client acknowledges it.</p>
+ * <p>Methods of this interface are invoked while holding the
+ * {@link org.cometd.server.ServerSessionImpl#getLock() session lock}.</p>
+ *
+ * @see AcknowledgedMessagesExtension#AcknowledgedMessagesExtension(Factory)
+ * @see FileAcknowledgedMessagesStore
+ */
+public interface AcknowledgedMessagesStore {
+    /**
+     * @return the current batch number
+     */
+    long getBatch();
+
+    /**
+     * <p>Closes the current batch, so that the
+     * messages stored afterwards are in a new batch.</p>
+     */
+    void nextBatch();
+
+    /**
+     * @param message the message to store in the current batch
+     * @return whether the message has been stored
+     */
+    boolean offer(ServerMessage message);
+
+    /**
+     * <p>Removes the messages up to the given batch, included.</p>
+     *
+     * @param batch the batch acknowledged by the client
+     */
+    void clearToBatch(long batch);
+
+    /**
+     * <p>Adds to the given queue, in order, the messages
+     * up to the given batch, included, without removing them.</p>
+     *
+     * @param target the queue to add the messages to
+     * @param batch  the batch to send to the client
+     */
+    void exportMessagesToBatch(Queue<ServerMessage> target, long batch);
+
+    /**
+     * @return the number of messages in this store
+     */
+    int size();
+
+    /**
+     * <p>Invoked when the session is removed, to release the resources of this store.</p>
+     */
+    default void close() {
+    }
+
+    /**
+     * <p>Creates the {@link AcknowledgedMessagesStore} of a session.</p>
+     */
+    interface Factory {
+        /**
+         * @param session the session that supports message acknowledgement
+         * @return a new store for the given session
+         */
+        AcknowledgedMessagesStore newStore(ServerSession session);
+    }
+}
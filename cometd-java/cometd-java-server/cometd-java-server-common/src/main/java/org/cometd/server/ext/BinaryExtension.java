@@ -23,11 +23,16 @@ import org.cometd.bayeux.server.BayeuxServer;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.common.Z85;
+import org.cometd.server.ServerSessionImpl;
 
 /**
  * <p>A server extension that encodes {@code byte[]} or {@link ByteBuffer} into a {@link BinaryData}
  * object using the {@link Z85} format for outgoing messages, and decodes {@link BinaryData}
  * objects back into {@code byte[]} or {@link ByteBuffer} for incoming messages.</p>
+ * <p>Messages sent to a single session that {@link ServerSessionImpl#isBinary() receives messages
+ * in a binary format} carry the binary data natively, skipping the {@link Z85} encoding.
+ * Broadcast messages are encoded only once for all recipients, and therefore always use
+ * the {@link Z85} encoding; use {@link BinarySessionExtension} to send them natively.</p>
  *
  * @see BinarySessionExtension
  */
@@ -50,10 +55,16 @@ public class BinaryExtension implements BayeuxServer.Extension {
                 Map<String, Object> data = message.getDataAsMap();
                 BinaryData newData = new BinaryData(data);
                 message.setData(newData);
-                String encoded = (String)data.get(BinaryData.DATA);
-                Object decoded = decodeToByteBuffer ?
-                        Z85.decoder.decodeByteBuffer(encoded) :
-                        Z85.decoder.decodeBytes(encoded);
+                Object encoded = data.get(BinaryData.DATA);
+                Object decoded;
+                if (encoded instanceof String) {
+                    decoded = decodeToByteBuffer ?
+                            Z85.decoder.decodeByteBuffer((String)encoded) :
+                            Z85.decoder.decodeBytes((String)encoded);
+                } else {
+                    // Received natively, for example via a binary WebSocket subprotocol.
+                    decoded = decodeToByteBuffer ? newData.asByteBuffer() : newData.asBytes();
+                }
                 newData.put(BinaryData.DATA, decoded);
             }
         }
@@ -66,11 +77,14 @@ public class BinaryExtension implements BayeuxServer.Extension {
         if (data instanceof BinaryData) {
             BinaryData binaryData = (BinaryData)data;
             Object binary = binaryData.get(BinaryData.DATA);
-            String encoded;
+            boolean encode = !isBinary(to);
+            Object encoded;
             if (binary instanceof byte[]) {
-                encoded = Z85.encoder.encodeBytes(binaryData.asBytes());
+                byte[] bytes = binaryData.asBytes();
+                encoded = encode ? Z85.encoder.encodeBytes(bytes) : bytes;
             } else if (binary instanceof ByteBuffer) {
-                encoded = Z85.encoder.encodeByteBuffer(binaryData.asByteBuffer());
+                ByteBuffer buffer = binaryData.asByteBuffer();
+                encoded = encode ? Z85.encoder.encodeByteBuffer(buffer) : buffer;
             } else {
                 throw new IllegalArgumentException("Cannot Z85 encode " + binary);
             }
@@ -82,4 +96,8 @@ public class BinaryExtension implements BayeuxServer.Extension {
         }
         return true;
     }
+
+    private boolean isBinary(ServerSession session) {
+        return session instanceof ServerSessionImpl && ((ServerSessionImpl)session).isBinary();
+    }
 }
@@ -23,9 +23,12 @@ import org.cometd.bayeux.server.BayeuxServer;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.common.Z85;
+import org.cometd.server.ServerSessionImpl;
 
 /**
  * <p>An extension that encodes/decodes binary data for a {@link ServerSession}.</p>
+ * <p>When the session {@link ServerSessionImpl#isBinary() receives messages in a binary format}
+ * the binary data is sent natively, skipping the {@link Z85} encoding.</p>
  *
  * @see BinaryExtension
  */
@@ -50,10 +53,16 @@ public class BinarySessionExtension implements ServerSession.Extension {
                 Map<String, Object> data = message.getDataAsMap();
                 BinaryData newData = new BinaryData(data);
                 message.setData(newData);
-                String encoded = (String)data.get(BinaryData.DATA);
-                Object decoded = decodeToByteBuffer ?
-                        Z85.decoder.decodeByteBuffer(encoded) :
-                        Z85.decoder.decodeBytes(encoded);
+                Object encoded = data.get(BinaryData.DATA);
+                Object decoded;
+                if (encoded instanceof String) {
+                    decoded = decodeToByteBuffer ?
+                            Z85.decoder.decodeByteBuffer((String)encoded) :
+                            Z85.decoder.decodeBytes((String)encoded);
+                } else {
+                    // Received natively, for example via a binary WebSocket subprotocol.
+                    decoded = decodeToByteBuffer ? newData.asByteBuffer() : newData.asBytes();
+                }
                 newData.put(BinaryData.DATA, decoded);
             }
         }
@@ -68,11 +77,14 @@ public class BinarySessionExtension implements ServerSession.Extension {
             result.putAll(message);
             BinaryData binaryData = (BinaryData)data;
             Object binary = binaryData.get(BinaryData.DATA);
-            String encoded;
+            boolean encode = !isBinary(session);
+            Object encoded;
             if (binary instanceof byte[]) {
-                encoded = Z85.encoder.encodeBytes(binaryData.asBytes());
+                byte[] bytes = binaryData.asBytes();
+                encoded = encode ? Z85.encoder.encodeBytes(bytes) : bytes;
             } else if (binary instanceof ByteBuffer) {
-                encoded = Z85.encoder.encodeByteBuffer(binaryData.asByteBuffer());
+                ByteBuffer buffer = binaryData.asByteBuffer();
+                encoded = encode ? Z85.encoder.encodeByteBuffer(buffer) : buffer;
             } else {
                 throw new IllegalArgumentException("Cannot Z85 encode " + binary);
             }
@@ -86,4 +98,8 @@ public class BinarySessionExtension implements ServerSession.Extension {
             return message;
         }
     }
+
+    private boolean isBinary(ServerSession session) {
+        return session instanceof ServerSessionImpl && ((ServerSessionImpl)session).isBinary();
+    }
 }
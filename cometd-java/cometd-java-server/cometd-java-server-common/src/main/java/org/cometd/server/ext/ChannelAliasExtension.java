@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.util.Map;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Installing this extension in a {@link BayeuxServer} provides support for
+ * channel aliases if a client also supports them.</p>
+ * <p>Channel aliases are short strings that replace the channel name of the
+ * messages delivered to a session, so that high frequency messages on channels
+ * with long names take less bytes on the network.</p>
+ * <p>The main role of this extension is to install the
+ * {@link ChannelAliasSessionExtension} on the {@link ServerSession}
+ * instances created during successful handshakes.</p>
+ */
+public class ChannelAliasExtension implements BayeuxServer.Extension {
+    public static final String ALIAS_FIELD = "alias";
+
+    private static final Logger _logger = LoggerFactory.getLogger(ChannelAliasExtension.class);
+
+    private final int maxAliases;
+
+    public ChannelAliasExtension() {
+        this(256);
+    }
+
+    /**
+     * @param maxAliases the max number of channel aliases per session
+     */
+    public ChannelAliasExtension(int maxAliases) {
+        this.maxAliases = maxAliases;
+    }
+
+    @Override
+    public boolean rcvMeta(ServerSession remote, ServerMessage.Mutable message) {
+        if (Channel.META_HANDSHAKE.equals(message.getChannel())) {
+            Map<String, Object> ext = message.getExt();
+            boolean clientRequestedAliases = ext != null && ext.get(ALIAS_FIELD) == Boolean.TRUE;
+            if (clientRequestedAliases && remote != null) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Enabled channel aliases for {}", remote);
+                }
+                remote.addExtension(newSessionExtension(remote));
+            }
+        }
+        return true;
+    }
+
+    protected ChannelAliasSessionExtension newSessionExtension(ServerSession session) {
+        return new ChannelAliasSessionExtension(session, maxAliases);
+    }
+}
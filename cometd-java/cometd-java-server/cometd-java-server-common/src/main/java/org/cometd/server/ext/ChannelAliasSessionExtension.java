@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.ServerSessionImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Assigns channel aliases to the channels a session subscribes to,
+ * and replaces the channel name of the messages delivered to the
+ * session with the correspondent alias.</p>
+ * <p>Aliases are assigned when the subscription is successful, and are
+ * sent to the client in the {@code /meta/subscribe} reply.
+ * Until the client confirms, in a {@code /meta/connect} message, that it
+ * knows an alias, messages keep the full channel name and carry the alias
+ * definition, so that the alias is never used before the client knows it,
+ * even if messages are reordered or lost.</p>
+ * <p>Wildcard subscriptions and messages that are not delivered via
+ * subscriptions are not aliased.</p>
+ * <p>Aliased messages are copied for each session, so that their JSON
+ * representation is not shared among sessions anymore.</p>
+ */
+public class ChannelAliasSessionExtension implements ServerSession.Extension {
+    private static final Logger _logger = LoggerFactory.getLogger(ChannelAliasSessionExtension.class);
+
+    private final Map<String, Alias> _aliases = new ConcurrentHashMap<>();
+    private final Map<Integer, Alias> _ids = new ConcurrentHashMap<>();
+    private final AtomicInteger _idGenerator = new AtomicInteger();
+    private final ServerSessionImpl _session;
+    private final int _maxAliases;
+
+    public ChannelAliasSessionExtension(ServerSession session, int maxAliases) {
+        _session = (ServerSessionImpl)session;
+        _maxAliases = maxAliases;
+    }
+
+    @Override
+    public boolean rcvMeta(ServerSession session, ServerMessage.Mutable message) {
+        if (Channel.META_CONNECT.equals(message.getChannel())) {
+            Map<String, Object> ext = message.getExt();
+            if (ext != null) {
+                Object field = ext.get(ChannelAliasExtension.ALIAS_FIELD);
+                if (field instanceof Collection) {
+                    confirm((Collection<?>)field);
+                } else if (field instanceof Object[]) {
+                    confirm(Arrays.asList((Object[])field));
+                }
+            }
+        }
+        return true;
+    }
+
+    private void confirm(Collection<?> ids) {
+        for (Object id : ids) {
+            if (id instanceof Number) {
+                Alias alias = _ids.get(((Number)id).intValue());
+                if (alias != null) {
+                    if (_logger.isDebugEnabled()) {
+                        _logger.debug("Confirmed {} for {}", alias, _session);
+                    }
+                    alias.confirmed = true;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean sendMeta(ServerSession sender, ServerSession session, ServerMessage.Mutable message) {
+        String channel = message.getChannel();
+        if (Channel.META_HANDSHAKE.equals(channel)) {
+            message.getExt(true).put(ChannelAliasExtension.ALIAS_FIELD, Boolean.TRUE);
+        } else if (Channel.META_SUBSCRIBE.equals(channel) && message.isSuccessful()) {
+            Map<String, Object> aliases = new HashMap<>();
+            Object subscription = message.get(Message.SUBSCRIPTION_FIELD);
+            if (subscription instanceof String) {
+                assign((String)subscription, aliases);
+            } else if (subscription instanceof Object[]) {
+                for (Object item : (Object[])subscription) {
+                    assign((String)item, aliases);
+                }
+            } else if (subscription instanceof Collection) {
+                for (Object item : (Collection<?>)subscription) {
+                    assign((String)item, aliases);
+                }
+            }
+            if (!aliases.isEmpty()) {
+                message.getExt(true).put(ChannelAliasExtension.ALIAS_FIELD, aliases);
+            }
+        }
+        return true;
+    }
+
+    private void assign(String channel, Map<String, Object> aliases) {
+        if (channel == null || ChannelId.isMeta(channel) || ChannelId.isService(channel) || new ChannelId(channel).isWild()) {
+            return;
+        }
+        Alias alias = _aliases.get(channel);
+        if (alias == null) {
+            synchronized (_aliases) {
+                alias = _aliases.get(channel);
+                if (alias == null) {
+                    if (_aliases.size() >= _maxAliases) {
+                        return;
+                    }
+                    alias = new Alias(_idGenerator.getAndIncrement());
+                    _ids.put(alias.id, alias);
+                    _aliases.put(channel, alias);
+                    if (_logger.isDebugEnabled()) {
+                        _logger.debug("Assigned {} to {} for {}", alias, channel, _session);
+                    }
+                }
+            }
+        }
+        if (!alias.confirmed) {
+            aliases.put(channel, alias.id);
+        }
+    }
+
+    @Override
+    public ServerMessage send(ServerSession sender, ServerSession session, ServerMessage message) {
+        if (message.isPublishReply()) {
+            return message;
+        }
+        String channel = message.getChannel();
+        Alias alias = channel == null ? null : _aliases.get(channel);
+        if (alias == null) {
+            return message;
+        }
+        ServerMessage.Mutable result = _session.getBayeuxServer().newMessage(message);
+        if (alias.confirmed) {
+            result.setChannel(alias.name);
+        } else {
+            // Define the alias until the client confirms it.
+            Map<String, Object> ext = message.getExt();
+            Map<String, Object> newExt = ext == null ? new HashMap<>(1) : new HashMap<>(ext);
+            newExt.put(ChannelAliasExtension.ALIAS_FIELD, alias.id);
+            result.put(Message.EXT_FIELD, newExt);
+        }
+        return result;
+    }
+
+    private static class Alias {
+        private final int id;
+        private final String name;
+        private volatile boolean confirmed;
+
+        private Alias(int id) {
+            this.id = id;
+            this.name = String.valueOf(id);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s@%x[%d,confirmed=%b]", getClass().getSimpleName(), hashCode(), id, confirmed);
+        }
+    }
+}
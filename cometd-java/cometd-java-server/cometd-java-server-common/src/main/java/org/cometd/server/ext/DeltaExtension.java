@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.util.Map;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Installing this extension in a {@link BayeuxServer} provides support for
+ * delta encoding of message data if a client also supports it.</p>
+ * <p>With delta encoding, the data of a message delivered to a session is
+ * replaced by the difference with the data of the previous message delivered
+ * to the same session on the same channel, so that channels that publish
+ * objects where only few fields change take less bytes on the network.</p>
+ * <p>The main role of this extension is to install the
+ * {@link DeltaSessionExtension} on the {@link ServerSession}
+ * instances created during successful handshakes.</p>
+ */
+public class DeltaExtension implements BayeuxServer.Extension {
+    public static final String DELTA_FIELD = "delta";
+
+    private static final Logger _logger = LoggerFactory.getLogger(DeltaExtension.class);
+
+    private final int snapshotInterval;
+
+    public DeltaExtension() {
+        this(64);
+    }
+
+    /**
+     * @param snapshotInterval the max number of deltas sent on a channel before a full snapshot
+     */
+    public DeltaExtension(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    @Override
+    public boolean rcvMeta(ServerSession remote, ServerMessage.Mutable message) {
+        if (Channel.META_HANDSHAKE.equals(message.getChannel())) {
+            Map<String, Object> ext = message.getExt();
+            boolean clientRequestedDeltas = ext != null && ext.get(DELTA_FIELD) == Boolean.TRUE;
+            if (clientRequestedDeltas && remote != null) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Enabled delta encoding for {}", remote);
+                }
+                remote.addExtension(newSessionExtension(remote));
+            }
+        }
+        return true;
+    }
+
+    protected DeltaSessionExtension newSessionExtension(ServerSession session) {
+        return new DeltaSessionExtension(session, snapshotInterval);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.common.JSONContext;
+import org.cometd.common.JSONMergePatch;
+import org.cometd.server.ServerSessionImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Replaces the data of the messages delivered to a session with a
+ * {@link JSONMergePatch JSON merge patch} against the data of the previous
+ * message delivered to the session on the same channel.</p>
+ * <p>Each message carries a per-channel sequence number in the
+ * {@code ext.delta.seq} field; delta messages also carry, in the
+ * {@code ext.delta.base} field, the sequence number of the message
+ * they must be applied to, while snapshot messages carry the full data.</p>
+ * <p>A snapshot is sent for the first message on a channel, every
+ * {@code snapshotInterval} deltas, when the JSON of the delta would not
+ * be smaller than the JSON of the data, and when the client detects a gap in the sequence and
+ * asks for a resync in a {@code /meta/connect} message.</p>
+ * <p>Only data that is a JSON object is delta encoded.
+ * Delta encoded messages are copied for each session, so that their JSON
+ * representation is not shared among sessions anymore.</p>
+ */
+public class DeltaSessionExtension implements ServerSession.Extension {
+    public static final String SEQ_FIELD = "seq";
+    public static final String BASE_FIELD = "base";
+
+    private static final Logger _logger = LoggerFactory.getLogger(DeltaSessionExtension.class);
+
+    private final Map<String, State> _states = new ConcurrentHashMap<>();
+    private final ServerSessionImpl _session;
+    private final int _snapshotInterval;
+
+    public DeltaSessionExtension(ServerSession session, int snapshotInterval) {
+        _session = (ServerSessionImpl)session;
+        _snapshotInterval = snapshotInterval;
+    }
+
+    @Override
+    public boolean rcvMeta(ServerSession session, ServerMessage.Mutable message) {
+        if (Channel.META_CONNECT.equals(message.getChannel())) {
+            Map<String, Object> ext = message.getExt();
+            if (ext != null) {
+                Object field = ext.get(DeltaExtension.DELTA_FIELD);
+                if (field instanceof Collection) {
+                    resync((Collection<?>)field);
+                } else if (field instanceof Object[]) {
+                    resync(Arrays.asList((Object[])field));
+                }
+            }
+        }
+        return true;
+    }
+
+    private void resync(Collection<?> channels) {
+        for (Object channel : channels) {
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Resync of {} for {}", channel, _session);
+            }
+            // The next message on the channel will be a snapshot.
+            _states.remove(String.valueOf(channel));
+        }
+    }
+
+    @Override
+    public boolean sendMeta(ServerSession sender, ServerSession session, ServerMessage.Mutable message) {
+        String channel = message.getChannel();
+        if (Channel.META_HANDSHAKE.equals(channel)) {
+            message.getExt(true).put(DeltaExtension.DELTA_FIELD, Boolean.TRUE);
+        } else if (Channel.META_UNSUBSCRIBE.equals(channel) && message.isSuccessful()) {
+            Object subscription = message.get(Message.SUBSCRIPTION_FIELD);
+            if (subscription instanceof String) {
+                _states.remove(subscription);
+            } else if (subscription instanceof Object[]) {
+                for (Object item : (Object[])subscription) {
+                    _states.remove(String.valueOf(item));
+                }
+            } else if (subscription instanceof Collection) {
+                for (Object item : (Collection<?>)subscription) {
+                    _states.remove(String.valueOf(item));
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ServerMessage send(ServerSession sender, ServerSession session, ServerMessage message) {
+        String channel = message.getChannel();
+        if (channel == null || message.isPublishReply()) {
+            return message;
+        }
+        Object data = message.getData();
+        if (!(data instanceof Map)) {
+            _states.remove(channel);
+            return message;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> newData = (Map<String, Object>)data;
+
+        ServerMessage.Mutable result = _session.getBayeuxServer().newMessage(message);
+        Map<String, Object> ext = message.getExt();
+        Map<String, Object> newExt = ext == null ? new HashMap<>(1) : new HashMap<>(ext);
+        Map<String, Object> delta = new HashMap<>(2);
+        newExt.put(DeltaExtension.DELTA_FIELD, delta);
+        result.put(Message.EXT_FIELD, newExt);
+
+        State state = _states.computeIfAbsent(channel, key -> new State());
+        synchronized (state) {
+            long seq = ++state.seq;
+            delta.put(SEQ_FIELD, seq);
+            Map<String, Object> patch = null;
+            if (state.data != null && state.deltas < _snapshotInterval) {
+                patch = JSONMergePatch.diff(state.data, newData);
+            }
+            if (patch != null && isSmaller(patch, newData)) {
+                ++state.deltas;
+                delta.put(BASE_FIELD, seq - 1);
+                result.setData(patch);
+            } else {
+                state.deltas = 0;
+            }
+            state.data = newData;
+        }
+        return result;
+    }
+
+    private boolean isSmaller(Map<String, Object> patch, Map<String, Object> data) {
+        // Compare the JSON sizes, as a patch with few fields
+        // may carry large values, or many removed nested fields.
+        JSONContext.Generator generator = _session.getBayeuxServer().getJSONContext().getGenerator();
+        return generator.generate(patch).length() < generator.generate(data).length();
+    }
+
+    private static class State {
+        private long seq;
+        private int deltas;
+        private Map<String, Object> data;
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerMessageImpl;
+import org.cometd.server.ServerSessionImpl;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>An {@link AcknowledgedMessagesStore} that keeps the JSON bytes of the
+ * unacknowledged messages in an append-only file, memory-mapped in segments,
+ * so that only a small index of batch numbers and file offsets is kept on
+ * heap, and messages are parsed back only when they are sent.</p>
+ * <p>The file starts with a header that records the current batch number
+ * and the region of the file that holds the unacknowledged messages,
+ * followed by records made of the batch number, the length and the JSON
+ * bytes of a message.</p>
+ * <p>When all the messages are acknowledged, the file is reused from the
+ * beginning; when the acknowledged records at the beginning of the file are
+ * at least one segment and larger than the unacknowledged ones, the
+ * unacknowledged records are copied to a new file that atomically replaces
+ * the current one, so that the file does not grow under steady traffic.</p>
+ * <p>When a store is created for a file that already exists, for example
+ * after a restart, the batch number and the unacknowledged messages are
+ * recovered from the file, so that they can be delivered to a session that
+ * uses the same file.
+ * Records are flushed to disk by the operating system, so they survive a
+ * process crash but not necessarily an operating system crash.</p>
+ * <p>The file is deleted when the session is removed, and kept when the
+ * store is {@link #release() released}, for example when the server stops.</p>
+ */
+public class FileAcknowledgedMessagesStore implements AcknowledgedMessagesStore {
+    private static final Logger _logger = LoggerFactory.getLogger(FileAcknowledgedMessagesStore.class);
+    private static final int BATCH_OFFSET = 0;
+    private static final int START_OFFSET = BATCH_OFFSET + Long.BYTES;
+    private static final int END_OFFSET = START_OFFSET + Long.BYTES;
+    private static final int HEADER_SIZE = END_OFFSET + Long.BYTES;
+    private static final int RECORD_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+
+    private final Deque<Entry> _entries = new ArrayDeque<>();
+    private final Path _file;
+    private final BayeuxServerImpl _bayeux;
+    private final int _segmentSize;
+    private FileChannel _channel;
+    private MappedByteBuffer _header;
+    private MappedByteBuffer _segment;
+    private long _end;
+    private long _batch;
+
+    public FileAcknowledgedMessagesStore(Path file, BayeuxServerImpl bayeux) throws IOException {
+        this(file, bayeux, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param file        the file that stores the messages
+     * @param bayeux      the BayeuxServer, used to generate and parse the JSON of messages
+     * @param segmentSize the size of the memory-mapped segments of the file
+     * @throws IOException if the file cannot be opened or recovered
+     */
+    public FileAcknowledgedMessagesStore(Path file, BayeuxServerImpl bayeux, int segmentSize) throws IOException {
+        _file = file;
+        _bayeux = bayeux;
+        _segmentSize = segmentSize;
+        _channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean recover = _channel.size() >= HEADER_SIZE;
+        _header = _channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if (recover) {
+            recover();
+        } else {
+            _batch = 1;
+            _header.putLong(BATCH_OFFSET, _batch);
+            reset();
+        }
+    }
+
+    private void recover() {
+        _batch = _header.getLong(BATCH_OFFSET);
+        long start = _header.getLong(START_OFFSET);
+        _end = _header.getLong(END_OFFSET);
+        if (_end > start) {
+            try {
+                // Recovered records stay in their own segment,
+                // new records are written in new segments.
+                MappedByteBuffer segment = _channel.map(FileChannel.MapMode.READ_WRITE, start, _end - start);
+                int position = 0;
+                while (position < segment.capacity()) {
+                    long batch = segment.getLong(position);
+                    int length = segment.getInt(position + Long.BYTES);
+                    _entries.add(new Entry(batch, start + position, segment, position + RECORD_HEADER_SIZE, length));
+                    position += RECORD_HEADER_SIZE + length;
+                }
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+        }
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Recovered {} messages at batch {} from {}", _entries.size(), _batch, _file);
+        }
+    }
+
+    @Override
+    public long getBatch() {
+        return _batch;
+    }
+
+    @Override
+    public void nextBatch() {
+        ++_batch;
+        _header.putLong(BATCH_OFFSET, _batch);
+    }
+
+    @Override
+    public boolean offer(ServerMessage message) {
+        byte[] json = toJSONBytes(message);
+        int length = RECORD_HEADER_SIZE + json.length;
+        try {
+            if (_segment == null || _segment.remaining() < length) {
+                // Map the next segment where the records end, so that
+                // records are contiguous; records larger than a segment
+                // have a segment of their own.
+                _segment = _channel.map(FileChannel.MapMode.READ_WRITE, _end, Math.max(_segmentSize, length));
+            }
+            int position = _segment.position();
+            _segment.putLong(_batch);
+            _segment.putInt(json.length);
+            _segment.put(json);
+            _entries.add(new Entry(_batch, _end, _segment, position + RECORD_HEADER_SIZE, json.length));
+            // Update the header after the record has been written.
+            _end += length;
+            _header.putLong(END_OFFSET, _end);
+            return true;
+        } catch (IOException x) {
+            _logger.info("Could not store message in " + _file, x);
+            return false;
+        }
+    }
+
+    private byte[] toJSONBytes(ServerMessage message) {
+        // Messages are frozen before being queued, so their bytes are known.
+        if (message instanceof ServerMessageImpl) {
+            byte[] json = ((ServerMessageImpl)message).getJSONBytes();
+            if (json != null) {
+                return json;
+            }
+        }
+        ServerMessage.Mutable mutable = message instanceof ServerMessage.Mutable ? (ServerMessage.Mutable)message : _bayeux.newMessage(message);
+        return _bayeux.getJSONContext().generate(mutable).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void clearToBatch(long batch) {
+        while (!_entries.isEmpty() && _entries.peekFirst().batch <= batch) {
+            _entries.pollFirst();
+        }
+        if (_entries.isEmpty()) {
+            reset();
+        } else {
+            long start = _entries.peekFirst().offset;
+            _header.putLong(START_OFFSET, start);
+            long acknowledged = start - HEADER_SIZE;
+            long unacknowledged = _end - start;
+            if (acknowledged >= _segmentSize && acknowledged >= unacknowledged && unacknowledged <= Integer.MAX_VALUE) {
+                compact(start);
+            }
+        }
+    }
+
+    private void reset() {
+        // Reuse the file from the beginning.
+        _segment = null;
+        _end = HEADER_SIZE;
+        _header.putLong(START_OFFSET, _end);
+        _header.putLong(END_OFFSET, _end);
+    }
+
+    private void compact(long start) {
+        long length = _end - start;
+        Path compacted = _file.resolveSibling(_file.getFileName() + ".tmp");
+        try {
+            // Write the unacknowledged records to a new file, then replace
+            // the current file atomically, so that a crash leaves either one.
+            try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                header.putLong(BATCH_OFFSET, _batch);
+                header.putLong(START_OFFSET, HEADER_SIZE);
+                header.putLong(END_OFFSET, HEADER_SIZE + length);
+                long position = 0;
+                while (position < length) {
+                    position += _channel.transferTo(start + position, length - position, channel.position(HEADER_SIZE + position));
+                }
+            }
+            Files.move(compacted, _file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException x) {
+            _logger.info("Could not compact " + _file, x);
+            try {
+                Files.deleteIfExists(compacted);
+            } catch (IOException ignored) {
+                // The file is truncated by the next compaction.
+            }
+            return;
+        }
+
+        try {
+            _channel.close();
+        } catch (IOException x) {
+            _logger.trace("Could not close " + _file, x);
+        }
+        try {
+            _channel = FileChannel.open(_file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            _header = _channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            // The records stay in their own segment,
+            // new records are written in new segments.
+            MappedByteBuffer segment = _channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, length);
+            int count = _entries.size();
+            for (int i = 0; i < count; ++i) {
+                Entry entry = _entries.pollFirst();
+                int position = (int)(entry.offset - start);
+                _entries.addLast(new Entry(entry.batch, HEADER_SIZE + position, segment, position + RECORD_HEADER_SIZE, entry.length));
+            }
+            _segment = null;
+            _end = HEADER_SIZE + length;
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Compacted {} messages in {}", count, _file);
+            }
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    @Override
+    public void exportMessagesToBatch(Queue<ServerMessage> target, long batch) {
+        for (Entry entry : _entries) {
+            if (entry.batch > batch) {
+                break;
+            }
+            try {
+                // Keep the message frozen with the stored bytes,
+                // so that it is not generated again when sent.
+                target.offer(_bayeux.parseFrozen(entry.bytes()));
+            } catch (ParseException x) {
+                _logger.info("Could not load message from " + _file, x);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return _entries.size();
+    }
+
+    /**
+     * <p>Releases the resources of this store, but keeps its file,
+     * so that its messages can be recovered by a new store.</p>
+     */
+    public void release() {
+        _entries.clear();
+        _segment = null;
+        try {
+            _channel.close();
+        } catch (IOException x) {
+            _logger.info("Could not close " + _file, x);
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+        try {
+            Files.deleteIfExists(_file);
+        } catch (IOException x) {
+            _logger.info("Could not delete " + _file, x);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x[batch=%d,messages=%d,file=%s]", getClass().getSimpleName(), hashCode(), _batch, _entries.size(), _file);
+    }
+
+    private static class Entry {
+        private final long batch;
+        private final long offset;
+        private final MappedByteBuffer segment;
+        private final int position;
+        private final int length;
+
+        private Entry(long batch, long offset, MappedByteBuffer segment, int position, int length) {
+            this.batch = batch;
+            this.offset = offset;
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+        }
+
+        private byte[] bytes() {
+            ByteBuffer buffer = segment.duplicate();
+            buffer.position(position);
+            byte[] result = new byte[length];
+            buffer.get(result);
+            return result;
+        }
+    }
+
+    /**
+     * <p>Creates a {@link FileAcknowledgedMessagesStore} for each session,
+     * with a file named after the session in the given directory.</p>
+     * <p>When the {@link BayeuxServerImpl} stops, the stores are
+     * {@link #release() released} and their files are kept.
+     * Sessions get a new id after a restart, so the files are recovered
+     * only if {@link #fileName(ServerSession)} returns the same name for
+     * a session that resumes a previous one; the files that are not
+     * recovered can be deleted with {@link #deleteOrphanFiles()}.</p>
+     */
+    public static class Factory implements AcknowledgedMessagesStore.Factory {
+        private final Map<FileAcknowledgedMessagesStore, ServerSessionImpl> stores = new ConcurrentHashMap<>();
+        private final Set<BayeuxServerImpl> servers = ConcurrentHashMap.newKeySet();
+        private final Path directory;
+
+        public Factory(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public AcknowledgedMessagesStore newStore(ServerSession session) {
+            ServerSessionImpl serverSession = (ServerSessionImpl)session;
+            BayeuxServerImpl bayeux = serverSession.getBayeuxServer();
+            if (servers.add(bayeux)) {
+                // Sessions are not removed when the server stops.
+                bayeux.addLifeCycleListener(new AbstractLifeCycle.AbstractLifeCycleListener() {
+                    @Override
+                    public void lifeCycleStopped(LifeCycle event) {
+                        bayeux.removeLifeCycleListener(this);
+                        servers.remove(bayeux);
+                        release(bayeux);
+                    }
+                });
+            }
+            try {
+                FileAcknowledgedMessagesStore store = new FileAcknowledgedMessagesStore(directory.resolve(fileName(session)), bayeux) {
+                    @Override
+                    public void release() {
+                        stores.remove(this);
+                        super.release();
+                    }
+                };
+                stores.put(store, serverSession);
+                return store;
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+        }
+
+        private void release(BayeuxServerImpl bayeux) {
+            stores.forEach((store, session) -> {
+                if (session.getBayeuxServer() == bayeux) {
+                    synchronized (session.getLock()) {
+                        store.release();
+                    }
+                }
+            });
+        }
+
+        /**
+         * <p>Returns the name of the file of the given session.</p>
+         * <p>The default name is derived from the session id, which changes
+         * after a restart, so the messages of a previous run are not recovered.
+         * Applications that resume sessions across restarts may override
+         * this method to return the same name for the resumed session, so
+         * that its unacknowledged messages are recovered.</p>
+         *
+         * @param session the session
+         * @return the name of the file of the session
+         * @see #isStoreFile(Path)
+         */
+        protected String fileName(ServerSession session) {
+            return session.getId() + ".ack";
+        }
+
+        /**
+         * @param file a file in the directory of this factory
+         * @return whether the file is named by {@link #fileName(ServerSession)}
+         */
+        protected boolean isStoreFile(Path file) {
+            return file.getFileName().toString().endsWith(".ack");
+        }
+
+        /**
+         * <p>Deletes the files in the directory that are not used by a store
+         * of this factory, typically left by a previous run.</p>
+         * <p>Applications that resume sessions across restarts should call
+         * this method once the sessions have had a chance to be resumed.</p>
+         *
+         * @return the number of files deleted
+         * @throws IOException if the directory cannot be listed
+         */
+        public int deleteOrphanFiles() throws IOException {
+            Set<Path> used = new HashSet<>();
+            for (FileAcknowledgedMessagesStore store : stores.keySet()) {
+                used.add(store._file.toAbsolutePath());
+            }
+            int result = 0;
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>)files::iterator) {
+                    if (isStoreFile(file) && !used.contains(file.toAbsolutePath())) {
+                        try {
+                            if (Files.deleteIfExists(file)) {
+                                ++result;
+                            }
+                        } catch (IOException x) {
+                            _logger.info("Could not delete " + file, x);
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -565,6 +565,11 @@ public abstract class AbstractHttpTransport extends AbstractServerTransport {
         _lastSweep = now;
     }
 
+    @Override
+    protected boolean isWriteBytes() {
+        return true;
+    }
+
     protected byte[] toJSONBytes(ServerMessage msg) {
         ServerMessageImpl message = (ServerMessageImpl)(msg instanceof ServerMessageImpl ? msg : getBayeux().newMessage(msg));
         byte[] bytes = message.getJSONBytes();
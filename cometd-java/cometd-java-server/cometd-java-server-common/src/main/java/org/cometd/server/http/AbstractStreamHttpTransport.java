@@ -219,7 +219,7 @@ public abstract class AbstractStreamHttpTransport extends AbstractHttpTransport
     }
 
     protected void writeMessage(HttpServletResponse response, ServletOutputStream output, ServerSessionImpl session, ServerMessage message) throws IOException {
-        output.write(toJSONBytes(message));
+        writeJSON(message, output);
     }
 
     protected abstract ServletOutputStream beginWrite(HttpServletRequest request, HttpServletResponse response) throws IOException;
@@ -36,6 +36,8 @@ import org.cometd.common.BufferingJSONAsyncParser;
 import org.cometd.common.JSONContext;
 import org.cometd.server.BayeuxServerImpl;
 import org.cometd.server.JSONContextServer;
+import org.cometd.server.ServerMessageImpl;
+import org.eclipse.jetty.util.ByteArrayOutputStream2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -304,6 +306,7 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
         private int replyIndex;
         private boolean needsComma;
         private State state = State.BEGIN;
+        private ByteArrayOutputStream2 buffer;
 
         protected Writer(Context context, List<ServerMessage> messages, Promise<Void> promise) {
             this.context = context;
@@ -383,7 +386,7 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
                         reply.put("x-messages", messages.size());
                     }
                     getBayeux().freeze(reply);
-                    output.write(toJSONBytes(reply));
+                    writeMessage(output, reply);
                     needsComma = true;
                     ++replyIndex;
                 }
@@ -406,7 +409,7 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
                             needsComma = false;
                         } else {
                             ServerMessage message = messages.get(messageIndex);
-                            output.write(toJSONBytes(message));
+                            writeMessage(output, message);
                             needsComma = messageIndex < size;
                             ++messageIndex;
                         }
@@ -440,7 +443,7 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
                         needsComma = false;
                     } else {
                         getBayeux().freeze(reply);
-                        output.write(toJSONBytes(reply));
+                        writeMessage(output, reply);
                         needsComma = replyIndex < size;
                         ++replyIndex;
                     }
@@ -449,6 +452,24 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
             return false;
         }
 
+        private void writeMessage(ServletOutputStream output, ServerMessage message) throws IOException {
+            byte[] bytes = message instanceof ServerMessageImpl ? ((ServerMessageImpl)message).getJSONBytes() : null;
+            if (bytes == null) {
+                // A non-blocking write must write the whole message at once,
+                // so generate it in a buffer that is reused for all messages.
+                // The buffer can be reused because the next write is only
+                // performed when the previous write is complete.
+                if (buffer == null) {
+                    buffer = new ByteArrayOutputStream2(BUFFER_CAPACITY);
+                }
+                buffer.reset();
+                writeJSON(message, buffer);
+                output.write(buffer.getBuf(), 0, buffer.getCount());
+            } else {
+                output.write(bytes);
+            }
+        }
+
         private boolean writeEnd(ServletOutputStream output) throws IOException {
             output.write(']');
             return output.isReady();
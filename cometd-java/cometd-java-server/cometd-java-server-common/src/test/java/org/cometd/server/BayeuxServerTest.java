@@ -15,6 +15,7 @@
  */
 package org.cometd.server;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
@@ -30,6 +31,8 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
 public class BayeuxServerTest {
     private final Queue<Object> _events = new ConcurrentLinkedQueue<>();
@@ -237,6 +240,34 @@ public class BayeuxServerTest {
         Assertions.assertFalse(ss2.isConnected());
     }
 
+    @ParameterizedTest
+    @ValueSource(strings = {"auto", "string", "bytes"})
+    public void testFreezeEncoding(String encoding) throws Exception {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.setOption(BayeuxServerImpl.FREEZE_ENCODING_OPTION, encoding);
+        bayeux.start();
+        try {
+            ServerMessageImpl message = (ServerMessageImpl)bayeux.newMessage();
+            message.setChannel("/freeze");
+            message.setData("\u20AC");
+            bayeux.freeze(message);
+
+            // Either encoding is available, whichever is stored.
+            String json = message.getJSON();
+            Assertions.assertTrue(json.contains("\u20AC"));
+            Assertions.assertArrayEquals(json.getBytes(StandardCharsets.UTF_8), message.getJSONBytes());
+        } finally {
+            bayeux.stop();
+        }
+    }
+
+    @Test
+    public void testInvalidFreezeEncoding() {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.setOption(BayeuxServerImpl.FREEZE_ENCODING_OPTION, "utf16");
+        Assertions.assertThrows(IllegalArgumentException.class, bayeux::start);
+    }
+
     class CListener implements BayeuxServer.ChannelListener {
         @Override
         public void configureChannel(ConfigurableServerChannel channel) {
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.ServerMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class CompactServerMessageTest {
+    @Test
+    public void testBehavesLikeHashMap() {
+        CompactServerMessage message = new CompactServerMessage();
+        Map<String, Object> expected = new HashMap<>();
+        Assertions.assertTrue(message.isEmpty());
+
+        put(message, expected, Message.CHANNEL_FIELD, "/foo");
+        put(message, expected, Message.ID_FIELD, "1");
+        put(message, expected, "custom", 42);
+        put(message, expected, Message.ERROR_FIELD, null);
+        assertSame(expected, message);
+        Assertions.assertEquals("/foo", message.getChannel());
+        Assertions.assertEquals("1", message.getId());
+        Assertions.assertTrue(message.containsKey(Message.ERROR_FIELD));
+        Assertions.assertNull(message.get(Message.ERROR_FIELD));
+        Assertions.assertFalse(message.containsKey(Message.CLIENT_ID_FIELD));
+        Assertions.assertTrue(message.containsValue(42));
+        Assertions.assertTrue(message.containsValue("/foo"));
+
+        Assertions.assertEquals("1", message.remove(Message.ID_FIELD));
+        expected.remove(Message.ID_FIELD);
+        Assertions.assertEquals("x", message.getOrDefault(Message.ID_FIELD, "x"));
+        assertSame(expected, message);
+
+        message.computeIfAbsent(Message.CLIENT_ID_FIELD, key -> "abc");
+        expected.computeIfAbsent(Message.CLIENT_ID_FIELD, key -> "abc");
+        message.merge("custom", 1, (a, b) -> (Integer)a + (Integer)b);
+        expected.merge("custom", 1, (a, b) -> (Integer)a + (Integer)b);
+        message.compute(Message.ERROR_FIELD, (key, value) -> null);
+        expected.compute(Message.ERROR_FIELD, (key, value) -> null);
+        assertSame(expected, message);
+
+        Iterator<Map.Entry<String, Object>> iterator = message.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Object> entry = iterator.next();
+            if (Message.CHANNEL_FIELD.equals(entry.getKey())) {
+                iterator.remove();
+            } else if (Message.CLIENT_ID_FIELD.equals(entry.getKey())) {
+                entry.setValue("def");
+            }
+        }
+        expected.remove(Message.CHANNEL_FIELD);
+        expected.put(Message.CLIENT_ID_FIELD, "def");
+        assertSame(expected, message);
+
+        message.clear();
+        Assertions.assertTrue(message.isEmpty());
+    }
+
+    @Test
+    public void testCloneAndSerialization() throws Exception {
+        CompactServerMessage message = new CompactServerMessage();
+        message.setChannel("/foo");
+        message.setData("data");
+        message.put("custom", true);
+
+        CompactServerMessage clone = (CompactServerMessage)message.clone();
+        Assertions.assertEquals(message, clone);
+        Assertions.assertEquals(3, clone.size());
+        clone.setChannel("/bar");
+        Assertions.assertEquals("/foo", message.getChannel());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(message);
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        CompactServerMessage deserialized = (CompactServerMessage)ois.readObject();
+        Assertions.assertEquals(message, deserialized);
+        Assertions.assertEquals(3, deserialized.size());
+    }
+
+    @Test
+    public void testParseAndGenerate() throws Exception {
+        String json = "[{" +
+                "\"channel\":\"/foo\"," +
+                "\"id\":\"1\"," +
+                "\"data\":{\"x\":1}," +
+                "\"custom\":null" +
+                "}]";
+        JettyJSONContextServer jsonContext = new JettyJSONContextServer();
+        jsonContext.setCompactMessages(true);
+        ServerMessage.Mutable[] messages = jsonContext.parse(json);
+        Assertions.assertEquals(1, messages.length);
+        ServerMessage.Mutable message = messages[0];
+        Assertions.assertTrue(message instanceof CompactServerMessage);
+        Assertions.assertEquals("/foo", message.getChannel());
+        Assertions.assertEquals("1", message.getId());
+        Assertions.assertEquals(1, ((Number)message.getDataAsMap().get("x")).intValue());
+        Assertions.assertTrue(message.containsKey("custom"));
+        Assertions.assertEquals(4, message.size());
+
+        ServerMessage.Mutable reparsed = jsonContext.parse("[" + jsonContext.generate(message) + "]")[0];
+        Assertions.assertEquals(message, reparsed);
+    }
+
+    @Test
+    public void testCompactMessagesOption() throws Exception {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.start();
+        try {
+            Assertions.assertFalse(bayeux.newMessage() instanceof CompactServerMessage);
+            Assertions.assertFalse(bayeux.getJSONContext().parse("[{\"channel\":\"/foo\"}]")[0] instanceof CompactServerMessage);
+        } finally {
+            bayeux.stop();
+        }
+
+        bayeux = new BayeuxServerImpl();
+        bayeux.setOption(BayeuxServerImpl.COMPACT_MESSAGES_OPTION, true);
+        bayeux.start();
+        try {
+            Assertions.assertTrue(bayeux.newMessage() instanceof CompactServerMessage);
+            Assertions.assertTrue(bayeux.getJSONContext().parse("[{\"channel\":\"/foo\"}]")[0] instanceof CompactServerMessage);
+        } finally {
+            bayeux.stop();
+        }
+    }
+
+    @Test
+    public void testFrozenBehavior() {
+        CompactServerMessage message = new CompactServerMessage();
+        message.setChannel("/foo");
+        message.put("custom", "value");
+        message.freeze(new JettyJSONContextServer().generate(message));
+
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> message.setChannel("/bar"));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> message.put("custom", "other"));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> message.entrySet().iterator().next().setValue("/bar"));
+        Assertions.assertEquals("/foo", message.getChannel());
+    }
+
+    private static void put(Map<String, Object> message, Map<String, Object> expected, String key, Object value) {
+        Assertions.assertEquals(expected.put(key, value), message.put(key, value));
+    }
+
+    private static void assertSame(Map<String, Object> expected, Map<String, Object> message) {
+        Assertions.assertEquals(expected.size(), message.size());
+        Assertions.assertEquals(expected, message);
+        Assertions.assertEquals(message, expected);
+        Assertions.assertEquals(expected.hashCode(), message.hashCode());
+        Assertions.assertEquals(expected.keySet(), message.keySet());
+    }
+}
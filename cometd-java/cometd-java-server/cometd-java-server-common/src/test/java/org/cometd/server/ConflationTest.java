@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ConflationTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testPendingMessageIsReplacedBySameKey() {
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/quotes").getReference();
+        channel.setConflationKey(message -> message.getDataAsMap().get("symbol"));
+        ServerSessionImpl session = newServerSession();
+        channel.subscribe(session);
+
+        publish(channel, "A", 1);
+        publish(channel, "B", 1);
+        publish(channel, "A", 2);
+        publish(channel, "A", 3);
+        publish(channel, "B", 2);
+
+        // The replacement takes the position of the pending message.
+        Assertions.assertEquals(2, session.getQueue().size());
+        Assertions.assertEquals("A3,B2", describe(session.takeQueue(Collections.emptyList())));
+
+        // After the queue is taken, messages are queued again.
+        publish(channel, "A", 4);
+        publish(channel, "A", 5);
+        Assertions.assertEquals("A5", describe(session.takeQueue(Collections.emptyList())));
+    }
+
+    @Test
+    public void testMessagesWithoutKeyAreNotConflated() {
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/quotes").getReference();
+        channel.setConflationKey(message -> message.getDataAsMap().get("symbol"));
+        ServerChannel other = _bayeux.createChannelIfAbsent("/other").getReference();
+        ServerSessionImpl session = newServerSession();
+        channel.subscribe(session);
+        other.subscribe(session);
+
+        publish(channel, null, 1);
+        publish(channel, null, 2);
+        // Same key, but a channel without conflation.
+        publish(other, "A", 1);
+        publish(other, "A", 2);
+
+        Assertions.assertEquals(4, session.getQueue().size());
+    }
+
+    @Test
+    public void testSameKeyOnDifferentChannelsIsNotConflated() {
+        ServerChannel channel1 = _bayeux.createChannelIfAbsent("/quotes/1").getReference();
+        channel1.setConflationKey(message -> message.getDataAsMap().get("symbol"));
+        ServerChannel channel2 = _bayeux.createChannelIfAbsent("/quotes/2").getReference();
+        channel2.setConflationKey(message -> message.getDataAsMap().get("symbol"));
+        ServerSessionImpl session = newServerSession();
+        channel1.subscribe(session);
+        channel2.subscribe(session);
+
+        publish(channel1, "A", 1);
+        publish(channel2, "A", 1);
+        publish(channel1, "A", 2);
+
+        Assertions.assertEquals("A2,A1", describe(session.takeQueue(Collections.emptyList())));
+    }
+
+    private void publish(ServerChannel channel, String symbol, int price) {
+        Map<String, Object> data = new HashMap<>();
+        if (symbol != null) {
+            data.put("symbol", symbol);
+        }
+        data.put("price", price);
+        channel.publish(null, data, Promise.noop());
+    }
+
+    private String describe(List<ServerMessage> messages) {
+        return messages.stream()
+                .map(message -> "" + message.getDataAsMap().get("symbol") + message.getDataAsMap().get("price"))
+                .collect(Collectors.joining(","));
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
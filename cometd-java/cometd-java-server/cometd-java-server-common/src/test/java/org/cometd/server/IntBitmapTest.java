@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class IntBitmapTest {
+    @Test
+    public void testAddRemoveContains() {
+        IntBitmap bitmap = new IntBitmap();
+        Assertions.assertTrue(bitmap.isEmpty());
+
+        Assertions.assertTrue(bitmap.add(3));
+        Assertions.assertFalse(bitmap.add(3));
+        Assertions.assertTrue(bitmap.add(1 << 20));
+        Assertions.assertTrue(bitmap.add(0));
+        Assertions.assertEquals(3, bitmap.cardinality());
+        Assertions.assertTrue(bitmap.contains(3));
+        Assertions.assertTrue(bitmap.contains(1 << 20));
+        Assertions.assertFalse(bitmap.contains(4));
+
+        Assertions.assertEquals(3, values(bitmap).size());
+        Assertions.assertEquals(0, (int)values(bitmap).get(0));
+        Assertions.assertEquals(1 << 20, (int)values(bitmap).get(2));
+
+        Assertions.assertTrue(bitmap.remove(1 << 20));
+        Assertions.assertFalse(bitmap.remove(1 << 20));
+        Assertions.assertFalse(bitmap.remove(5));
+        Assertions.assertEquals(2, bitmap.cardinality());
+
+        bitmap.clear();
+        Assertions.assertTrue(bitmap.isEmpty());
+        Assertions.assertFalse(bitmap.contains(3));
+    }
+
+    @Test
+    public void testDenseChunkConversions() {
+        IntBitmap bitmap = new IntBitmap();
+        int count = 10_000;
+        for (int i = 0; i < count; ++i) {
+            Assertions.assertTrue(bitmap.add(i * 2));
+        }
+        Assertions.assertEquals(count, bitmap.cardinality());
+        for (int i = 0; i < count; ++i) {
+            Assertions.assertTrue(bitmap.contains(i * 2));
+            Assertions.assertFalse(bitmap.contains(i * 2 + 1));
+        }
+
+        for (int i = 0; i < count; ++i) {
+            Assertions.assertTrue(bitmap.remove(i * 2));
+        }
+        Assertions.assertTrue(bitmap.isEmpty());
+    }
+
+    @Test
+    public void testOrMatchesSetUnion() {
+        Random random = new Random();
+        for (int round = 0; round < 20; ++round) {
+            IntBitmap bitmap1 = new IntBitmap();
+            IntBitmap bitmap2 = new IntBitmap();
+            TreeSet<Integer> expected = new TreeSet<>();
+            // Mix sparse and dense chunks.
+            int size1 = random.nextInt(8192);
+            for (int i = 0; i < size1; ++i) {
+                int value = random.nextInt(3 * 65536);
+                bitmap1.add(value);
+                expected.add(value);
+            }
+            int size2 = random.nextInt(8192);
+            for (int i = 0; i < size2; ++i) {
+                int value = random.nextInt(2 * 65536);
+                bitmap2.add(value);
+                expected.add(value);
+            }
+
+            IntBitmap copy2 = bitmap2.copy();
+            bitmap1.or(bitmap2);
+
+            Assertions.assertEquals(expected.size(), bitmap1.cardinality());
+            Assertions.assertEquals(new ArrayList<>(expected), values(bitmap1));
+            // The argument must not be modified.
+            Assertions.assertEquals(values(copy2), values(bitmap2));
+        }
+    }
+
+    private static List<Integer> values(IntBitmap bitmap) {
+        List<Integer> result = new ArrayList<>();
+        bitmap.forEach(result::add);
+        return result;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ConfigurableServerChannel;
+import org.cometd.bayeux.server.ServerChannel;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class LazyFlusherTest {
+    private final List<Long> _lazyFlushDelays = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorScheduler _scheduler;
+    private BayeuxServerImpl _bayeux;
+
+    @BeforeEach
+    public void prepare() throws Exception {
+        _scheduler = new ScheduledExecutorScheduler() {
+            @Override
+            public Task schedule(Runnable task, long delay, TimeUnit unit) {
+                if (task instanceof LazyFlusher) {
+                    _lazyFlushDelays.add(unit.toMillis(delay));
+                }
+                return super.schedule(task, delay, unit);
+            }
+        };
+        _scheduler.start();
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.setScheduler(_scheduler);
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void dispose() throws Exception {
+        _bayeux.stop();
+        _scheduler.stop();
+    }
+
+    @Test
+    public void testSessionsWithSameLazyTimeoutShareOneTask() throws Exception {
+        long lazyTimeout = 200;
+        ServerChannel channel = newLazyChannel("/lazy", lazyTimeout);
+
+        int count = 20;
+        CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; ++i) {
+            channel.subscribe(newServerSession(latch));
+        }
+
+        for (int i = 0; i < 3; ++i) {
+            channel.publish(null, "data" + i, Promise.noop());
+        }
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, _lazyFlushDelays.size());
+        Assertions.assertEquals(lazyTimeout, _lazyFlushDelays.get(0));
+    }
+
+    @Test
+    public void testSessionMovesToFlusherWithShorterLazyTimeout() throws Exception {
+        long longLazyTimeout = 5000;
+        ServerChannel longChannel = newLazyChannel("/lazy/long", longLazyTimeout);
+        long shortLazyTimeout = 200;
+        ServerChannel shortChannel = newLazyChannel("/lazy/short", shortLazyTimeout);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        ServerSessionImpl session = newServerSession(latch);
+        longChannel.subscribe(session);
+        shortChannel.subscribe(session);
+
+        long begin = System.nanoTime();
+        longChannel.publish(null, "long", Promise.noop());
+        shortChannel.publish(null, "short", Promise.noop());
+
+        // The session is flushed by the flusher with the shorter lazy timeout.
+        Assertions.assertTrue(latch.await(longLazyTimeout / 2, TimeUnit.MILLISECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        Assertions.assertTrue(elapsed >= shortLazyTimeout / 2, "elapsed " + elapsed);
+        Assertions.assertEquals(2, session.getQueue().size());
+        Assertions.assertEquals(2, _lazyFlushDelays.size());
+        Assertions.assertEquals(longLazyTimeout, _lazyFlushDelays.get(0));
+        Assertions.assertEquals(shortLazyTimeout, _lazyFlushDelays.get(1));
+
+        // Another message on the long channel does not schedule another task.
+        longChannel.publish(null, "long", Promise.noop());
+        Assertions.assertEquals(2, _lazyFlushDelays.size());
+    }
+
+    private ServerChannel newLazyChannel(String channelName, long lazyTimeout) {
+        return _bayeux.createChannelIfAbsent(channelName, new ConfigurableServerChannel.Initializer.Persistent(), channel -> channel.setLazyTimeout(lazyTimeout)).getReference();
+    }
+
+    private ServerSessionImpl newServerSession(CountDownLatch flushLatch) {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        session.setScheduler(new AbstractServerTransport.Scheduler() {
+            @Override
+            public void schedule() {
+                flushLatch.countDown();
+            }
+        });
+        return session;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MPSCQueueTest {
+    @Test
+    public void testOfferPollIterate() {
+        MPSCQueue<String> queue = new MPSCQueue<>();
+        Assertions.assertTrue(queue.isEmpty());
+        Assertions.assertNull(queue.poll());
+        Assertions.assertNull(queue.peek());
+
+        queue.offer("a");
+        queue.offer("b");
+        queue.offer("c");
+        Assertions.assertEquals(3, queue.size());
+        Assertions.assertEquals("a", queue.peek());
+        Assertions.assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(queue));
+
+        Iterator<String> iterator = queue.iterator();
+        Assertions.assertEquals("a", iterator.next());
+        Assertions.assertEquals("b", iterator.next());
+        iterator.remove();
+        Assertions.assertThrows(IllegalStateException.class, iterator::remove);
+        Assertions.assertEquals(2, queue.size());
+        Assertions.assertEquals(Arrays.asList("a", "c"), new ArrayList<>(queue));
+
+        Assertions.assertEquals("a", queue.poll());
+        Assertions.assertEquals("c", queue.poll());
+        Assertions.assertNull(queue.poll());
+        Assertions.assertTrue(queue.isEmpty());
+
+        queue.offer("d");
+        queue.clear();
+        Assertions.assertTrue(queue.isEmpty());
+        Assertions.assertNull(queue.peek());
+    }
+
+    @Test
+    public void testWeight() {
+        AtomicLong total = new AtomicLong();
+        MPSCQueue<String> queue = new MPSCQueue<>(String::length, total::addAndGet);
+        Assertions.assertEquals(0, queue.weight());
+
+        queue.offer("a");
+        MPSCQueue.Node<String> node = queue.append("bb");
+        queue.offer("ccc");
+        Assertions.assertEquals(6, queue.weight());
+        Assertions.assertEquals(6, total.get());
+
+        Assertions.assertTrue(queue.replace(node, "bbbb"));
+        Assertions.assertEquals(8, queue.weight());
+
+        Iterator<String> iterator = queue.iterator();
+        Assertions.assertEquals("a", iterator.next());
+        iterator.remove();
+        Assertions.assertEquals(7, queue.weight());
+
+        Assertions.assertEquals("bbbb", queue.poll());
+        Assertions.assertFalse(queue.replace(node, "b"));
+        Assertions.assertEquals(3, queue.weight());
+
+        queue.clear();
+        Assertions.assertEquals(0, queue.weight());
+        Assertions.assertEquals(0, total.get());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        MPSCQueue<Integer> queue = new MPSCQueue<>();
+        int producers = 4;
+        int count = 100_000;
+        CountDownLatch latch = new CountDownLatch(producers);
+        for (int p = 0; p < producers; ++p) {
+            int producer = p;
+            new Thread(() -> {
+                for (int i = 0; i < count; ++i) {
+                    queue.offer(producer * count + i);
+                }
+                latch.countDown();
+            }).start();
+        }
+
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        int received = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (received < producers * count && System.nanoTime() < deadline) {
+            Integer element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            // Elements of the same producer must be in order.
+            int producer = element / count;
+            int value = element % count;
+            Assertions.assertEquals(last[producer] + 1, value);
+            last[producer] = value;
+            ++received;
+        }
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(producers * count, received);
+        Assertions.assertTrue(queue.isEmpty());
+    }
+}
@@ -15,17 +15,26 @@
  */
 package org.cometd.server;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
 public class MaxQueuedTest extends AbstractBayeuxClientServerTest {
+    private static final long MAX_QUEUE_BYTES = 512;
+
     @ParameterizedTest
     @MethodSource("transports")
     public void testMaxQueued(String serverTransport) throws Exception {
@@ -73,4 +82,176 @@ public class MaxQueuedTest extends AbstractBayeuxClientServerTest {
         // Session should be gone.
         Assertions.assertNull(bayeux.getSession(clientId));
     }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testMaxQueueBytesReject(String serverTransport) throws Exception {
+        ServerSessionImpl session = startAndConnect(serverTransport, "reject", false);
+
+        List<Boolean> results = deliver(session, 10);
+
+        // The first messages are queued, the others rejected.
+        Assertions.assertTrue(results.get(0));
+        Assertions.assertFalse(results.get(results.size() - 1));
+        Assertions.assertTrue(session.getQueueBytes() <= MAX_QUEUE_BYTES);
+        Assertions.assertEquals(results.stream().filter(r -> r).count(), session.getQueue().size());
+        Assertions.assertEquals("message_0", session.getQueue().peek().getData());
+    }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testMaxQueueBytesEvict(String serverTransport) throws Exception {
+        ServerSessionImpl session = startAndConnect(serverTransport, "evict", false);
+
+        List<Boolean> results = deliver(session, 10);
+
+        // All messages are queued, evicting the oldest.
+        Assertions.assertTrue(results.stream().allMatch(r -> r));
+        Assertions.assertTrue(session.getQueueBytes() <= MAX_QUEUE_BYTES);
+        Assertions.assertTrue(session.getQueue().size() < 10);
+        Object last = null;
+        for (ServerMessage message : session.getQueue()) {
+            last = message.getData();
+        }
+        Assertions.assertEquals("message_9", last);
+    }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testMaxQueueBytesEvictNotifiesListeners(String serverTransport) throws Exception {
+        ServerSessionImpl session = startAndConnect(serverTransport, "evict", false);
+        AtomicInteger notified = new AtomicInteger();
+        AtomicBoolean accept = new AtomicBoolean(true);
+        session.addListener((ServerSession.QueueMaxedListener)(s, queue, sender, message) -> {
+            notified.incrementAndGet();
+            return accept.get();
+        });
+
+        List<Boolean> results = deliver(session, 10);
+        Assertions.assertTrue(results.stream().allMatch(r -> r));
+        Assertions.assertTrue(notified.get() > 0);
+
+        // Listeners may reject the message, and then nothing is evicted.
+        accept.set(false);
+        List<ServerMessage> queued = new ArrayList<>(session.getQueue());
+        results = deliver(session, 1);
+        Assertions.assertFalse(results.get(0));
+        Assertions.assertEquals(queued, new ArrayList<>(session.getQueue()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testMaxQueueBytesDisconnect(String serverTransport) throws Exception {
+        ServerSessionImpl session = startAndConnect(serverTransport, "disconnect", false);
+
+        deliver(session, 10);
+
+        Assertions.assertNull(bayeux.getSession(session.getId()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testMaxQueuesBytesBudget(String serverTransport) throws Exception {
+        ServerSessionImpl slow = startAndConnect(serverTransport, "reject", true);
+        ServerSessionImpl fast = connect();
+
+        // The slow session exhausts the server-wide budget.
+        List<Boolean> results = deliver(slow, 10);
+        Assertions.assertFalse(results.get(results.size() - 1));
+        Assertions.assertEquals(slow.getQueueBytes(), bayeux.getQueuesBytes());
+        Assertions.assertTrue(bayeux.getQueuesBytes() <= MAX_QUEUE_BYTES);
+
+        // A session without queued messages is not affected,
+        // until it starts to accumulate messages too.
+        results = deliver(fast, 2);
+        Assertions.assertTrue(results.get(0));
+        Assertions.assertFalse(results.get(1));
+
+        // Removed sessions do not count against the budget.
+        bayeux.removeSession(slow);
+        Assertions.assertEquals(fast.getQueueBytes(), bayeux.getQueuesBytes());
+    }
+
+    @Test
+    public void testSessionCreatedBeforeBudgetIsConfigured() throws Exception {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        ServerSessionImpl session = new ServerSessionImpl(bayeux);
+        bayeux.setOption(BayeuxServerImpl.MAX_QUEUES_BYTES_OPTION, String.valueOf(MAX_QUEUE_BYTES));
+        bayeux.start();
+        try {
+            bayeux.addServerSession(session, bayeux.newMessage());
+            session.handshake(null);
+            session.connected();
+            session.addListener((ServerSession.QueueMaxedListener)(s, queue, sender, message) -> false);
+
+            List<Boolean> results = deliver(bayeux, session, 10);
+
+            // The session counts against the budget, and the budget applies to it.
+            Assertions.assertTrue(session.getQueueBytes() > 0);
+            Assertions.assertEquals(session.getQueueBytes(), bayeux.getQueuesBytes());
+            Assertions.assertTrue(bayeux.getQueuesBytes() <= MAX_QUEUE_BYTES);
+            Assertions.assertFalse(results.get(results.size() - 1));
+        } finally {
+            bayeux.stop();
+        }
+    }
+
+    private ServerSessionImpl startAndConnect(String serverTransport, String policy, boolean global) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        if (global) {
+            options.put(BayeuxServerImpl.MAX_QUEUES_BYTES_OPTION, String.valueOf(MAX_QUEUE_BYTES));
+        } else {
+            options.put(AbstractServerTransport.MAX_QUEUE_BYTES_OPTION, String.valueOf(MAX_QUEUE_BYTES));
+        }
+        options.put(AbstractServerTransport.MAX_QUEUE_POLICY_OPTION, policy);
+        // Publishes are only sent via /meta/connect, so they stay in the queue.
+        options.put(AbstractServerTransport.META_CONNECT_DELIVERY_OPTION, String.valueOf(true));
+        startServer(serverTransport, options);
+        return connect();
+    }
+
+    private ServerSessionImpl connect() throws Exception {
+        Request handshake = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"minimumVersion\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"long-polling\"]" +
+                "}]");
+        ContentResponse response = handshake.send();
+        Assertions.assertEquals(200, response.getStatus());
+
+        String clientId = extractClientId(response);
+
+        Request connect = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/connect\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"connectionType\": \"long-polling\"" +
+                "}]");
+        response = connect.send();
+        Assertions.assertEquals(200, response.getStatus());
+
+        ServerSessionImpl session = (ServerSessionImpl)bayeux.getSession(clientId);
+        Assertions.assertNotNull(session);
+        return session;
+    }
+
+    private List<Boolean> deliver(ServerSession session, int count) {
+        return deliver(bayeux, session, count);
+    }
+
+    private List<Boolean> deliver(BayeuxServerImpl bayeux, ServerSession session, int count) {
+        // Each message is about 100 bytes.
+        char[] chars = new char[64];
+        Arrays.fill(chars, 'x');
+        String padding = new String(chars);
+        List<Boolean> results = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            ServerMessage.Mutable message = bayeux.newMessage();
+            message.setChannel("/max_queue");
+            message.setData("message_" + i);
+            message.put("padding", padding);
+            session.deliver(null, message, Promise.from(results::add, x -> results.add(null)));
+        }
+        return results;
+    }
 }
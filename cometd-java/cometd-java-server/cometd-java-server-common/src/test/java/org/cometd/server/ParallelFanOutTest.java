@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ParallelFanOutTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.FAN_OUT_THRESHOLD_OPTION, 8);
+        _bayeux.setOption(BayeuxServerImpl.FAN_OUT_PARTITIONS_OPTION, 4);
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testParallelFanOutPreservesOrder() throws Exception {
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/fanout").getReference();
+        int sessionCount = 64;
+        List<Queue<Object>> received = new ArrayList<>();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < sessionCount; ++i) {
+            ServerSessionImpl session = newServerSession();
+            Queue<Object> queue = new ConcurrentLinkedQueue<>();
+            received.add(queue);
+            session.addListener((ServerSession.QueueListener)(sender, message) -> {
+                threads.add(Thread.currentThread());
+                queue.offer(message.getData());
+            });
+            channel.subscribe(session);
+        }
+
+        int messageCount = 32;
+        CountDownLatch latch = new CountDownLatch(messageCount);
+        for (int i = 0; i < messageCount; ++i) {
+            channel.publish(null, i, Promise.from(result -> {
+                Assertions.assertTrue(result);
+                latch.countDown();
+            }, Throwable::printStackTrace));
+        }
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // The promise completes when all the partitions are delivered.
+        for (Queue<Object> queue : received) {
+            Assertions.assertEquals(messageCount, queue.size());
+            for (int i = 0; i < messageCount; ++i) {
+                Assertions.assertEquals(i, queue.poll());
+            }
+        }
+        Assertions.assertFalse(threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testSmallChannelIsDeliveredByPublisher() throws Exception {
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/small").getReference();
+        ServerSessionImpl session = newServerSession();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        session.addListener((ServerSession.QueueListener)(sender, message) -> threads.add(Thread.currentThread()));
+        channel.subscribe(session);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        channel.publish(null, "data", Promise.from(result -> latch.countDown(), Throwable::printStackTrace));
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, threads.size());
+        Assertions.assertTrue(threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testSmallChannelDoesNotOvertakeLargeChannel() throws Exception {
+        ServerChannel largeChannel = _bayeux.createChannelIfAbsent("/large").getReference();
+        ServerChannel smallChannel = _bayeux.createChannelIfAbsent("/small").getReference();
+        Queue<Object> received = new ConcurrentLinkedQueue<>();
+        ServerSessionImpl session = newServerSession();
+        session.addListener((ServerSession.QueueListener)(sender, message) -> {
+            if ("/large".equals(message.getChannel())) {
+                // Slow down the delivery of the large channel.
+                sleep(500);
+            }
+            received.offer(message.getData());
+        });
+        largeChannel.subscribe(session);
+        smallChannel.subscribe(session);
+        for (int i = 0; i < 16; ++i) {
+            largeChannel.subscribe(newServerSession());
+        }
+
+        CountDownLatch latch = new CountDownLatch(3);
+        Promise<Boolean> promise = Promise.from(result -> latch.countDown(), Throwable::printStackTrace);
+        largeChannel.publish(null, "large", promise);
+        smallChannel.publish(null, "small", promise);
+        session.deliver(null, "/direct", "direct", promise);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("large", received.poll());
+        Assertions.assertEquals("small", received.poll());
+        Assertions.assertEquals("direct", received.poll());
+    }
+
+    @Test
+    public void testRejectedTaskFailsAndLaneContinues() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        FanOutLane lane = new FanOutLane(task -> {
+            // Reject the first execution only.
+            if (executions.getAndIncrement() == 0) {
+                throw new RejectedExecutionException();
+            }
+            task.run();
+        });
+
+        CountDownLatch failLatch = new CountDownLatch(1);
+        lane.submit(new FanOutLane.Task() {
+            @Override
+            public void run(Runnable done) {
+                done.run();
+            }
+
+            @Override
+            public void fail(Throwable failure) {
+                Assertions.assertTrue(failure instanceof RejectedExecutionException);
+                failLatch.countDown();
+            }
+        }, false);
+        Assertions.assertTrue(failLatch.await(5, TimeUnit.SECONDS));
+
+        // The lane is not stuck by the rejected task.
+        CountDownLatch runLatch = new CountDownLatch(1);
+        lane.submit(new FanOutLane.Task() {
+            @Override
+            public void run(Runnable done) {
+                runLatch.countDown();
+                done.run();
+            }
+
+            @Override
+            public void fail(Throwable failure) {
+            }
+        }, false);
+        Assertions.assertTrue(runLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
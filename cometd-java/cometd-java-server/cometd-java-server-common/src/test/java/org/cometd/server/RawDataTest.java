@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.server.ServerMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RawDataTest {
+    private JettyJSONContextServer jsonContext;
+
+    @BeforeEach
+    public void prepare() {
+        jsonContext = new JettyJSONContextServer();
+        jsonContext.setRawData(true);
+    }
+
+    @Test
+    public void testUntouchedDataIsGeneratedVerbatim() throws Exception {
+        String data = "{\"text\":\"a \\\"quoted\\\" \\u00e8 [text]\",\"list\":[1,-2.5e3,true,false,null,{}],\"empty\":[]}";
+        String json = "[{\"channel\":\"/foo\",\"id\":\"1\",\"data\": " + data + " ,\"ext\":{\"x\":1}}]";
+
+        ServerMessage.Mutable message = jsonContext.parse(json)[0];
+        Assertions.assertTrue(((CompactServerMessage)message).hasRawData());
+        Assertions.assertEquals("/foo", message.getChannel());
+
+        String generated = jsonContext.generate(message);
+        Assertions.assertTrue(generated.contains("\"data\":" + data), generated);
+        Assertions.assertTrue(((CompactServerMessage)message).hasRawData());
+
+        // Accessing the data parses it.
+        Map<String, Object> map = message.getDataAsMap();
+        Assertions.assertFalse(((CompactServerMessage)message).hasRawData());
+        Assertions.assertEquals("a \"quoted\" \u00e8 [text]", map.get("text"));
+        Assertions.assertEquals(6, ((Object[])map.get("list")).length);
+
+        // The parsed data generates the same JSON.
+        ServerMessage.Mutable reparsed = jsonContext.parse("[" + jsonContext.generate(message) + "]")[0];
+        Assertions.assertEquals(map.get("text"), reparsed.getDataAsMap().get("text"));
+    }
+
+    @Test
+    public void testNonObjectData() throws Exception {
+        List<String> values = Arrays.asList("\"text\"", "42", "0", "-1.5", "1E+2", "-0.5e-3", "true", "null", "[1,[2]]");
+        for (String value : values) {
+            String json = "{\"channel\":\"/foo\",\"data\":" + value + "}";
+            ServerMessage.Mutable message = jsonContext.parse(json)[0];
+            Assertions.assertEquals("{\"channel\":\"/foo\",\"data\":" + value + "}", jsonContext.generate(message));
+            Assertions.assertTrue(message.containsKey(ServerMessage.DATA_FIELD));
+        }
+
+        // JSON whitespace is skipped.
+        ServerMessage.Mutable message = jsonContext.parse("{\"channel\":\"/foo\",\"data\":[ 1,\t2\r\n]}")[0];
+        Assertions.assertEquals("{\"channel\":\"/foo\",\"data\":[1,2]}", jsonContext.generate(message));
+    }
+
+    @Test
+    public void testInvalidDataIsRejected() {
+        List<String> values = Arrays.asList("{\"a\":}", "{\"a\" 1}", "[1,]", "tru", "{a:1}", "\"\\x\"", "{\"a\":1",
+                "--", "-", "1e", "1.", "1.2.3", "+5", "01", "[1e+]", "{\"a\":.5}",
+                // Not JSON whitespace.
+                "[1,\u000B2]", "{\"a\":\u001C1}", "[1\u2028]", "[\u00A01]");
+        for (String value : values) {
+            String json = "[{\"channel\":\"/foo\",\"data\":" + value + "}]";
+            Assertions.assertThrows(ParseException.class, () -> jsonContext.parse(json), value);
+        }
+    }
+
+    @Test
+    public void testFrozenRawDataIsParsedOnceAcrossThreads() throws Exception {
+        String data = "{\"x\":1}";
+        String json = "[{\"channel\":\"/foo\",\"data\":" + data + "}]";
+        CompactServerMessage message = (CompactServerMessage)jsonContext.parse(json)[0];
+        message.freeze(jsonContext.generate(message));
+
+        int threads = 8;
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Map<String, Object>>> results = new ArrayList<>();
+            for (int i = 0; i < threads; ++i) {
+                results.add(executor.submit(() -> {
+                    barrier.await();
+                    return message.getDataAsMap();
+                }));
+            }
+            for (Future<Map<String, Object>> result : results) {
+                Assertions.assertEquals(1L, ((Number)result.get(5, TimeUnit.SECONDS).get("x")).longValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // The frozen message is not modified, and still has the raw data.
+        Assertions.assertTrue(message.hasRawData());
+        Assertions.assertTrue(jsonContext.generate(message).contains("\"data\":" + data));
+    }
+
+    @Test
+    public void testRawDataIsSerializedParsed() throws Exception {
+        String json = "[{\"channel\":\"/foo\",\"data\":{\"x\":[1,2]}}]";
+        CompactServerMessage message = (CompactServerMessage)jsonContext.parse(json)[0];
+        message.freeze(jsonContext.generate(message));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(message);
+        }
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            CompactServerMessage copy = (CompactServerMessage)input.readObject();
+            Assertions.assertFalse(copy.hasRawData());
+            Assertions.assertEquals("/foo", copy.getChannel());
+            Assertions.assertEquals(2, ((Object[])copy.getDataAsMap().get("x")).length);
+        }
+    }
+
+    @Test
+    public void testRawDataIsNotParsedForNestedFields() throws Exception {
+        String json = "[{\"channel\":\"/foo\",\"data\":{\"data\":{\"x\":1}}}]";
+        ServerMessage.Mutable message = jsonContext.parse(json)[0];
+        @SuppressWarnings("unchecked")
+        Map<String, Object> nested = (Map<String, Object>)message.getDataAsMap().get("data");
+        Assertions.assertEquals(1L, ((Number)nested.get("x")).longValue());
+    }
+}
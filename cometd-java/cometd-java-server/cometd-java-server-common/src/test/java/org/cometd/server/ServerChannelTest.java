@@ -15,6 +15,10 @@
  */
 package org.cometd.server;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import org.cometd.bayeux.MarkedReference;
@@ -296,6 +300,75 @@ public class ServerChannelTest {
         Assertions.assertEquals("StarStar", session0.getQueue().poll().getData());
     }
 
+    @Test
+    public void testPublishToWildSubscribersAfterSubscriptionChanges() {
+        ServerChannelImpl fooBar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        ServerChannelImpl fooStar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/*").getReference();
+        ServerChannelImpl fooStarStar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/**").getReference();
+
+        // Subscribed to all the matching channels, must receive each message once.
+        ServerSessionImpl session0 = newServerSession();
+        fooBar.subscribe(session0);
+        fooStar.subscribe(session0);
+        fooStarStar.subscribe(session0);
+
+        fooBar.publish(null, "data1", Promise.noop());
+        Assertions.assertEquals(1, session0.getQueue().size());
+
+        // Subscribe to a wild channel after the recipients have been computed.
+        ServerSessionImpl session1 = newServerSession();
+        fooStarStar.subscribe(session1);
+        fooBar.publish(null, "data2", Promise.noop());
+        Assertions.assertEquals(2, session0.getQueue().size());
+        Assertions.assertEquals(1, session1.getQueue().size());
+
+        // Subscribe to a wild channel that did not exist.
+        ServerSessionImpl session2 = newServerSession();
+        _bayeux.createChannelIfAbsent("/**").getReference().subscribe(session2);
+        fooBar.publish(null, "data3", Promise.noop());
+        Assertions.assertEquals(3, session0.getQueue().size());
+        Assertions.assertEquals(2, session1.getQueue().size());
+        Assertions.assertEquals(1, session2.getQueue().size());
+
+        fooStarStar.unsubscribe(session1);
+        fooBar.unsubscribe(session0);
+        fooBar.publish(null, "data4", Promise.noop());
+        Assertions.assertEquals(4, session0.getQueue().size());
+        Assertions.assertEquals(2, session1.getQueue().size());
+        Assertions.assertEquals(2, session2.getQueue().size());
+
+        // Removing the session removes it from the recipients.
+        _bayeux.removeServerSession(session2, false);
+        fooBar.publish(null, "data5", Promise.noop());
+        Assertions.assertEquals(2, session2.getQueue().size());
+        Assertions.assertEquals(Collections.singletonList(session0), fooBar.recipients());
+    }
+
+    @Test
+    public void testRecipientsOnlyRecomputedAfterMatchingWildChanges() {
+        ServerChannelImpl fooBar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        ServerSessionImpl session0 = newServerSession();
+        fooBar.subscribe(session0);
+        List<ServerSessionImpl> recipients = fooBar.recipients();
+
+        // Wild channels that do not match do not invalidate the recipients.
+        ServerSessionImpl session1 = newServerSession();
+        _bayeux.createChannelIfAbsent("/baz/*").getReference().subscribe(session1);
+        Assertions.assertSame(recipients, fooBar.recipients());
+
+        // A matching wild channel does.
+        ServerChannelImpl fooStar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/*").getReference();
+        fooStar.subscribe(session1);
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(session0, session1)), new HashSet<>(fooBar.recipients()));
+
+        // Removing and recreating the wild channel resets its version.
+        fooStar.remove();
+        Assertions.assertEquals(Collections.singletonList(session0), fooBar.recipients());
+        ServerSessionImpl session2 = newServerSession();
+        _bayeux.createChannelIfAbsent("/foo/*").getReference().subscribe(session2);
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(session0, session2)), new HashSet<>(fooBar.recipients()));
+    }
+
     @Test
     public void testPublishFromSweptChannelSucceeds() throws Exception {
         _bayeux.start();
@@ -490,6 +563,42 @@ public class ServerChannelTest {
         Assertions.assertEquals(-1, channel.getLazyTimeout());
     }
 
+    @Test
+    public void testLazyMessagesFlushedTogether() throws Exception {
+        String channelName = "/testLazyFlush";
+        ServerChannel channel = _bayeux.createChannelIfAbsent(channelName, new ConfigurableServerChannel.Initializer.Persistent()).getReference();
+        long lazyTimeout = 500;
+        channel.setLazyTimeout(lazyTimeout);
+
+        int count = 10;
+        CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; ++i) {
+            ServerSessionImpl session = newServerSession();
+            session.setScheduler(new AbstractServerTransport.Scheduler() {
+                @Override
+                public void schedule() {
+                    latch.countDown();
+                }
+            });
+            channel.subscribe(session);
+        }
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < 2; ++i) {
+            ServerMessage.Mutable message = _bayeux.newMessage();
+            message.setChannel(channelName);
+            message.setData("data" + i);
+            channel.publish(null, message, Promise.noop());
+        }
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        Assertions.assertTrue(elapsed >= lazyTimeout / 2, "elapsed " + elapsed);
+        for (ServerSession subscriber : channel.getSubscribers()) {
+            Assertions.assertEquals(2, ((ServerSessionImpl)subscriber).getQueue().size());
+        }
+    }
+
     private void sweep() {
         // 12 is a big enough number that will make sure channel will be swept
         for (int i = 0; i < 12; ++i) {
@@ -19,6 +19,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.server.ServerMessage;
@@ -147,6 +149,107 @@ public class ServerMessageImplTest {
         }
     }
 
+    @Test
+    public void testFrozenWithBytes() throws Exception {
+        ServerMessageImpl message = new ServerMessageImpl();
+        message.setChannel("/channel");
+        message.setData("\u20AC");
+
+        String json = new JettyJSONContextServer().generate(message);
+        message.freeze(json.getBytes(StandardCharsets.UTF_8));
+
+        try {
+            message.put("a", "b");
+            Assertions.fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        // The string is derived from the bytes.
+        Assertions.assertEquals(json, message.getJSON());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(message);
+        oos.close();
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        ServerMessageImpl deserialized = (ServerMessageImpl)ois.readObject();
+
+        Assertions.assertEquals(json, deserialized.getJSON());
+        Assertions.assertArrayEquals(json.getBytes(StandardCharsets.UTF_8), deserialized.getJSONBytes());
+    }
+
+    @Test
+    public void testSerializedFormHasOneEncoding() throws Exception {
+        ObjectStreamClass serialized = ObjectStreamClass.lookup(ServerMessageImpl.class);
+        Assertions.assertNotNull(serialized.getField("_json"));
+        Assertions.assertNull(serialized.getField("_jsonBytes"));
+
+        ServerMessageImpl message = new ServerMessageImpl();
+        message.setChannel("/channel");
+        message.setData("\u20AC");
+        String json = new JettyJSONContextServer().generate(message);
+        // Serialized without the string being derived first.
+        message.freeze(json.getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(message);
+        oos.close();
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        ServerMessageImpl deserialized = (ServerMessageImpl)ois.readObject();
+
+        Assertions.assertEquals(json, deserialized.getJSON());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> deserialized.put("a", "b"));
+    }
+
+    @Test
+    public void testDerivedEncodingsAreNotRetained() {
+        ServerMessageImpl message = new ServerMessageImpl();
+        message.setChannel("/channel");
+        // 1, 2, 3 and 4 bytes UTF-8 characters.
+        message.setData("a\u00E8\u20AC\uD83D\uDE00");
+
+        String json = new JettyJSONContextServer().generate(message);
+        message.freeze(json);
+
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        Assertions.assertEquals(bytes.length, message.getJSONSize());
+        byte[] jsonBytes = message.getJSONBytes();
+        Assertions.assertArrayEquals(bytes, jsonBytes);
+        Assertions.assertNotSame(jsonBytes, message.getJSONBytes());
+        Assertions.assertEquals(bytes.length, message.getJSONSize());
+
+        ServerMessageImpl bytesMessage = new ServerMessageImpl();
+        bytesMessage.freeze(bytes);
+        String derived = bytesMessage.getJSON();
+        Assertions.assertEquals(json, derived);
+        Assertions.assertNotSame(derived, bytesMessage.getJSON());
+        Assertions.assertEquals(bytes.length, bytesMessage.getJSONSize());
+    }
+
+    @Test
+    public void testCopyKeepsLazyAndConflationKey() {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        ServerMessageImpl message = (ServerMessageImpl)bayeux.newMessage();
+        message.setChannel("/channel");
+        message.setData("data");
+        message.setLazy(true);
+        Object conflationKey = "key";
+        message.setConflationKey(conflationKey);
+
+        ServerMessageImpl copy = (ServerMessageImpl)bayeux.newMessage(message);
+        Assertions.assertEquals(message, copy);
+        Assertions.assertTrue(copy.isLazy());
+        Assertions.assertSame(conflationKey, copy.getConflationKey());
+
+        // Messages that are not lazy nor conflated are copied as such.
+        ServerMessageImpl plain = (ServerMessageImpl)bayeux.newMessage(bayeux.newMessage());
+        Assertions.assertFalse(plain.isLazy());
+        Assertions.assertNull(plain.getConflationKey());
+    }
+
     @Test
     public void testModificationViaEntrySet() {
         ServerMessageImpl message = new ServerMessageImpl();
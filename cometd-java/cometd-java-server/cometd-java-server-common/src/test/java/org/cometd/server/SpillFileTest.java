@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SpillFileTest {
+    @TempDir
+    public Path directory;
+
+    @Test
+    public void testAppendDrainAcrossSegments() throws Exception {
+        try (SpillFile spill = new SpillFile(directory, 64)) {
+            Assertions.assertTrue(spill.isEmpty());
+
+            // Small records share segments, large records have their own.
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 20; ++i) {
+                StringBuilder record = new StringBuilder("record_" + i);
+                for (int j = 0; j < i * 5; ++j) {
+                    record.append('x');
+                }
+                expected.add(record.toString());
+                spill.append(record.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            Assertions.assertEquals(expected.size(), spill.size());
+
+            Assertions.assertEquals(expected, drain(spill));
+            Assertions.assertTrue(spill.isEmpty());
+            Assertions.assertEquals(0, spill.bytes());
+
+            // The file is reused after being drained.
+            spill.append("again".getBytes(StandardCharsets.UTF_8));
+            Assertions.assertEquals(1, spill.size());
+            Assertions.assertEquals(5, spill.bytes());
+            Assertions.assertEquals(Collections.singletonList("again"), drain(spill));
+        }
+
+        // The file is deleted when closed.
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testRecordsAreRemovedOneByOne() throws Exception {
+        try (SpillFile spill = new SpillFile(directory, 64)) {
+            for (int i = 0; i < 10; ++i) {
+                Assertions.assertEquals(i, spill.append(("record_" + i).getBytes(StandardCharsets.UTF_8)));
+            }
+
+            // Peeking does not remove the record.
+            Assertions.assertEquals("record_0", new String(spill.peek(), StandardCharsets.UTF_8));
+            Assertions.assertEquals("record_0", new String(spill.peek(), StandardCharsets.UTF_8));
+            Assertions.assertEquals(0, spill.first());
+
+            // Records can be appended while others are removed.
+            for (int i = 0; i < 5; ++i) {
+                spill.remove();
+            }
+            Assertions.assertEquals(5, spill.first());
+            Assertions.assertEquals(5, spill.size());
+            Assertions.assertEquals(10, spill.append("record_10".getBytes(StandardCharsets.UTF_8)));
+            Assertions.assertEquals(Arrays.asList("record_5", "record_6", "record_7", "record_8", "record_9", "record_10"), drain(spill));
+
+            // Sequence numbers are not reused when the file is reused.
+            Assertions.assertEquals(11, spill.append("again".getBytes(StandardCharsets.UTF_8)));
+            Assertions.assertEquals(11, spill.first());
+        }
+    }
+
+    private List<String> drain(SpillFile spill) {
+        List<String> result = new ArrayList<>();
+        while (!spill.isEmpty()) {
+            result.add(new String(spill.peek(), StandardCharsets.UTF_8));
+            spill.remove();
+        }
+        Assertions.assertNull(spill.peek());
+        return result;
+    }
+}
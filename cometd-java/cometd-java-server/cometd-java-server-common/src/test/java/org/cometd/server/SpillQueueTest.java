@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class SpillQueueTest extends AbstractBayeuxClientServerTest {
+    @TempDir
+    public Path directory;
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testMessagesSpilledAndLoadedInOrder(String serverTransport) throws Exception {
+        long spillThreshold = 256;
+        startServer(serverTransport, spillThreshold);
+        String clientId = handshake();
+        ServerSessionImpl session = (ServerSessionImpl)bayeux.getSession(clientId);
+        Assertions.assertNotNull(session);
+
+        int count = 20;
+        for (int i = 0; i < count; ++i) {
+            session.deliver(null, "/spill", "message_" + i, Promise.noop());
+        }
+
+        // Only the head of the queue is kept in memory.
+        Assertions.assertTrue(session.getQueueBytes() <= spillThreshold);
+        Assertions.assertTrue(session.getSpilledMessages() > 0);
+        Assertions.assertEquals(count, session.getQueue().size() + session.getSpilledMessages());
+
+        // The next /meta/connect returns all the messages, in order.
+        Message.Mutable[] messages = connect(clientId);
+        int index = 0;
+        for (Message.Mutable message : messages) {
+            if ("/spill".equals(message.getChannel())) {
+                Assertions.assertEquals("message_" + index, message.getData());
+                ++index;
+            }
+        }
+        Assertions.assertEquals(count, index);
+        Assertions.assertEquals(0, session.getSpilledMessages());
+        Assertions.assertEquals(0, session.getQueueBytes());
+    }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testSpilledMessagesAreConflated(String serverTransport) throws Exception {
+        startServer(serverTransport, 256);
+        String clientId = handshake();
+        ServerSessionImpl session = (ServerSessionImpl)bayeux.getSession(clientId);
+        Assertions.assertNotNull(session);
+        ServerChannel quotes = bayeux.createChannelIfAbsent("/quotes").getReference();
+        quotes.setConflationKey(message -> message.getDataAsMap().get("symbol"));
+        quotes.subscribe(session);
+
+        // Fill the queue so that the quotes are spilled.
+        int count = 10;
+        for (int i = 0; i < count; ++i) {
+            session.deliver(null, "/spill", "message_" + i, Promise.noop());
+        }
+        int spilled = session.getSpilledMessages();
+        Assertions.assertTrue(spilled > 0);
+
+        publish(quotes, "A", 1);
+        publish(quotes, "B", 1);
+        publish(quotes, "A", 2);
+        publish(quotes, "A", 3);
+        publish(quotes, "B", 2);
+
+        // Only the first quote for each symbol is spilled.
+        Assertions.assertEquals(spilled + 2, session.getSpilledMessages());
+
+        // The replacements take the position of the spilled messages.
+        Message.Mutable[] messages = connect(clientId);
+        List<String> data = new ArrayList<>();
+        for (Message.Mutable message : messages) {
+            if ("/spill".equals(message.getChannel())) {
+                data.add((String)message.getData());
+            } else if ("/quotes".equals(message.getChannel())) {
+                Map<String, Object> quote = message.getDataAsMap();
+                data.add("" + quote.get("symbol") + quote.get("price"));
+            }
+        }
+        Assertions.assertEquals(count + 2, data.size());
+        Assertions.assertEquals("message_" + (count - 1), data.get(count - 1));
+        Assertions.assertEquals(Arrays.asList("A3", "B2"), data.subList(count, count + 2));
+        Assertions.assertEquals(0, session.getSpilledMessages());
+    }
+
+    private void startServer(String serverTransport, long spillThreshold) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put(AbstractServerTransport.SPILL_THRESHOLD_OPTION, String.valueOf(spillThreshold));
+        options.put(AbstractServerTransport.SPILL_DIRECTORY_OPTION, directory.toString());
+        // Publishes are only sent via /meta/connect, so they stay in the queue.
+        options.put(AbstractServerTransport.META_CONNECT_DELIVERY_OPTION, String.valueOf(true));
+        startServer(serverTransport, options);
+    }
+
+    private String handshake() throws Exception {
+        Request handshake = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"minimumVersion\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"long-polling\"]" +
+                "}]");
+        ContentResponse response = handshake.send();
+        Assertions.assertEquals(200, response.getStatus());
+
+        String clientId = extractClientId(response);
+
+        connect(clientId);
+        return clientId;
+    }
+
+    private Message.Mutable[] connect(String clientId) throws Exception {
+        Request connect = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/connect\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"connectionType\": \"long-polling\"" +
+                "}]");
+        ContentResponse response = connect.send();
+        Assertions.assertEquals(200, response.getStatus());
+        return bayeux.getJSONContext().parse(response.getContentAsString());
+    }
+
+    private void publish(ServerChannel channel, String symbol, int price) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("symbol", symbol);
+        data.put("price", price);
+        channel.publish(null, data, Promise.noop());
+    }
+}
@@ -161,4 +161,33 @@ public class SweepTest {
 
         bayeuxServer.stop();
     }
+
+    @Test
+    public void testSessionIsSweptByFirstSweepAfterExpiration() throws Exception {
+        BayeuxServerImpl bayeuxServer = new BayeuxServerImpl();
+        // Sweep manually.
+        bayeuxServer.setOption(BayeuxServerImpl.SWEEP_PERIOD_OPTION, 60000);
+        long maxInterval = 500;
+        bayeuxServer.setOption(AbstractServerTransport.MAX_INTERVAL_OPTION, maxInterval);
+        bayeuxServer.start();
+
+        ServerSessionImpl session = bayeuxServer.newServerSession();
+        bayeuxServer.addServerSession(session, bayeuxServer.newMessage());
+        Assertions.assertTrue(session.handshake(null));
+        Assertions.assertTrue(session.connected());
+        session.cancelExpiration(true);
+        session.scheduleExpiration(0, maxInterval, 0);
+
+        // Just before the expiration, the session is not swept.
+        Thread.sleep(maxInterval - 50);
+        bayeuxServer.sweep();
+        Assertions.assertNotNull(bayeuxServer.getSession(session.getId()));
+
+        // Just after the expiration, the session is swept.
+        Thread.sleep(100);
+        bayeuxServer.sweep();
+        Assertions.assertNull(bayeuxServer.getSession(session.getId()));
+
+        bayeuxServer.stop();
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TimingWheelSchedulerTest {
+    private TimingWheelScheduler scheduler;
+
+    @BeforeEach
+    public void prepare() throws Exception {
+        scheduler = new TimingWheelScheduler("test-scheduler", true, 10);
+        scheduler.start();
+    }
+
+    @AfterEach
+    public void dispose() throws Exception {
+        scheduler.stop();
+    }
+
+    @Test
+    public void testTaskIsNotRunEarly() throws Exception {
+        long delay = 250;
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicLong elapsed = new AtomicLong();
+        long begin = System.nanoTime();
+        scheduler.schedule(() -> {
+            elapsed.set(System.nanoTime() - begin);
+            latch.countDown();
+        }, delay, TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(elapsed.get() >= TimeUnit.MILLISECONDS.toNanos(delay));
+    }
+
+    @Test
+    public void testCancelledTaskIsNotRun() throws Exception {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        Scheduler.Task task = scheduler.schedule(cancelled::countDown, 100, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(task.cancel());
+        Assertions.assertFalse(task.cancel());
+
+        CountDownLatch latch = new CountDownLatch(1);
+        scheduler.schedule(latch::countDown, 200, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, cancelled.getCount());
+    }
+
+    @Test
+    public void testIdleSchedulerRunsNewTask() throws Exception {
+        // Let the scheduler run out of tasks, so that it parks.
+        CountDownLatch cancelled = new CountDownLatch(1);
+        scheduler.schedule(cancelled::countDown, 50, TimeUnit.MILLISECONDS).cancel();
+        Thread.sleep(100);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        scheduler.schedule(latch::countDown, 10, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, cancelled.getCount());
+    }
+
+    @Test
+    public void testScheduleAfterStopIsRejected() throws Exception {
+        scheduler.stop();
+        Assertions.assertThrows(RejectedExecutionException.class, () -> scheduler.schedule(() -> {}, 1, TimeUnit.SECONDS));
+    }
+}
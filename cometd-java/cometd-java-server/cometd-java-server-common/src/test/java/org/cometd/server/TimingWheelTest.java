@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TimingWheelTest {
+    @Test
+    public void testItemsAreDueAtTheirDeadline() {
+        long tick = TimeUnit.MILLISECONDS.toNanos(1);
+        TimingWheel<Integer> wheel = new TimingWheel<>(1, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+
+        // Deadlines spanning all the levels of the wheel, and beyond.
+        Random random = new Random();
+        int count = 2000;
+        long[] deadlines = new long[count];
+        for (int i = 0; i < count; ++i) {
+            long delay = (long)Math.pow(10, random.nextDouble() * 8);
+            deadlines[i] = start + TimeUnit.MILLISECONDS.toNanos(delay);
+            wheel.schedule(i, deadlines[i]);
+        }
+        // A deadline in the past is due immediately.
+        wheel.schedule(-1, start - TimeUnit.SECONDS.toNanos(1));
+
+        Set<Integer> due = new HashSet<>();
+        long previous = start;
+        long now = start;
+        while (due.size() < count + 1) {
+            long current = now;
+            long before = previous;
+            wheel.advance(current, (item, deadline) -> {
+                Assertions.assertTrue(due.add(item));
+                if (item >= 0) {
+                    Assertions.assertEquals(deadlines[item], deadline);
+                    // Not due too early, and not later than the advance that reaches it.
+                    Assertions.assertTrue(deadline - current <= 0, "item " + item + " due early");
+                    Assertions.assertTrue(deadline - before > -tick, "item " + item + " due late");
+                }
+            });
+            previous = now;
+            // Advance by increasing steps to cover the whole wheel quickly.
+            now += Math.max(tick, (now - start) / 100);
+            if (now - start > TimeUnit.DAYS.toNanos(365)) {
+                break;
+            }
+        }
+        Assertions.assertEquals(count + 1, due.size());
+    }
+
+    @Test
+    public void testScheduleWhileAdvancing() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, TimeUnit.MILLISECONDS);
+        long now = System.nanoTime();
+        wheel.schedule("a", now);
+
+        List<String> due = new ArrayList<>();
+        long later = now + TimeUnit.MILLISECONDS.toNanos(50);
+        wheel.advance(now + TimeUnit.MILLISECONDS.toNanos(10), (item, deadline) -> {
+            due.add(item);
+            // Rescheduling from the consumer is allowed.
+            wheel.schedule("b", later);
+        });
+        Assertions.assertEquals(1, due.size());
+
+        wheel.advance(now + TimeUnit.MILLISECONDS.toNanos(30), (item, deadline) -> due.add(item));
+        Assertions.assertEquals(1, due.size());
+
+        wheel.advance(later + TimeUnit.MILLISECONDS.toNanos(10), (item, deadline) -> due.add(item));
+        Assertions.assertEquals(2, due.size());
+        Assertions.assertEquals("b", due.get(1));
+    }
+
+    @Test
+    public void testAdvanceAfterLongIdlePeriod() {
+        // With a tick of 1 ns, visiting each tick of the idle
+        // period would take far longer than the test timeout.
+        TimingWheel<String> wheel = new TimingWheel<>(1, TimeUnit.NANOSECONDS);
+        long now = System.nanoTime();
+        wheel.schedule("a", now + TimeUnit.MILLISECONDS.toNanos(1));
+        wheel.advance(now, (item, deadline) -> Assertions.fail());
+
+        List<String> due = new ArrayList<>();
+        long later = now + TimeUnit.HOURS.toNanos(1);
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            // The item stored in the wheel is due, and a new item is
+            // stored relative to the current time, not to the idle time.
+            wheel.schedule("b", later + TimeUnit.HOURS.toNanos(1));
+            wheel.advance(later, (item, deadline) -> due.add(item));
+            Assertions.assertEquals(Collections.singletonList("a"), due);
+            wheel.advance(later + TimeUnit.MINUTES.toNanos(59), (item, deadline) -> due.add(item));
+            Assertions.assertEquals(1, due.size());
+            wheel.advance(later + TimeUnit.HOURS.toNanos(1), (item, deadline) -> due.add(item));
+        });
+        Assertions.assertEquals(Arrays.asList("a", "b"), due);
+    }
+
+    @Test
+    public void testCancelledItemsAreNotDue() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, TimeUnit.MILLISECONDS);
+        long now = System.nanoTime();
+        // Cancelled before and after being stored into the wheel,
+        // and in a slot of a higher level, that must cascade.
+        TimingWheel.Entry<String> pending = wheel.schedule("a", now + TimeUnit.MILLISECONDS.toNanos(10));
+        wheel.schedule("b", now + TimeUnit.MILLISECONDS.toNanos(20));
+        TimingWheel.Entry<String> stored = wheel.schedule("c", now + TimeUnit.MILLISECONDS.toNanos(1000));
+        pending.cancel();
+        wheel.advance(now, (item, deadline) -> Assertions.fail());
+        stored.cancel();
+
+        List<String> due = new ArrayList<>();
+        wheel.advance(now + TimeUnit.SECONDS.toNanos(2), (item, deadline) -> due.add(item));
+        Assertions.assertEquals(Collections.singletonList("b"), due);
+    }
+}
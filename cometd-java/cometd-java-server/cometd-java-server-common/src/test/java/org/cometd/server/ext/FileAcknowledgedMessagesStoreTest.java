@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.stream.Stream;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerMessageImpl;
+import org.cometd.server.ServerSessionImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileAcknowledgedMessagesStoreTest {
+    @TempDir
+    public Path directory;
+    private BayeuxServerImpl bayeux;
+
+    @BeforeEach
+    public void prepare() throws Exception {
+        bayeux = new BayeuxServerImpl();
+        bayeux.start();
+    }
+
+    @AfterEach
+    public void dispose() throws Exception {
+        bayeux.stop();
+    }
+
+    @Test
+    public void testOfferExportClearAcrossSegments() throws Exception {
+        Path file = directory.resolve("test.ack");
+        FileAcknowledgedMessagesStore store = new FileAcknowledgedMessagesStore(file, bayeux, 128);
+
+        long batch = store.getBatch();
+        // Enough messages to span several segments.
+        for (int i = 0; i < 10; ++i) {
+            Assertions.assertTrue(store.offer(newMessage("A" + i)));
+        }
+        store.nextBatch();
+        Assertions.assertTrue(store.offer(newMessage("B")));
+        Assertions.assertEquals(11, store.size());
+
+        Queue<ServerMessage> target = new ArrayDeque<>();
+        store.exportMessagesToBatch(target, batch);
+        Assertions.assertEquals(10, target.size());
+        Assertions.assertEquals("A0", target.peek().getData());
+
+        store.clearToBatch(batch);
+        Assertions.assertEquals(1, store.size());
+        Assertions.assertEquals(Arrays.asList("B"), export(store, store.getBatch()));
+
+        // The file is reused after all messages are acknowledged.
+        store.clearToBatch(store.getBatch());
+        Assertions.assertEquals(0, store.size());
+        Assertions.assertTrue(store.offer(newMessage("C")));
+        Assertions.assertEquals(Arrays.asList("C"), export(store, store.getBatch()));
+
+        // The file is deleted when closed.
+        store.close();
+        Assertions.assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testRecoverFromExistingFile() throws Exception {
+        Path file = directory.resolve("test.ack");
+        FileAcknowledgedMessagesStore store = new FileAcknowledgedMessagesStore(file, bayeux, 128);
+
+        store.offer(newMessage("A"));
+        long batch = store.getBatch();
+        store.nextBatch();
+        store.offer(newMessage("B"));
+        store.nextBatch();
+        store.offer(newMessage("C"));
+        store.clearToBatch(batch);
+        long lastBatch = store.getBatch();
+
+        // Simulate a restart: the file is opened again without closing the store.
+        FileAcknowledgedMessagesStore recovered = new FileAcknowledgedMessagesStore(file, bayeux, 128);
+        Assertions.assertEquals(lastBatch, recovered.getBatch());
+        Assertions.assertEquals(2, recovered.size());
+        Assertions.assertEquals(Arrays.asList("B"), export(recovered, lastBatch - 1));
+        Assertions.assertEquals(Arrays.asList("B", "C"), export(recovered, lastBatch));
+
+        // Recovered stores keep working.
+        recovered.nextBatch();
+        recovered.offer(newMessage("D"));
+        recovered.clearToBatch(lastBatch - 1);
+        Assertions.assertEquals(Arrays.asList("C", "D"), export(recovered, recovered.getBatch()));
+
+        recovered.close();
+        Assertions.assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testAcknowledgedRecordsAreCompacted() throws Exception {
+        Path file = directory.resolve("test.ack");
+        int segmentSize = 128;
+        FileAcknowledgedMessagesStore store = new FileAcknowledgedMessagesStore(file, bayeux, segmentSize);
+
+        // Steady traffic: each batch is acknowledged after the next one is sent,
+        // so the file never becomes empty and is never reused from the beginning.
+        int count = 100;
+        for (int i = 0; i < count; ++i) {
+            Assertions.assertTrue(store.offer(newMessage("M" + i)));
+            store.nextBatch();
+            store.clearToBatch(store.getBatch() - 2);
+            Assertions.assertEquals(1, store.size());
+        }
+
+        Assertions.assertTrue(Files.size(file) < 10 * segmentSize, "size " + Files.size(file));
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertEquals(1, files.count());
+        }
+        Assertions.assertEquals(Arrays.asList("M" + (count - 1)), export(store, store.getBatch()));
+
+        // The compacted file can be recovered.
+        FileAcknowledgedMessagesStore recovered = new FileAcknowledgedMessagesStore(file, bayeux, segmentSize);
+        Assertions.assertEquals(store.getBatch(), recovered.getBatch());
+        Assertions.assertEquals(Arrays.asList("M" + (count - 1)), export(recovered, recovered.getBatch()));
+        recovered.close();
+    }
+
+    @Test
+    public void testInvalidRecordIsSkipped() throws Exception {
+        Path file = directory.resolve("test.ack");
+        FileAcknowledgedMessagesStore store = new FileAcknowledgedMessagesStore(file, bayeux, 128);
+        store.offer(newMessage("A"));
+        store.offer(newMessage("B"));
+        store.offer(newMessage("C"));
+
+        // Corrupt the record of the second message.
+        byte[] bytes = Files.readAllBytes(file);
+        byte[] data = "\"data\":\"B\"".getBytes(StandardCharsets.UTF_8);
+        int index = indexOf(bytes, data);
+        Assertions.assertTrue(index > 0);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'}'}), index + data.length - 3);
+        }
+
+        Queue<ServerMessage> target = new ArrayDeque<>();
+        store.exportMessagesToBatch(target, store.getBatch());
+        List<Object> result = new ArrayList<>();
+        for (ServerMessage message : target) {
+            result.add(message.getData());
+            // Messages are frozen with the stored bytes.
+            Assertions.assertNotNull(((ServerMessageImpl)message).getJSONBytes());
+        }
+        Assertions.assertEquals(Arrays.asList("A", "C"), result);
+
+        store.close();
+    }
+
+    @Test
+    public void testFactoryReleasesStoresOnStopAndDeletesOrphanFiles() throws Exception {
+        FileAcknowledgedMessagesStore.Factory factory = new FileAcknowledgedMessagesStore.Factory(directory);
+        Path orphan = Files.createFile(directory.resolve("orphan.ack"));
+        Path other = Files.createFile(directory.resolve("other.txt"));
+
+        ServerSessionImpl session = bayeux.newServerSession();
+        AcknowledgedMessagesStore store = factory.newStore(session);
+        Assertions.assertTrue(store.offer(newMessage("A")));
+        Path file = directory.resolve(session.getId() + ".ack");
+        Assertions.assertTrue(Files.exists(file));
+
+        // Only the store files not used by a store are deleted.
+        Assertions.assertEquals(1, factory.deleteOrphanFiles());
+        Assertions.assertFalse(Files.exists(orphan));
+        Assertions.assertTrue(Files.exists(other));
+        Assertions.assertTrue(Files.exists(file));
+
+        // Stopping the server releases the store, but keeps its file.
+        ServerMessage.Mutable message = newMessage("B");
+        bayeux.stop();
+        Assertions.assertFalse(store.offer(message));
+        Assertions.assertTrue(Files.exists(file));
+
+        // The file of the released store is now an orphan.
+        Assertions.assertEquals(1, factory.deleteOrphanFiles());
+        Assertions.assertFalse(Files.exists(file));
+    }
+
+    private static int indexOf(byte[] bytes, byte[] target) {
+        for (int i = 0; i <= bytes.length - target.length; ++i) {
+            int j = 0;
+            while (j < target.length && bytes[i + j] == target[j]) {
+                ++j;
+            }
+            if (j == target.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private ServerMessage.Mutable newMessage(String data) {
+        ServerMessage.Mutable message = bayeux.newMessage();
+        message.setChannel("/test");
+        message.setData(data);
+        return message;
+    }
+
+    private List<Object> export(AcknowledgedMessagesStore store, long batch) {
+        Queue<ServerMessage> target = new ArrayDeque<>();
+        store.exportMessagesToBatch(target, batch);
+        List<Object> result = new ArrayList<>();
+        for (ServerMessage message : target) {
+            result.add(message.getData());
+        }
+        return result;
+    }
+}
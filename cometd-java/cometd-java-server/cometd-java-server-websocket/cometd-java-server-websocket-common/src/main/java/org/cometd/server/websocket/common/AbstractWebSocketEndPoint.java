@@ -18,6 +18,8 @@ package org.cometd.server.websocket.common;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -35,10 +37,12 @@ import org.cometd.bayeux.server.BayeuxContext;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.common.AsyncFoldLeft;
+import org.cometd.common.JSONContext;
 import org.cometd.server.AbstractServerTransport;
 import org.cometd.server.ServerMessageImpl;
 import org.cometd.server.ServerSessionImpl;
 import org.eclipse.jetty.io.QuietException;
+import org.eclipse.jetty.util.ByteArrayOutputStream2;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IteratingCallback;
 import org.eclipse.jetty.util.thread.Scheduler;
@@ -52,6 +56,8 @@ public abstract class AbstractWebSocketEndPoint {
     private final AbstractWebSocketTransport _transport;
     private final BayeuxContext _bayeuxContext;
     private ServerSessionImpl _session;
+    private JSONContext.AsyncParser _parser;
+    private int _parsed;
 
     protected AbstractWebSocketEndPoint(AbstractWebSocketTransport transport, BayeuxContext context) {
         this._transport = transport;
@@ -60,6 +66,31 @@ public abstract class AbstractWebSocketEndPoint {
 
     protected abstract void send(ServerSession session, String data, Callback callback);
 
+    /**
+     * <p>Returns whether the binary WebSocket subprotocol has been negotiated
+     * for this endpoint, so that messages travel in binary frames.</p>
+     *
+     * @return whether messages are exchanged in binary frames
+     * @see AbstractWebSocketTransport#getBinaryProtocol()
+     */
+    protected boolean isBinary() {
+        return false;
+    }
+
+    /**
+     * <p>Sends the given bytes, encoded by the binary context, as a binary frame.</p>
+     * <p>This implementation fails the callback; subclasses that support
+     * binary frames must override this method.</p>
+     *
+     * @param session  the session the frame is sent to
+     * @param data     the bytes to send
+     * @param callback the callback notified when the send completes
+     * @see #isBinary()
+     */
+    protected void sendBinary(ServerSession session, ByteBuffer data, Callback callback) {
+        callback.failed(new UnsupportedOperationException("Binary frames not supported by " + this));
+    }
+
     public abstract void close(int code, String reason);
 
     public void onMessage(String data, Promise<Void> p) {
@@ -90,6 +121,110 @@ public abstract class AbstractWebSocketEndPoint {
         }
     }
 
+    /**
+     * <p>Parses a fragment of a text message as it arrives, without converting it to a string.</p>
+     * <p>The fragments of a message are fed to the same {@link JSONContext.AsyncParser}
+     * until the last fragment arrives, and only then the messages are processed.</p>
+     * <p>Fragments of the same text message must be passed in order and one at a time,
+     * waiting for the promise to complete before passing the next fragment.</p>
+     *
+     * @param fragment the bytes of the fragment
+     * @param last     whether the fragment is the last of the text message
+     * @param p        the promise to complete when the fragment has been processed
+     * @see AbstractWebSocketTransport#isIncrementalParsing()
+     */
+    public void onMessage(ByteBuffer fragment, boolean last, Promise<Void> p) {
+        Promise<Void> promise = Promise.from(p::succeed, failure -> {
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("", failure);
+            }
+            close(1011, failure.toString());
+            p.fail(failure);
+        });
+
+        try {
+            JSONContext.AsyncParser parser = _parser;
+            if (parser == null) {
+                parser = _parser = _transport.newAsyncParser();
+                _parsed = 0;
+            }
+
+            int maxMessageSize = _transport.getMaxMessageSize();
+            if (maxMessageSize > 0) {
+                _parsed += fragment.remaining();
+                if (_parsed > maxMessageSize) {
+                    _parser = null;
+                    throw new IOException("Max message size " + maxMessageSize + " exceeded");
+                }
+            }
+
+            List<ServerMessage.Mutable> messages = null;
+            try {
+                parser.parse(fragment);
+                if (last) {
+                    _parser = null;
+                    messages = parser.complete();
+                }
+            } catch (RuntimeException x) {
+                _parser = null;
+                close(1011, x.toString());
+                _logger.warn("Error parsing JSON on {}", this, x);
+                promise.succeed(null);
+                return;
+            }
+
+            if (last) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Parsed {} messages on {}", messages == null ? -1 : messages.size(), this);
+                }
+                if (messages != null) {
+                    processMessages(messages.toArray(new ServerMessage.Mutable[0]), promise);
+                } else {
+                    promise.succeed(null);
+                }
+            } else {
+                promise.succeed(null);
+            }
+        } catch (Throwable x) {
+            promise.fail(x);
+        }
+    }
+
+    /**
+     * <p>Parses the messages of a whole binary message with the binary context.</p>
+     *
+     * @param data the bytes of the binary message
+     * @param p    the promise to complete when the messages have been processed
+     * @see #isBinary()
+     */
+    public void onBinaryMessage(ByteBuffer data, Promise<Void> p) {
+        Promise<Void> promise = Promise.from(p::succeed, failure -> {
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("", failure);
+            }
+            close(1011, failure.toString());
+            p.fail(failure);
+        });
+
+        try {
+            ServerMessage.Mutable[] messages = _transport.getBinaryContext().parse(data);
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Parsed {} binary messages on {}", messages == null ? -1 : messages.length, this);
+            }
+            if (messages != null) {
+                processMessages(messages, promise);
+            } else {
+                promise.succeed(null);
+            }
+        } catch (ParseException x) {
+            close(1011, x.toString());
+            _logger.warn("Error parsing binary messages on {}", this, x);
+            promise.succeed(null);
+        } catch (Throwable x) {
+            promise.fail(x);
+        }
+    }
+
     public void onClose(int code, String reason) {
         if (terminated.compareAndSet(false, true)) {
             // There is no need to call BayeuxServerImpl.removeServerSession(),
@@ -165,7 +300,7 @@ public abstract class AbstractWebSocketEndPoint {
 
         ServerSessionImpl session = context.session;
         if (session != null) {
-            session.setServerTransport(_transport);
+            session.setServerTransport(_transport, isBinary());
         }
 
         String channel = message.getChannel();
@@ -184,7 +319,7 @@ public abstract class AbstractWebSocketEndPoint {
             // If the endpoint changed, we want to install a scheduler for the current endpoint,
             // so that server-side messages can be delivered without waiting for a /meta/connect.
             if (session != null && session.updateServerEndPoint(this)) {
-                session.setScheduler(new WebSocketScheduler(context, message, 0));
+                session.setScheduler(new WebSocketScheduler(context, message, 0, false));
             }
             if (Channel.META_CONNECT.equals(channel)) {
                 processMetaConnect(context, message, Promise.from(proceed -> {
@@ -266,7 +401,15 @@ public abstract class AbstractWebSocketEndPoint {
             _logger.debug("Suspended {} on {}", message, this);
         }
         context.session.notifySuspended(message, timeout);
-        return new WebSocketScheduler(context, message, timeout);
+        return new WebSocketScheduler(context, message, timeout, isPingLiveness(message));
+    }
+
+    private boolean isPingLiveness(ServerMessage message) {
+        if (_transport.getPingInterval() <= 0) {
+            return false;
+        }
+        Map<String, Object> advice = message.getAdvice();
+        return advice != null && Boolean.TRUE.equals(advice.get(AbstractWebSocketTransport.PING_FIELD));
     }
 
     private void resume(Context context, ServerMessage.Mutable message, Promise<Void> promise) {
@@ -281,6 +424,9 @@ public abstract class AbstractWebSocketEndPoint {
                 reply.getAdvice(true).put(Message.RECONNECT_FIELD, Message.RECONNECT_NONE_VALUE);
             }
         }
+        if (isPingLiveness(message)) {
+            reply.getAdvice(true).put(AbstractWebSocketTransport.PING_FIELD, _transport.getPingInterval());
+        }
         _transport.processReply(session, reply, Promise.from(r -> {
             if (r != null) {
                 context.replies.add(r);
@@ -318,10 +464,6 @@ public abstract class AbstractWebSocketEndPoint {
     protected void writeComplete(Context context, List<ServerMessage> messages) {
     }
 
-    private String toJSON(ServerMessage message) {
-        return _transport.toJSON(message);
-    }
-
     @Override
     public String toString() {
         return String.format("%s@%x", getClass().getSimpleName(), hashCode());
@@ -332,10 +474,14 @@ public abstract class AbstractWebSocketEndPoint {
         private final ServerMessage.Mutable message;
         private final AtomicMarkableReference<Scheduler.Task> taskRef;
         private final AtomicBoolean flushing = new AtomicBoolean();
+        private final long timeout;
+        private final boolean hold;
 
-        public WebSocketScheduler(Context context, ServerMessage.Mutable message, long timeout) {
+        public WebSocketScheduler(Context context, ServerMessage.Mutable message, long timeout, boolean hold) {
             this.context = context;
             this.message = message;
+            this.timeout = timeout;
+            this.hold = hold;
             this.taskRef = new AtomicMarkableReference<>(timeout > 0 ? _transport.getBayeux().schedule(this, timeout) : null, true);
             context.metaConnectCycle = _transport.newMetaConnectCycle();
         }
@@ -413,6 +559,9 @@ public abstract class AbstractWebSocketEndPoint {
         @Override
         public void run() {
             // Executed when the /meta/connect timeout expires.
+            if (hold && holdTimeout()) {
+                return;
+            }
             if (cancelTimeout(false)) {
                 if (_logger.isDebugEnabled()) {
                     _logger.debug("Timing out suspended {} for {} on {}", message, context.session, AbstractWebSocketEndPoint.this);
@@ -422,6 +571,36 @@ public abstract class AbstractWebSocketEndPoint {
             }
         }
 
+        /**
+         * <p>With ping liveness, the client keeps the connection alive with
+         * WebSocket pings, so there is no need to reply to the /meta/connect
+         * just because its timeout expired, unless the reply has something
+         * to tell the client: the timeout is instead re-armed.</p>
+         *
+         * @return whether the /meta/connect is held for another timeout
+         */
+        private boolean holdTimeout() {
+            ServerSessionImpl session = context.session;
+            if (terminated.get() || session.isTerminated() || session.hasAdvice(_transport)) {
+                return false;
+            }
+            Scheduler.Task task = taskRef.getReference();
+            boolean enabled = taskRef.isMarked();
+            if (task == null) {
+                return false;
+            }
+            Scheduler.Task newTask = _transport.getBayeux().schedule(this, timeout);
+            if (taskRef.compareAndSet(task, newTask, enabled, enabled)) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Holding suspended {} for {} on {}", message, session, AbstractWebSocketEndPoint.this);
+                }
+                return true;
+            }
+            // Cancelled concurrently.
+            newTask.cancel();
+            return false;
+        }
+
         private boolean cancelTimeout(boolean disable) {
             while (true) {
                 Scheduler.Task task = taskRef.getReference();
@@ -461,6 +640,8 @@ public abstract class AbstractWebSocketEndPoint {
         private final Queue<Entry> _entries = new ArrayDeque<>();
         private State _state = State.IDLE;
         private StringBuilder _buffer;
+        private ByteArrayOutputStream2 _bytes;
+        private List<ServerMessage.Mutable> _batch;
         private Entry _entry;
         private int _messageIndex;
         private int _replyIndex;
@@ -482,7 +663,7 @@ public abstract class AbstractWebSocketEndPoint {
         }
 
         @Override
-        protected Action process() {
+        protected Action process() throws Throwable {
             while (true) {
                 switch (_state) {
                     case IDLE: {
@@ -496,7 +677,12 @@ public abstract class AbstractWebSocketEndPoint {
                             return Action.IDLE;
                         }
                         _state = State.HANDSHAKE;
-                        _buffer = new StringBuilder(256);
+                        if (isBinary()) {
+                            _bytes = new ByteArrayOutputStream2(256);
+                            _batch = new ArrayList<>();
+                        } else {
+                            _buffer = new StringBuilder(256);
+                        }
                         break;
                     }
                     case HANDSHAKE: {
@@ -513,12 +699,10 @@ public abstract class AbstractWebSocketEndPoint {
                                     reply.put("x-messages", queue.size());
                                 }
                                 _transport.getBayeux().freeze(reply);
-                                _buffer.setLength(0);
-                                _buffer.append("[");
-                                _buffer.append(toJSON(reply));
-                                _buffer.append("]");
+                                begin();
+                                append(reply);
                                 ++_replyIndex;
-                                AbstractWebSocketEndPoint.this.send(_session, _buffer.toString(), this);
+                                end();
                                 return Action.SCHEDULED;
                             }
                         }
@@ -533,21 +717,40 @@ public abstract class AbstractWebSocketEndPoint {
                             if (_logger.isDebugEnabled()) {
                                 _logger.debug("Processing messages, batch size {}: {}", batchSize, messages);
                             }
-                            _buffer.setLength(0);
-                            _buffer.append("[");
-                            boolean comma = false;
                             int endIndex = Math.min(size, _messageIndex + batchSize);
+                            if (endIndex - _messageIndex == 1 && _transport.isSharedFrames() && _batch == null) {
+                                if (sendSharedFrame(messages.get(_messageIndex))) {
+                                    ++_messageIndex;
+                                    return Action.SCHEDULED;
+                                }
+                            }
+                            int maxBytes = _transport.getBytesPerFrame();
+                            begin();
+                            boolean comma = false;
+                            int frameBytes = 2;
                             while (_messageIndex < endIndex) {
                                 ServerMessage message = messages.get(_messageIndex);
+                                if (maxBytes > 0) {
+                                    int messageBytes = jsonSize(message);
+                                    if (comma) {
+                                        // Stream the remaining messages in the next
+                                        // frames, so that the frame size is bounded;
+                                        // a larger message is sent in its own frame.
+                                        if (frameBytes + 1 + messageBytes > maxBytes) {
+                                            break;
+                                        }
+                                        ++frameBytes;
+                                    }
+                                    frameBytes += messageBytes;
+                                }
                                 if (comma) {
-                                    _buffer.append(",");
+                                    comma();
                                 }
                                 comma = true;
-                                _buffer.append(toJSON(message));
+                                append(message);
                                 ++_messageIndex;
                             }
-                            _buffer.append("]");
-                            AbstractWebSocketEndPoint.this.send(_session, _buffer.toString(), this);
+                            end();
                             return Action.SCHEDULED;
                         }
                         // Start the interval timeout after writing the
@@ -563,21 +766,19 @@ public abstract class AbstractWebSocketEndPoint {
                             if (_logger.isDebugEnabled()) {
                                 _logger.debug("Processing replies {}", replies);
                             }
-                            _buffer.setLength(0);
-                            _buffer.append("[");
+                            begin();
                             boolean comma = false;
                             while (_replyIndex < size) {
                                 ServerMessage.Mutable reply = replies.get(_replyIndex);
                                 _transport.getBayeux().freeze(reply);
                                 if (comma) {
-                                    _buffer.append(",");
+                                    comma();
                                 }
                                 comma = true;
-                                _buffer.append(toJSON(reply));
+                                append(reply);
                                 ++_replyIndex;
                             }
-                            _buffer.append("]");
-                            AbstractWebSocketEndPoint.this.send(_session, _buffer.toString(), this);
+                            end();
                             return Action.SCHEDULED;
                         }
                         _state = State.COMPLETE;
@@ -586,8 +787,10 @@ public abstract class AbstractWebSocketEndPoint {
                     case COMPLETE: {
                         Entry entry = _entry;
                         _state = State.IDLE;
-                        // Do not keep the buffer around while we are idle.
+                        // Do not keep the buffers around while we are idle.
                         _buffer = null;
+                        _bytes = null;
+                        _batch = null;
                         _entry = null;
                         _messageIndex = 0;
                         _replyIndex = 0;
@@ -601,6 +804,70 @@ public abstract class AbstractWebSocketEndPoint {
             }
         }
 
+        private void begin() {
+            if (_batch != null) {
+                _batch.clear();
+            } else {
+                _buffer.setLength(0);
+                _buffer.append("[");
+            }
+        }
+
+        private void comma() {
+            // Binary formats have their own separators.
+            if (_batch == null) {
+                _buffer.append(",");
+            }
+        }
+
+        private void append(ServerMessage message) {
+            if (_batch != null) {
+                _batch.add(message instanceof ServerMessage.Mutable ? (ServerMessage.Mutable)message : _transport.getBayeux().newMessage(message));
+            } else {
+                _buffer.append(_transport.toJSON(message));
+            }
+        }
+
+        private int jsonSize(ServerMessage message) {
+            // Binary frames are only generated in end(), so they are
+            // measured by the JSON size of their messages as well.
+            if (message instanceof ServerMessageImpl) {
+                int size = ((ServerMessageImpl)message).getJSONSize();
+                if (size > 0) {
+                    return size;
+                }
+            }
+            // Messages that are not frozen are rare, so
+            // they are generated and encoded to be measured.
+            return _transport.toJSON(message).getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        private void end() throws IOException {
+            if (_batch != null) {
+                _bytes.reset();
+                _transport.getBinaryContext().generate(_batch, _bytes);
+                ByteBuffer frame = ByteBuffer.wrap(_bytes.getBuf(), 0, _bytes.getCount());
+                AbstractWebSocketEndPoint.this.sendBinary(_session, frame, this);
+            } else {
+                _buffer.append("]");
+                AbstractWebSocketEndPoint.this.send(_session, _buffer.toString(), this);
+            }
+        }
+
+        private boolean sendSharedFrame(ServerMessage message) {
+            // The same message instance is delivered to all subscribers,
+            // unless an extension replaced it, so its frame is shared.
+            if (!(message instanceof ServerMessageImpl)) {
+                return false;
+            }
+            String frame = ((ServerMessageImpl)message).getJSONArray();
+            if (frame == null) {
+                return false;
+            }
+            AbstractWebSocketEndPoint.this.send(_session, frame, this);
+            return true;
+        }
+
         @Override
         protected void onCompleteFailure(Throwable x) {
             Entry entry;
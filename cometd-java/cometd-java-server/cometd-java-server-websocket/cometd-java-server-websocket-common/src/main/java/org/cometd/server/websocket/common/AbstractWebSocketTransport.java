@@ -18,23 +18,40 @@ package org.cometd.server.websocket.common;
 import java.util.ArrayList;
 import java.util.List;
 import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.common.BufferingJSONAsyncParser;
+import org.cometd.common.JSONContext;
 import org.cometd.server.AbstractServerTransport;
 import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.BinaryContextServer;
+import org.cometd.server.JSONContextServer;
 
 public abstract class AbstractWebSocketTransport extends AbstractServerTransport {
     public static final String NAME = "websocket";
     public static final String PREFIX = "ws";
     public static final String PROTOCOL_OPTION = "protocol";
     public static final String MESSAGES_PER_FRAME_OPTION = "messagesPerFrame";
+    public static final String BYTES_PER_FRAME_OPTION = "bytesPerFrame";
     public static final String BUFFER_SIZE_OPTION = "bufferSize";
     public static final String IDLE_TIMEOUT_OPTION = "idleTimeout";
     public static final String COMETD_URL_MAPPING_OPTION = "cometdURLMapping";
     public static final String REQUIRE_HANDSHAKE_PER_CONNECTION_OPTION = "requireHandshakePerConnection";
     public static final String ENABLE_EXTENSION_PREFIX_OPTION = "enableExtension.";
+    public static final String SHARED_FRAMES_OPTION = "sharedFrames";
+    public static final String INCREMENTAL_PARSING_OPTION = "incrementalParsing";
+    public static final String BINARY_PROTOCOL_OPTION = "binaryProtocol";
+    public static final String BINARY_CONTEXT_OPTION = "binaryContext";
+    public static final String PING_INTERVAL_OPTION = "pingInterval";
+    public static final String PING_FIELD = "ping";
 
     private String _protocol;
     private int _messagesPerFrame;
+    private int _bytesPerFrame;
     private boolean _requireHandshakePerConnection;
+    private boolean _sharedFrames;
+    private boolean _incrementalParsing;
+    private String _binaryProtocol;
+    private BinaryContextServer _binaryContext;
+    private long _pingInterval;
 
     protected AbstractWebSocketTransport(BayeuxServerImpl bayeux) {
         super(bayeux, NAME);
@@ -46,7 +63,34 @@ public abstract class AbstractWebSocketTransport extends AbstractServerTransport
         super.init();
         _protocol = getOption(PROTOCOL_OPTION, null);
         _messagesPerFrame = getOption(MESSAGES_PER_FRAME_OPTION, 1);
+        _bytesPerFrame = getOption(BYTES_PER_FRAME_OPTION, 0);
         _requireHandshakePerConnection = getOption(REQUIRE_HANDSHAKE_PER_CONNECTION_OPTION, false);
+        _sharedFrames = getOption(SHARED_FRAMES_OPTION, false);
+        _incrementalParsing = getOption(INCREMENTAL_PARSING_OPTION, false);
+        _binaryProtocol = getOption(BINARY_PROTOCOL_OPTION, null);
+        _binaryContext = _binaryProtocol == null ? null : newBinaryContext();
+        _pingInterval = getOption(PING_INTERVAL_OPTION, 0L);
+    }
+
+    private BinaryContextServer newBinaryContext() {
+        Object option = getOption(BINARY_CONTEXT_OPTION);
+        if (option instanceof BinaryContextServer) {
+            return (BinaryContextServer)option;
+        }
+        String className = option == null ? "org.cometd.server.JacksonCBORContextServer" : option.toString();
+        try {
+            Class<?> binaryContextClass = Thread.currentThread().getContextClassLoader().loadClass(className);
+            if (BinaryContextServer.class.isAssignableFrom(binaryContextClass)) {
+                return (BinaryContextServer)binaryContextClass.getConstructor().newInstance();
+            }
+        } catch (Throwable x) {
+            if (option == null && (x instanceof LinkageError || x.getCause() instanceof LinkageError)) {
+                // The default implementation needs the optional jackson-dataformat-cbor.
+                throw new IllegalStateException(className + " requires jackson-dataformat-cbor in the classpath", x);
+            }
+            throw new IllegalArgumentException("Invalid " + BinaryContextServer.class.getName() + " implementation class " + className, x);
+        }
+        throw new IllegalArgumentException("Invalid " + BinaryContextServer.class.getName() + " implementation class " + className);
     }
 
     public String getProtocol() {
@@ -57,10 +101,101 @@ public abstract class AbstractWebSocketTransport extends AbstractServerTransport
         return _messagesPerFrame;
     }
 
+    /**
+     * <p>Returns the max size, in bytes, of a frame carrying messages;
+     * the messages that do not fit are written in the next frames.</p>
+     * <p>The UTF-8 size of each message is checked before it is appended,
+     * so a frame exceeds this size only when it carries a single message
+     * that is larger than this size; frames are closed also when they
+     * reach the {@link #getMessagesPerFrame() messages per frame}.
+     * Only one frame is generated at a time, so the memory needed to
+     * write a large queue of messages is bounded by this size rather than
+     * by the queue size.</p>
+     * <p>Frames of the {@link #getBinaryProtocol() binary protocol} are
+     * bounded by the JSON size of their messages, since the binary size is
+     * only known once the frame is generated.</p>
+     *
+     * @return the max frame size in bytes, or a non-positive value for no limit
+     */
+    public int getBytesPerFrame() {
+        return _bytesPerFrame;
+    }
+
     public boolean isRequireHandshakePerConnection() {
         return _requireHandshakePerConnection;
     }
 
+    /**
+     * <p>Returns whether frames that contain a single message are built
+     * only once per message, and the same frame text is written to all the
+     * sessions the message is delivered to, rather than being built for
+     * each session.</p>
+     * <p>The frame text is kept with the message until the message is
+     * discarded, and the WebSocket implementation still encodes it to
+     * UTF-8 for each session, since the WebSocket APIs do not allow
+     * to write pre-encoded text frames.</p>
+     *
+     * @return whether single message frames are shared
+     */
+    public boolean isSharedFrames() {
+        return _sharedFrames;
+    }
+
+    /**
+     * <p>Returns whether the bytes of inbound text frames are fed to a
+     * {@link JSONContext.AsyncParser} as they arrive, rather than being
+     * aggregated and converted to a string before being parsed.</p>
+     *
+     * @return whether inbound frames are parsed incrementally
+     * @see AbstractWebSocketEndPoint#onMessage(java.nio.ByteBuffer, boolean, org.cometd.bayeux.Promise)
+     */
+    public boolean isIncrementalParsing() {
+        return _incrementalParsing;
+    }
+
+    /**
+     * <p>Returns the name of the WebSocket subprotocol that, when offered by
+     * a client, makes messages travel in binary frames encoded by the
+     * {@link #getBinaryContext() binary context}, rather than as JSON text.</p>
+     *
+     * @return the name of the binary WebSocket subprotocol, or null if binary frames are disabled
+     */
+    public String getBinaryProtocol() {
+        return _binaryProtocol;
+    }
+
+    /**
+     * @return the context that encodes messages in binary frames, or null if binary frames are disabled
+     * @see #getBinaryProtocol()
+     */
+    public BinaryContextServer getBinaryContext() {
+        return _binaryContext;
+    }
+
+    /**
+     * <p>Returns the interval, in milliseconds, at which clients that request
+     * ping liveness must send WebSocket pings.</p>
+     * <p>For those clients, an idle {@code /meta/connect} is not replied when
+     * its timeout expires, but held until there is something to reply, such
+     * as an advice change, while the pings keep the connection alive.
+     * Dead connections are detected by the WebSocket idle timeout, that must
+     * be larger than the ping interval.</p>
+     *
+     * @return the ping interval, or a non-positive value if ping liveness is disabled
+     */
+    public long getPingInterval() {
+        return _pingInterval;
+    }
+
+    protected JSONContext.AsyncParser newAsyncParser() {
+        JSONContextServer jsonContext = getJSONContextServer();
+        JSONContext.AsyncParser parser = jsonContext.newAsyncParser();
+        if (parser == null) {
+            parser = new BufferingJSONAsyncParser(jsonContext);
+        }
+        return parser;
+    }
+
     protected List<String> normalizeURLMapping(String urlMapping) {
         String[] mappings = urlMapping.split(",");
         List<String> result = new ArrayList<>(mappings.length);
@@ -15,41 +15,123 @@
  */
 package org.cometd.server.websocket.jetty;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.BayeuxContext;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.server.websocket.common.AbstractWebSocketEndPoint;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.ByteArrayOutputStream2;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketConnectionListener;
+import org.eclipse.jetty.websocket.api.WebSocketFrameListener;
 import org.eclipse.jetty.websocket.api.WebSocketListener;
 import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class JettyWebSocketEndPoint extends AbstractWebSocketEndPoint implements WebSocketListener {
     private final Logger _logger = LoggerFactory.getLogger(getClass());
+    private final JettyWebSocketTransport _transport;
     private volatile Session _wsSession;
+    private volatile boolean _binary;
+    private boolean _textFrames;
+    private ByteArrayOutputStream2 _binaryFrames;
 
     public JettyWebSocketEndPoint(JettyWebSocketTransport transport, BayeuxContext context) {
         super(transport, context);
+        _transport = transport;
     }
 
     @Override
     public void onWebSocketConnect(Session session) {
+        String binaryProtocol = _transport.getBinaryProtocol();
+        _binary = binaryProtocol != null && binaryProtocol.equals(session.getUpgradeResponse().getAcceptedSubProtocol());
         _wsSession = session;
     }
 
+    @Override
+    protected boolean isBinary() {
+        return _binary;
+    }
+
     @Override
     public void onWebSocketBinary(byte[] payload, int offset, int len) {
+        if (_binary) {
+            process(promise -> onBinaryMessage(ByteBuffer.wrap(payload, offset, len), promise));
+        }
     }
 
     @Override
     public void onWebSocketText(String data) {
+        process(promise -> onMessage(data, promise));
+    }
+
+    /**
+     * <p>Feeds the payload of text frames to the JSON parser as they arrive,
+     * without aggregating the frames of a message into a string.</p>
+     * <p>Frames are only delivered to this method by a {@link FrameListener}.</p>
+     *
+     * @param frame the frame received
+     */
+    public void onWebSocketFrame(Frame frame) {
+        switch (frame.getType()) {
+            case TEXT:
+                _textFrames = true;
+                break;
+            case BINARY:
+                _binaryFrames = new ByteArrayOutputStream2();
+                break;
+            case CONTINUATION:
+                if (!_textFrames && _binaryFrames == null) {
+                    return;
+                }
+                break;
+            default:
+                return;
+        }
+        boolean last = frame.isFin();
+        ByteBuffer payload = frame.hasPayload() ? frame.getPayload() : BufferUtil.EMPTY_BUFFER;
+        if (_binaryFrames != null) {
+            // Binary messages are aggregated and parsed when complete.
+            aggregateBinary(payload, last);
+            return;
+        }
+        if (last) {
+            _textFrames = false;
+        }
+        process(promise -> onMessage(payload, last, promise));
+    }
+
+    private void aggregateBinary(ByteBuffer payload, boolean last) {
+        ByteArrayOutputStream2 frames = _binaryFrames;
+        try {
+            BufferUtil.writeTo(payload, frames);
+        } catch (IOException x) {
+            // Cannot happen, writing to memory.
+            throw new UncheckedIOException(x);
+        }
+        int maxMessageSize = _transport.getMaxMessageSize();
+        if (maxMessageSize > 0 && frames.getCount() > maxMessageSize) {
+            _binaryFrames = null;
+            close(1009, "Max message size " + maxMessageSize + " exceeded");
+        } else if (last) {
+            _binaryFrames = null;
+            onWebSocketBinary(frames.getBuf(), 0, frames.getCount());
+        }
+    }
+
+    private void process(Consumer<Promise<Void>> action) {
         try {
             try {
                 Promise.Completable<Void> completable = new Promise.Completable<>();
-                onMessage(data, completable);
+                action.accept(completable);
                 // Wait, to apply backpressure to the client.
                 completable.get();
             } catch (ExecutionException x) {
@@ -80,17 +162,15 @@ public class JettyWebSocketEndPoint extends AbstractWebSocketEndPoint implements
         }
 
         // Async version.
-        _wsSession.getRemote().sendString(data, new WriteCallback() {
-            @Override
-            public void writeSuccess() {
-                callback.succeeded();
-            }
+        _wsSession.getRemote().sendString(data, new CallbackWriteCallback(callback));
+    }
 
-            @Override
-            public void writeFailed(Throwable x) {
-                callback.failed(x);
-            }
-        });
+    @Override
+    protected void sendBinary(ServerSession session, ByteBuffer data, Callback callback) {
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Sending {} binary bytes on {}", data.remaining(), this);
+        }
+        _wsSession.getRemote().sendBytes(data, new CallbackWriteCallback(callback));
     }
 
     @Override
@@ -105,4 +185,55 @@ public class JettyWebSocketEndPoint extends AbstractWebSocketEndPoint implements
     public String toString() {
         return String.format("%s[%s]", super.toString(), _wsSession);
     }
+
+    /**
+     * <p>The WebSocket listener that receives frames rather than whole text
+     * messages, so that they can be parsed incrementally by this endpoint.</p>
+     *
+     * @see JettyWebSocketTransport#isIncrementalParsing()
+     */
+    public class FrameListener implements WebSocketConnectionListener, WebSocketFrameListener {
+        @Override
+        public void onWebSocketConnect(Session session) {
+            JettyWebSocketEndPoint.this.onWebSocketConnect(session);
+        }
+
+        @Override
+        public void onWebSocketFrame(Frame frame) {
+            JettyWebSocketEndPoint.this.onWebSocketFrame(frame);
+        }
+
+        @Override
+        public void onWebSocketClose(int code, String reason) {
+            JettyWebSocketEndPoint.this.onWebSocketClose(code, reason);
+        }
+
+        @Override
+        public void onWebSocketError(Throwable failure) {
+            JettyWebSocketEndPoint.this.onWebSocketError(failure);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), JettyWebSocketEndPoint.this);
+        }
+    }
+
+    private static class CallbackWriteCallback implements WriteCallback {
+        private final Callback callback;
+
+        private CallbackWriteCallback(Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void writeSuccess() {
+            callback.succeeded();
+        }
+
+        @Override
+        public void writeFailed(Throwable x) {
+            callback.failed(x);
+        }
+    }
 }
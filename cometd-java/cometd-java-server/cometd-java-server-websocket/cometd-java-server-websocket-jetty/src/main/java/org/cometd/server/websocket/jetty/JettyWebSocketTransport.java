@@ -67,6 +67,9 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport {
             maxMessageSize = policy.getMaxTextMessageSize();
         }
         policy.setMaxTextMessageSize(maxMessageSize);
+        if (getBinaryProtocol() != null) {
+            policy.setMaxBinaryMessageSize(maxMessageSize);
+        }
 
         long idleTimeout = getOption(IDLE_TIMEOUT_OPTION, policy.getIdleTimeout());
         policy.setIdleTimeout((int)idleTimeout);
@@ -88,6 +91,11 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport {
                     }
                     response.setExtensions(negotiated);
 
+                    String binaryProtocol = getBinaryProtocol();
+                    if (binaryProtocol != null && request.getSubProtocols().contains(binaryProtocol)) {
+                        response.setAcceptedSubProtocol(binaryProtocol);
+                    }
+
                     modifyUpgrade(request, response);
 
                     List<String> allowedTransports = getBayeux().getAllowedTransports();
@@ -114,7 +122,11 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport {
     }
 
     protected Object newWebSocketEndPoint(BayeuxContext bayeuxContext) {
-        return new EndPoint(bayeuxContext);
+        EndPoint endPoint = new EndPoint(bayeuxContext);
+        if (isIncrementalParsing()) {
+            return endPoint.new FrameListener();
+        }
+        return endPoint;
     }
 
     protected void modifyUpgrade(ServletUpgradeRequest request, ServletUpgradeResponse response) {
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.BinaryData;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.client.ClientSession;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.ext.BinaryExtension;
+import org.cometd.common.HashMapMessage;
+import org.cometd.common.JacksonCBORContextClient;
+import org.cometd.server.websocket.common.AbstractWebSocketTransport;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.client.ClientUpgradeRequest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BinaryProtocolWebSocketTest extends ClientServerWebSocketTest {
+    private static final String BINARY_PROTOCOL = "cometd-cbor";
+
+    private void prepareAndStartBinary() throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("ws." + AbstractWebSocketTransport.BINARY_PROTOCOL_OPTION, BINARY_PROTOCOL);
+        prepareAndStart(WEBSOCKET_JETTY, options);
+    }
+
+    @Test
+    public void testPublishSubscribeWithBinaryProtocol() throws Exception {
+        prepareAndStartBinary();
+
+        Map<String, Object> clientOptions = new HashMap<>();
+        clientOptions.put(org.cometd.client.websocket.common.AbstractWebSocketTransport.BINARY_PROTOCOL_OPTION, BINARY_PROTOCOL);
+        BayeuxClient client = new BayeuxClient(cometdURL, newWebSocketTransport(WEBSOCKET_JETTY, clientOptions));
+
+        testPublishSubscribe(client);
+    }
+
+    @Test
+    public void testClientWithoutBinaryProtocolUsesJSON() throws Exception {
+        prepareAndStartBinary();
+
+        testPublishSubscribe(newBayeuxClient(WEBSOCKET_JETTY));
+    }
+
+    private void testPublishSubscribe(BayeuxClient client) throws Exception {
+        String channelName = "/binary";
+        BlockingQueue<Map<String, Object>> data = new LinkedBlockingQueue<>();
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.handshake(hsReply -> {
+            if (hsReply.isSuccessful()) {
+                client.getChannel(channelName).subscribe((c, m) -> data.offer(m.getDataAsMap()), r -> subscribeLatch.countDown());
+            }
+        });
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        Map<String, Object> content = new HashMap<>();
+        content.put("price", 123.45D);
+        content.put("volume", 1000);
+        content.put("symbol", "COMETD");
+        client.getChannel(channelName).publish(content);
+
+        Map<String, Object> received = data.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(received);
+        Assertions.assertEquals(123.45D, ((Number)received.get("price")).doubleValue());
+        Assertions.assertEquals(1000, ((Number)received.get("volume")).intValue());
+        Assertions.assertEquals("COMETD", received.get("symbol"));
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testBinaryDataSentNatively() throws Exception {
+        prepareAndStartBinary();
+
+        String channelName = "/binary";
+        byte[] bytes = new byte[1024];
+        new Random().nextBytes(bytes);
+
+        // Record the binary data before it is decoded by the BinaryExtension.
+        BlockingQueue<Object> serverPayloads = new LinkedBlockingQueue<>();
+        bayeux.addExtension(new BayeuxServer.Extension() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                if (channelName.equals(message.getChannel())) {
+                    serverPayloads.offer(message.getDataAsMap().get(BinaryData.DATA));
+                }
+                return true;
+            }
+        });
+        bayeux.addExtension(new org.cometd.server.ext.BinaryExtension());
+
+        LocalSession service = bayeux.newLocalSession("bin");
+        service.addExtension(new BinaryExtension());
+        service.handshake();
+        service.getChannel(channelName).subscribe((channel, message) -> {
+            BinaryData data = (BinaryData)message.getData();
+            ServerSession remote = bayeux.getSession((String)data.getMetaData().get("peer"));
+            remote.deliver(service, channelName, new BinaryData(data.asByteBuffer(), data.isLast(), null), Promise.noop());
+        });
+
+        Map<String, Object> clientOptions = new HashMap<>();
+        clientOptions.put(org.cometd.client.websocket.common.AbstractWebSocketTransport.BINARY_PROTOCOL_OPTION, BINARY_PROTOCOL);
+        BayeuxClient client = new BayeuxClient(cometdURL, newWebSocketTransport(WEBSOCKET_JETTY, clientOptions));
+        BlockingQueue<Object> clientPayloads = new LinkedBlockingQueue<>();
+        client.addExtension(new ClientSession.Extension() {
+            @Override
+            public boolean rcv(ClientSession session, Message.Mutable message) {
+                if (channelName.equals(message.getChannel()) && !message.isPublishReply()) {
+                    clientPayloads.offer(message.getDataAsMap().get(BinaryData.DATA));
+                }
+                return true;
+            }
+        });
+        client.addExtension(new BinaryExtension(false));
+        BlockingQueue<byte[]> results = new LinkedBlockingQueue<>();
+        client.getChannel(channelName).addListener((ClientSessionChannel.MessageListener)(channel, message) -> {
+            if (!message.isPublishReply()) {
+                results.offer((byte[])((BinaryData)message.getData()).get(BinaryData.DATA));
+            }
+        });
+        client.handshake(message -> {
+            Map<String, Object> meta = new HashMap<>();
+            meta.put("peer", client.getId());
+            client.getChannel(channelName).publish(new BinaryData(bytes, true, meta));
+        });
+
+        byte[] result = results.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(result);
+        Assertions.assertArrayEquals(bytes, result);
+        // No Z85 encoding in both directions.
+        Assertions.assertTrue(serverPayloads.poll(5, TimeUnit.SECONDS) instanceof byte[]);
+        Assertions.assertTrue(clientPayloads.poll(5, TimeUnit.SECONDS) instanceof byte[]);
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testBinaryFrames() throws Exception {
+        prepareAndStartBinary();
+
+        JacksonCBORContextClient binaryContext = new JacksonCBORContextClient();
+        BlockingQueue<ByteBuffer> replies = new LinkedBlockingQueue<>();
+        ClientUpgradeRequest request = new ClientUpgradeRequest();
+        request.setSubProtocols(BINARY_PROTOCOL);
+        URI uri = URI.create(cometdURL.replace("http", "ws"));
+        Session session = wsClient.connect(new WebSocketAdapter() {
+            @Override
+            public void onWebSocketBinary(byte[] payload, int offset, int len) {
+                replies.offer(ByteBuffer.wrap(payload, offset, len));
+            }
+        }, uri, request).get(5, TimeUnit.SECONDS);
+
+        Assertions.assertEquals(BINARY_PROTOCOL, session.getUpgradeResponse().getAcceptedSubProtocol());
+
+        Message.Mutable handshake = new HashMapMessage();
+        handshake.setId("1");
+        handshake.setChannel(Channel.META_HANDSHAKE);
+        handshake.put(Message.VERSION_FIELD, "1.0");
+        handshake.put(Message.SUPPORTED_CONNECTION_TYPES_FIELD, Collections.singletonList("websocket"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        binaryContext.generate(Collections.singletonList(handshake), output);
+        session.getRemote().sendBytes(ByteBuffer.wrap(output.toByteArray()));
+
+        ByteBuffer reply = replies.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(reply);
+        Message.Mutable[] messages = binaryContext.parse(reply);
+        Assertions.assertEquals(1, messages.length);
+        Assertions.assertEquals(Channel.META_HANDSHAKE, messages[0].getChannel());
+        Assertions.assertTrue(messages[0].isSuccessful());
+
+        session.close();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.websocket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.server.websocket.common.AbstractWebSocketTransport;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class BytesPerFrameWebSocketTest extends ClientServerWebSocketTest {
+    public static List<String> frameTypes() {
+        return Arrays.asList(WEBSOCKET_JSR356, WEBSOCKET_JETTY);
+    }
+
+    @ParameterizedTest
+    @MethodSource("frameTypes")
+    public void testLargeBatchSplitInBoundedFrames(String wsType) throws Exception {
+        testBatchSplitInBoundedFrames(wsType, 'x', Collections.emptyMap());
+    }
+
+    @ParameterizedTest
+    @MethodSource("frameTypes")
+    public void testMultiByteBatchSplitInBoundedFrames(String wsType) throws Exception {
+        // The euro sign is 3 bytes in UTF-8, so the
+        // frames must be bounded in bytes, not in chars.
+        testBatchSplitInBoundedFrames(wsType, '\u20AC', Collections.emptyMap());
+    }
+
+    @Test
+    public void testBinaryBatchSplitInBoundedFrames() throws Exception {
+        String binaryProtocol = "cometd-cbor";
+        Map<String, String> serverOptions = new HashMap<>();
+        serverOptions.put("ws." + AbstractWebSocketTransport.BINARY_PROTOCOL_OPTION, binaryProtocol);
+        Map<String, Object> clientOptions = new HashMap<>();
+        clientOptions.put(org.cometd.client.websocket.common.AbstractWebSocketTransport.BINARY_PROTOCOL_OPTION, binaryProtocol);
+        testBatchSplitInBoundedFrames(WEBSOCKET_JETTY, 'x', serverOptions, clientOptions);
+    }
+
+    private void testBatchSplitInBoundedFrames(String wsType, char c, Map<String, String> serverOptions) throws Exception {
+        testBatchSplitInBoundedFrames(wsType, c, serverOptions, new HashMap<>());
+    }
+
+    private void testBatchSplitInBoundedFrames(String wsType, char c, Map<String, String> serverOptions, Map<String, Object> clientOptions) throws Exception {
+        int bytesPerFrame = 1024;
+        Map<String, String> options = new HashMap<>(serverOptions);
+        options.put("ws." + AbstractWebSocketTransport.MESSAGES_PER_FRAME_OPTION, "0");
+        options.put("ws." + AbstractWebSocketTransport.BYTES_PER_FRAME_OPTION, String.valueOf(bytesPerFrame));
+        prepareAndStart(wsType, options);
+
+        String channelName = "/bounded";
+        BlockingQueue<List<Message.Mutable>> frames = new LinkedBlockingQueue<>();
+        BayeuxClient client = new BayeuxClient(cometdURL, newFrameRecordingTransport(wsType, clientOptions, channelName, frames));
+        BlockingQueue<Object> messages = new LinkedBlockingQueue<>();
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.handshake(hsReply -> client.getChannel(channelName).subscribe((channel, m) -> messages.offer(m.getData()), r -> subscribeLatch.countDown()));
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        // Queue a backlog of messages and flush them all at once.
+        int count = 100;
+        char[] chars = new char[100];
+        Arrays.fill(chars, c);
+        String payload = new String(chars);
+        ServerSession session = bayeux.getSession(client.getId());
+        session.batch(() -> {
+            for (int i = 0; i < count; ++i) {
+                session.deliver(null, channelName, i + payload, Promise.noop());
+            }
+        });
+
+        for (int i = 0; i < count; ++i) {
+            Assertions.assertEquals(i + payload, messages.poll(5, TimeUnit.SECONDS));
+        }
+
+        // The messages arrived in multiple frames, each within the
+        // max size, and each message is larger than its payload.
+        int maxMessagesPerFrame = bytesPerFrame / payload.getBytes(StandardCharsets.UTF_8).length;
+        int received = 0;
+        int frameCount = 0;
+        while (received < count) {
+            List<Message.Mutable> frame = frames.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(frame);
+            Assertions.assertTrue(frame.size() <= maxMessagesPerFrame, "frame size: " + frame.size());
+            received += frame.size();
+            ++frameCount;
+        }
+        Assertions.assertEquals(count, received);
+        Assertions.assertTrue(frameCount >= count / maxMessagesPerFrame, "frames: " + frameCount);
+
+        disconnectBayeuxClient(client);
+    }
+
+    private ClientTransport newFrameRecordingTransport(String wsType, Map<String, Object> options, String channelName, BlockingQueue<List<Message.Mutable>> frames) {
+        switch (wsType) {
+            case WEBSOCKET_JSR356:
+                return new org.cometd.client.websocket.javax.WebSocketTransport(null, options, null, wsClientContainer) {
+                    @Override
+                    protected WebSocketDelegate newDelegate() {
+                        return new WebSocketDelegate() {
+                            @Override
+                            protected void onMessages(List<Message.Mutable> messages) {
+                                record(channelName, messages, frames);
+                                super.onMessages(messages);
+                            }
+                        };
+                    }
+                };
+            case WEBSOCKET_JETTY:
+                return new org.cometd.client.websocket.jetty.JettyWebSocketTransport(null, options, null, wsClient) {
+                    @Override
+                    protected Delegate newDelegate() {
+                        return new JettyWebSocketDelegate() {
+                            @Override
+                            protected void onMessages(List<Message.Mutable> messages) {
+                                record(channelName, messages, frames);
+                                super.onMessages(messages);
+                            }
+                        };
+                    }
+                };
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private static void record(String channelName, List<Message.Mutable> messages, BlockingQueue<List<Message.Mutable>> frames) {
+        if (!messages.isEmpty() && channelName.equals(messages.get(0).getChannel())) {
+            frames.offer(messages);
+        }
+    }
+}
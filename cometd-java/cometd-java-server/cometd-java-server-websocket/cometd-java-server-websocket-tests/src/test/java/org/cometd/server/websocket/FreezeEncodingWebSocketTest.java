@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.websocket;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerMessageImpl;
+import org.cometd.server.websocket.javax.WebSocketTransport;
+import org.cometd.server.websocket.jetty.JettyWebSocketTransport;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class FreezeEncodingWebSocketTest extends ClientServerWebSocketTest {
+    @ParameterizedTest
+    @MethodSource("wsTypes")
+    public void testWebSocketOnlyServerFreezesOneEncoding(String wsType) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        // Only the WebSocket transport, with the default "auto" encoding.
+        String wsTransportClass = WEBSOCKET_JETTY.equals(wsType) ? JettyWebSocketTransport.class.getName() : WebSocketTransport.class.getName();
+        options.put("transports", wsTransportClass);
+        prepareAndStart(wsType, options);
+        Assertions.assertNull(bayeux.getOption(BayeuxServerImpl.FREEZE_ENCODING_OPTION));
+
+        String channelName = "/freeze";
+        BlockingQueue<Object> data = new LinkedBlockingQueue<>();
+        List<ServerMessage> delivered = new CopyOnWriteArrayList<>();
+        BayeuxClient client = newBayeuxClient(wsType);
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.handshake(hsReply -> {
+            if (hsReply.isSuccessful()) {
+                ServerSession session = bayeux.getSession(client.getId());
+                session.addExtension(new ServerSession.Extension() {
+                    @Override
+                    public ServerMessage send(ServerSession sender, ServerSession session, ServerMessage message) {
+                        if (!message.isMeta()) {
+                            delivered.add(message);
+                        }
+                        return message;
+                    }
+                });
+                client.getChannel(channelName).subscribe((c, m) -> data.offer(m.getData()), r -> subscribeLatch.countDown());
+            }
+        });
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        int count = 3;
+        for (int i = 0; i < count; ++i) {
+            bayeux.getChannel(channelName).publish(null, "data\u20AC" + i, Promise.noop());
+        }
+        for (int i = 0; i < count; ++i) {
+            Assertions.assertEquals("data\u20AC" + i, data.poll(5, TimeUnit.SECONDS));
+        }
+
+        // The messages have been written, and only their string is stored.
+        Assertions.assertEquals(count, delivered.size());
+        for (ServerMessage message : delivered) {
+            Assertions.assertNotNull(encoding(message, "_json"));
+            Assertions.assertNull(encoding(message, "_jsonBytes"));
+        }
+
+        disconnectBayeuxClient(client);
+    }
+
+    private static Object encoding(ServerMessage message, String name) throws Exception {
+        Field field = ServerMessageImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(message);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.websocket;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Channel;
+import org.cometd.client.BayeuxClient;
+import org.cometd.server.websocket.common.AbstractWebSocketTransport;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class IncrementalParsingWebSocketTest extends ClientServerWebSocketTest {
+    @ParameterizedTest
+    @MethodSource("wsTypes")
+    public void testLargeMessageWithIncrementalParsing(String wsType) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("ws." + AbstractWebSocketTransport.INCREMENTAL_PARSING_OPTION, "true");
+        prepareAndStart(wsType, options);
+
+        String channelName = "/incremental";
+        BlockingQueue<Object> data = new LinkedBlockingQueue<>();
+        BayeuxClient client = newBayeuxClient(wsType);
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.handshake(hsReply -> {
+            if (hsReply.isSuccessful()) {
+                client.getChannel(channelName).subscribe((c, m) -> data.offer(m.getData()), r -> subscribeLatch.countDown());
+            }
+        });
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        char[] chars = new char[8 * 1024];
+        // Multi-byte characters may be split across network reads.
+        Arrays.fill(chars, '\u20AC');
+        String content = new String(chars);
+        client.getChannel(channelName).publish(content);
+
+        Assertions.assertEquals(content, data.poll(5, TimeUnit.SECONDS));
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testFragmentedMessageWithIncrementalParsing() throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("ws." + AbstractWebSocketTransport.INCREMENTAL_PARSING_OPTION, "true");
+        prepareAndStart(WEBSOCKET_JETTY, options);
+
+        BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+        URI uri = URI.create(cometdURL.replace("http", "ws"));
+        Session session = wsClient.connect(new WebSocketAdapter() {
+            @Override
+            public void onWebSocketText(String message) {
+                replies.offer(message);
+            }
+        }, uri).get(5, TimeUnit.SECONDS);
+
+        String handshake = "[{" +
+                "\"id\":\"1\"," +
+                "\"channel\":\"" + Channel.META_HANDSHAKE + "\"," +
+                "\"version\":\"1.0\"," +
+                "\"supportedConnectionTypes\":[\"websocket\"]" +
+                "}]";
+        int third = handshake.length() / 3;
+        session.getRemote().sendPartialString(handshake.substring(0, third), false);
+        session.getRemote().sendPartialString(handshake.substring(third, 2 * third), false);
+        session.getRemote().sendPartialString(handshake.substring(2 * third), true);
+
+        String reply = replies.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(reply);
+        Assertions.assertTrue(reply.contains("\"successful\":true"), reply);
+
+        session.close();
+    }
+}
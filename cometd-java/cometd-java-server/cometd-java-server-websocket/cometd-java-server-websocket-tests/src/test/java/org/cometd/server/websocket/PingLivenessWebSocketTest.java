@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.websocket;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.ServerSessionImpl;
+import org.cometd.server.websocket.common.AbstractWebSocketTransport;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class PingLivenessWebSocketTest extends ClientServerWebSocketTest {
+    private static final long TIMEOUT = 1000;
+
+    public static List<String> pingTypes() {
+        // OkHttp does not expose WebSocket pings.
+        return Arrays.asList(WEBSOCKET_JSR356, WEBSOCKET_JETTY);
+    }
+
+    private void prepareAndStartWithPingLiveness(String wsType) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put(AbstractServerTransport.TIMEOUT_OPTION, String.valueOf(TIMEOUT));
+        options.put("ws." + AbstractWebSocketTransport.PING_INTERVAL_OPTION, String.valueOf(TIMEOUT / 4));
+        prepareAndStart(wsType, options);
+    }
+
+    private AtomicInteger countMetaConnects() {
+        AtomicInteger connects = new AtomicInteger();
+        bayeux.addExtension(new BayeuxServer.Extension() {
+            @Override
+            public boolean rcvMeta(ServerSession from, ServerMessage.Mutable message) {
+                if (Channel.META_CONNECT.equals(message.getChannel())) {
+                    connects.incrementAndGet();
+                }
+                return true;
+            }
+        });
+        return connects;
+    }
+
+    @ParameterizedTest
+    @MethodSource("pingTypes")
+    public void testMetaConnectHeldWithPingLiveness(String wsType) throws Exception {
+        prepareAndStartWithPingLiveness(wsType);
+        AtomicInteger connects = countMetaConnects();
+
+        Map<String, Object> clientOptions = new HashMap<>();
+        clientOptions.put(org.cometd.client.websocket.common.AbstractWebSocketTransport.PING_LIVENESS_OPTION, true);
+        // Shorter than the time the /meta/connect is held,
+        // so that the client relies on pongs to keep waiting.
+        clientOptions.put(ClientTransport.MAX_NETWORK_DELAY_OPTION, TIMEOUT / 2);
+        BayeuxClient client = new BayeuxClient(cometdURL, newWebSocketTransport(wsType, clientOptions));
+        BlockingQueue<Message> connectReplies = new LinkedBlockingQueue<>();
+        client.getChannel(Channel.META_CONNECT).addListener((ClientSessionChannel.MessageListener)(c, m) -> connectReplies.offer(m));
+        BlockingQueue<Object> messages = new LinkedBlockingQueue<>();
+        String channelName = "/ping";
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.handshake(hsReply -> client.getChannel(channelName).subscribe((c, m) -> messages.offer(m.getData()), r -> subscribeLatch.countDown()));
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        // The first /meta/connect is replied immediately, with the ping interval.
+        Message reply = connectReplies.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(reply);
+        Assertions.assertTrue(reply.isSuccessful());
+        Assertions.assertEquals(TIMEOUT / 4, ((Number)reply.getAdvice().get(AbstractWebSocketTransport.PING_FIELD)).longValue());
+
+        // The second /meta/connect is held beyond its timeout,
+        // and the client does not consider the connection failed.
+        Thread.sleep(4 * TIMEOUT);
+        Assertions.assertEquals(2, connects.get());
+        Assertions.assertNull(connectReplies.poll());
+        Assertions.assertTrue(client.isConnected());
+
+        // Messages are delivered while the /meta/connect is held.
+        bayeux.getChannel(channelName).publish(null, "data", Promise.noop());
+        Assertions.assertEquals("data", messages.poll(5, TimeUnit.SECONDS));
+
+        // An advice change makes the server reply to the /meta/connect.
+        ServerSessionImpl session = (ServerSessionImpl)bayeux.getSession(client.getId());
+        session.setTimeout(TIMEOUT / 2);
+        reply = connectReplies.poll(3 * TIMEOUT, TimeUnit.MILLISECONDS);
+        Assertions.assertNotNull(reply);
+        Assertions.assertTrue(reply.isSuccessful());
+        Assertions.assertEquals(TIMEOUT / 2, ((Number)reply.getAdvice().get(Message.TIMEOUT_FIELD)).longValue());
+
+        disconnectBayeuxClient(client);
+    }
+
+    @ParameterizedTest
+    @MethodSource("wsTypes")
+    public void testMetaConnectCyclesWithoutPingLiveness(String wsType) throws Exception {
+        prepareAndStartWithPingLiveness(wsType);
+        AtomicInteger connects = countMetaConnects();
+
+        BayeuxClient client = newBayeuxClient(wsType);
+        client.handshake();
+        Assertions.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // The client did not ask for ping liveness, so
+        // the /meta/connect is replied at every timeout.
+        Thread.sleep(3 * TIMEOUT + TIMEOUT / 2);
+        Assertions.assertTrue(connects.get() >= 4, "connects: " + connects.get());
+
+        disconnectBayeuxClient(client);
+    }
+}
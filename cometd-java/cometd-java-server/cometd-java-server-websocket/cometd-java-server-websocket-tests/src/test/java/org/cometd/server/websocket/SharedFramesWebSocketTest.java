@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.websocket;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.server.ServerMessageImpl;
+import org.cometd.server.websocket.common.AbstractWebSocketTransport;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class SharedFramesWebSocketTest extends ClientServerWebSocketTest {
+    @ParameterizedTest
+    @MethodSource("wsTypes")
+    public void testBroadcastWithSharedFrames(String wsType) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("ws." + AbstractWebSocketTransport.SHARED_FRAMES_OPTION, "true");
+        prepareAndStart(wsType, options);
+
+        String channelName = "/shared";
+        CountDownLatch subscribeLatch = new CountDownLatch(3);
+        BlockingQueue<Object> data1 = new LinkedBlockingQueue<>();
+        BlockingQueue<ServerMessage> sent1 = new LinkedBlockingQueue<>();
+        BayeuxClient client1 = newRecordingClient(wsType, channelName, data1, sent1, subscribeLatch);
+        BlockingQueue<Object> data3 = new LinkedBlockingQueue<>();
+        BlockingQueue<ServerMessage> sent3 = new LinkedBlockingQueue<>();
+        BayeuxClient client3 = newRecordingClient(wsType, channelName, data3, sent3, subscribeLatch);
+
+        BlockingQueue<Object> data2 = new LinkedBlockingQueue<>();
+        BayeuxClient client2 = newBayeuxClient(wsType);
+        client2.handshake(hsReply -> {
+            if (hsReply.isSuccessful()) {
+                // The second session replaces the message, so it must not see the shared frame.
+                ServerSession session2 = bayeux.getSession(client2.getId());
+                session2.addExtension(new ServerSession.Extension() {
+                    @Override
+                    public ServerMessage send(ServerSession sender, ServerSession session, ServerMessage message) {
+                        if (message.isMeta()) {
+                            return message;
+                        }
+                        ServerMessage.Mutable copy = bayeux.newMessage(message);
+                        copy.setData("replaced");
+                        return copy;
+                    }
+                });
+                client2.getChannel(channelName).subscribe((c, m) -> data2.offer(m.getData()), r -> subscribeLatch.countDown());
+            }
+        });
+
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        int count = 3;
+        for (int i = 0; i < count; ++i) {
+            bayeux.getChannel(channelName).publish(null, "data" + i, Promise.noop());
+        }
+
+        for (int i = 0; i < count; ++i) {
+            Assertions.assertEquals("data" + i, data1.poll(5, TimeUnit.SECONDS));
+            Assertions.assertEquals("replaced", data2.poll(5, TimeUnit.SECONDS));
+            Assertions.assertEquals("data" + i, data3.poll(5, TimeUnit.SECONDS));
+
+            // The unmodified message is the same for both sessions,
+            // and its frame has been built once and kept with it.
+            ServerMessage message = sent1.poll(5, TimeUnit.SECONDS);
+            Assertions.assertSame(message, sent3.poll(5, TimeUnit.SECONDS));
+            Object frame = jsonArray(message);
+            Assertions.assertNotNull(frame);
+            Assertions.assertSame(frame, ((ServerMessageImpl)message).getJSONArray());
+        }
+
+        disconnectBayeuxClient(client1);
+        disconnectBayeuxClient(client2);
+        disconnectBayeuxClient(client3);
+    }
+
+    private BayeuxClient newRecordingClient(String wsType, String channelName, BlockingQueue<Object> data, BlockingQueue<ServerMessage> sent, CountDownLatch subscribeLatch) {
+        BayeuxClient client = newBayeuxClient(wsType);
+        client.handshake(hsReply -> {
+            if (hsReply.isSuccessful()) {
+                bayeux.getSession(client.getId()).addExtension(new ServerSession.Extension() {
+                    @Override
+                    public ServerMessage send(ServerSession sender, ServerSession session, ServerMessage message) {
+                        if (channelName.equals(message.getChannel())) {
+                            sent.offer(message);
+                        }
+                        return message;
+                    }
+                });
+                client.getChannel(channelName).subscribe((c, m) -> data.offer(m.getData()), r -> subscribeLatch.countDown());
+            }
+        });
+        return client;
+    }
+
+    private static Object jsonArray(ServerMessage message) throws Exception {
+        Field field = ServerMessageImpl.class.getDeclaredField("_jsonArray");
+        field.setAccessible(true);
+        return field.get(message);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+(function(root, factory){
+    if (typeof exports === 'object') {
+        module.exports = factory(require('./cometd'));
+    } else if (typeof define === 'function' && define.amd) {
+        define(['./cometd'], factory);
+    } else {
+        factory(root.org.cometd);
+    }
+}(this, function(cometdModule) {
+    /**
+     * This client-side extension resolves the channel aliases that the server
+     * uses in place of channel names, to reduce the bytes of each message.
+     * For channel aliases to work, the server must be configured with the
+     * correspondent server-side channel alias extension.
+     * The server assigns an alias to each channel the client subscribes to,
+     * and sends the alias definitions in the /meta/subscribe replies and in
+     * the messages themselves; this extension confirms the aliases to the
+     * server in the next /meta/connect message, after which the server
+     * starts to use them.
+     */
+    return cometdModule.ChannelAliasExtension = function() {
+        var _cometd;
+        var _serverSupportsAliases = false;
+        var _channels = {};
+        var _unconfirmed = [];
+
+        function _debug(text, args) {
+            _cometd._debug(text, args);
+        }
+
+        function _define(channel, alias) {
+            _debug('ChannelAliasExtension: channel alias ' + alias, channel);
+            _channels[String(alias)] = channel;
+            if (_unconfirmed.indexOf(alias) < 0) {
+                _unconfirmed.push(alias);
+            }
+        }
+
+        this.registered = function(name, cometd) {
+            _cometd = cometd;
+            _debug('ChannelAliasExtension: executing registration callback');
+        };
+
+        this.unregistered = function() {
+            _debug('ChannelAliasExtension: executing unregistration callback');
+            _cometd = null;
+        };
+
+        this.incoming = function(message) {
+            var channel = message.channel;
+            var ext = message.ext;
+            if (channel === '/meta/handshake') {
+                _serverSupportsAliases = !!ext && ext.alias === true;
+                _debug('ChannelAliasExtension: server supports channel aliases', _serverSupportsAliases);
+            } else if (channel === '/meta/subscribe') {
+                if (message.successful && ext && typeof ext.alias === 'object') {
+                    for (var name in ext.alias) {
+                        if (ext.alias.hasOwnProperty(name)) {
+                            _define(name, ext.alias[name]);
+                        }
+                    }
+                }
+            } else if (typeof channel === 'string' && channel.indexOf('/meta/') !== 0) {
+                if (ext && typeof ext.alias === 'number') {
+                    _define(channel, ext.alias);
+                    delete ext.alias;
+                } else if (channel.charAt(0) !== '/') {
+                    var resolved = _channels[channel];
+                    if (resolved === undefined) {
+                        _cometd._info('ChannelAliasExtension: unknown channel alias, dropping', message);
+                        return null;
+                    }
+                    message.channel = resolved;
+                }
+            }
+            return message;
+        };
+
+        this.outgoing = function(message) {
+            var channel = message.channel;
+            if (channel === '/meta/handshake') {
+                if (!message.ext) {
+                    message.ext = {};
+                }
+                message.ext.alias = true;
+                _serverSupportsAliases = false;
+                _channels = {};
+                _unconfirmed = [];
+            } else if (channel === '/meta/connect') {
+                if (_serverSupportsAliases && _unconfirmed.length > 0) {
+                    if (!message.ext) {
+                        message.ext = {};
+                    }
+                    message.ext.alias = _unconfirmed;
+                    _unconfirmed = [];
+                }
+            }
+            return message;
+        };
+    };
+}));
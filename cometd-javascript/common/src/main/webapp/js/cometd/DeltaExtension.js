@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+(function(root, factory){
+    if (typeof exports === 'object') {
+        module.exports = factory(require('./cometd'));
+    } else if (typeof define === 'function' && define.amd) {
+        define(['./cometd'], factory);
+    } else {
+        factory(root.org.cometd);
+    }
+}(this, function(cometdModule) {
+    /**
+     * This client-side extension rebuilds the data of the messages that the
+     * server sends as differences (JSON merge patches) against the previous
+     * message on the same channel, so that applications always receive the
+     * full data.
+     * For delta encoding to work, the server must be configured with the
+     * correspondent server-side delta extension.
+     * When a delta cannot be applied because a previous message has been lost,
+     * the message is dropped and this extension asks the server, in the next
+     * /meta/connect message, to resync the channel with a snapshot of the full data.
+     * The data of the messages received on delta encoded channels is used to
+     * rebuild the data of the next messages, so it must not be modified.
+     */
+    return cometdModule.DeltaExtension = function() {
+        var _cometd;
+        var _serverSupportsDeltas = false;
+        var _states = {};
+        var _resyncs = [];
+
+        function _debug(text, args) {
+            _cometd._debug(text, args);
+        }
+
+        function _isObject(value) {
+            return value !== null && typeof value === 'object' && !Array.isArray(value);
+        }
+
+        function _apply(source, patch) {
+            var result = {};
+            var name;
+            for (name in source) {
+                if (source.hasOwnProperty(name)) {
+                    result[name] = source[name];
+                }
+            }
+            for (name in patch) {
+                if (patch.hasOwnProperty(name)) {
+                    var value = patch[name];
+                    if (value === null) {
+                        delete result[name];
+                    } else if (_isObject(value)) {
+                        result[name] = _apply(_isObject(result[name]) ? result[name] : {}, value);
+                    } else {
+                        result[name] = value;
+                    }
+                }
+            }
+            return result;
+        }
+
+        this.registered = function(name, cometd) {
+            _cometd = cometd;
+            _debug('DeltaExtension: executing registration callback');
+        };
+
+        this.unregistered = function() {
+            _debug('DeltaExtension: executing unregistration callback');
+            _cometd = null;
+        };
+
+        this.incoming = function(message) {
+            var channel = message.channel;
+            var ext = message.ext;
+            if (channel === '/meta/handshake') {
+                _serverSupportsDeltas = !!ext && ext.delta === true;
+                _debug('DeltaExtension: server supports delta encoding', _serverSupportsDeltas);
+            } else if (typeof channel === 'string' && channel.indexOf('/meta/') !== 0) {
+                var delta = ext ? ext.delta : undefined;
+                if (!_isObject(delta)) {
+                    delete _states[channel];
+                    return message;
+                }
+                delete ext.delta;
+                if (delta.base === undefined) {
+                    _states[channel] = {
+                        seq: delta.seq,
+                        data: message.data
+                    };
+                    return message;
+                }
+                var state = _states[channel];
+                if (!state || state.seq !== delta.base) {
+                    _debug('DeltaExtension: missing delta base ' + delta.base + ', requesting resync of', channel);
+                    delete _states[channel];
+                    if (_resyncs.indexOf(channel) < 0) {
+                        _resyncs.push(channel);
+                    }
+                    return null;
+                }
+                state.seq = delta.seq;
+                state.data = _apply(state.data, message.data);
+                message.data = state.data;
+            }
+            return message;
+        };
+
+        this.outgoing = function(message) {
+            var channel = message.channel;
+            if (channel === '/meta/handshake') {
+                if (!message.ext) {
+                    message.ext = {};
+                }
+                message.ext.delta = true;
+                _serverSupportsDeltas = false;
+                _states = {};
+                _resyncs = [];
+            } else if (channel === '/meta/connect') {
+                if (_serverSupportsDeltas && _resyncs.length > 0) {
+                    if (!message.ext) {
+                        message.ext = {};
+                    }
+                    message.ext.delta = _resyncs;
+                    _resyncs = [];
+                }
+            }
+            return message;
+        };
+    };
+}));
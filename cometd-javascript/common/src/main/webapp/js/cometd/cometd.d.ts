@@ -218,6 +218,12 @@ export interface AckExtension extends Extension {
 export interface BinaryExtension extends Extension {
 }
 
+export interface ChannelAliasExtension extends Extension {
+}
+
+export interface DeltaExtension extends Extension {
+}
+
 export interface ReloadExtension extends Extension {
 }
 
@@ -226,6 +226,18 @@ public abstract class AbstractCometDTest {
                 "cometd.registerExtension('binary', new cometdModule.BinaryExtension());");
     }
 
+    protected void provideChannelAliasExtension() {
+        javaScript.evaluate(getClass().getResource("/js/cometd/ChannelAliasExtension.js"));
+        javaScript.evaluate("alias_extension", "" +
+                "cometd.registerExtension('alias', new cometdModule.ChannelAliasExtension());");
+    }
+
+    protected void provideDeltaExtension() {
+        javaScript.evaluate(getClass().getResource("/js/cometd/DeltaExtension.js"));
+        javaScript.evaluate("delta_extension", "" +
+                "cometd.registerExtension('delta', new cometdModule.DeltaExtension());");
+    }
+
     protected void destroyPage() throws Exception {
         destroyJavaScript();
     }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.javascript.extension;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.javascript.AbstractCometDTransportsTest;
+import org.cometd.javascript.Latch;
+import org.cometd.server.ext.ChannelAliasExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class CometDChannelAliasExtensionTest extends AbstractCometDTransportsTest {
+    @Override
+    public void initCometDServer(String transport) throws Exception {
+        super.initCometDServer(transport);
+        bayeuxServer.addExtension(new ChannelAliasExtension());
+        provideChannelAliasExtension();
+    }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testChannelAlias(String transport) throws Exception {
+        initCometDServer(transport);
+
+        String channelName = "/market/equities/NASDAQ/AAPL";
+
+        // Records the channel of the messages sent to the client.
+        BlockingQueue<String> wireChannels = new LinkedBlockingQueue<>();
+        bayeuxServer.addListener(new BayeuxServer.SessionListener() {
+            @Override
+            public void sessionAdded(ServerSession session, ServerMessage message) {
+                session.addListener(new ServerSession.MessageListener() {
+                    @Override
+                    public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                        if (!message.isMeta() && !message.isPublishReply()) {
+                            wireChannels.offer(message.getChannel());
+                        }
+                        return true;
+                    }
+                });
+            }
+        });
+
+        evaluateScript("cometd.configure({url: '" + cometdURL + "', logLevel: '" + getLogLevel() + "'});");
+        evaluateScript("var subscribeLatch = new Latch(1);");
+        Latch subscribeLatch = javaScript.get("subscribeLatch");
+        evaluateScript("var messages = [];");
+        evaluateScript("" +
+                "cometd.handshake(function(hsReply) {" +
+                "    if (hsReply.successful) {" +
+                "        cometd.subscribe('" + channelName + "', function(m) {" +
+                "            window.assert(m.channel === '" + channelName + "', m.channel);" +
+                "            messages.push(m.data);" +
+                "        }, function(r) { subscribeLatch.countDown(); });" +
+                "    }" +
+                "});");
+        Assertions.assertTrue(subscribeLatch.await(5000));
+
+        boolean aliased = false;
+        int count = 0;
+        while (count < 20 && !aliased) {
+            bayeuxServer.getChannel(channelName).publish(null, count++, Promise.noop());
+            String wireChannel = wireChannels.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(wireChannel);
+            aliased = !wireChannel.startsWith("/");
+            Thread.sleep(100);
+        }
+        Assertions.assertTrue(aliased);
+
+        // All messages, aliased or not, must have been resolved.
+        evaluateScript("var messagesLatch = new Latch(1);");
+        Latch messagesLatch = javaScript.get("messagesLatch");
+        evaluateScript("" +
+                "var check = function() {" +
+                "    if (messages.length === " + count + ") {" +
+                "        messagesLatch.countDown();" +
+                "    } else {" +
+                "        setTimeout(check, 100);" +
+                "    }" +
+                "};" +
+                "check();");
+        Assertions.assertTrue(messagesLatch.await(5000));
+
+        disconnect();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2008-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.javascript.extension;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.javascript.AbstractCometDTransportsTest;
+import org.cometd.javascript.Latch;
+import org.cometd.server.ext.DeltaExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class CometDDeltaExtensionTest extends AbstractCometDTransportsTest {
+    @Override
+    public void initCometDServer(String transport) throws Exception {
+        super.initCometDServer(transport);
+        bayeuxServer.addExtension(new DeltaExtension());
+        provideDeltaExtension();
+    }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testDeltaEncoding(String transport) throws Exception {
+        initCometDServer(transport);
+
+        String channelName = "/quotes/COMETD";
+
+        // Records the data of the messages sent to the client.
+        BlockingQueue<Map<String, Object>> wireData = new LinkedBlockingQueue<>();
+        bayeuxServer.addListener(new BayeuxServer.SessionListener() {
+            @Override
+            public void sessionAdded(ServerSession session, ServerMessage message) {
+                session.addListener(new ServerSession.MessageListener() {
+                    @Override
+                    public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                        if (!message.isMeta() && !message.isPublishReply()) {
+                            wireData.offer(message.getDataAsMap());
+                        }
+                        return true;
+                    }
+                });
+            }
+        });
+
+        evaluateScript("cometd.configure({url: '" + cometdURL + "', logLevel: '" + getLogLevel() + "'});");
+        evaluateScript("var subscribeLatch = new Latch(1);");
+        Latch subscribeLatch = javaScript.get("subscribeLatch");
+        evaluateScript("var messages = [];");
+        evaluateScript("" +
+                "cometd.handshake(function(hsReply) {" +
+                "    if (hsReply.successful) {" +
+                "        cometd.subscribe('" + channelName + "', function(m) {" +
+                "            window.assert(m.data.symbol === 'COMETD', m.data.symbol);" +
+                "            window.assert(m.data.exchange === 'NASDAQ', m.data.exchange);" +
+                "            window.assert(m.data.volume === messages.length, m.data.volume);" +
+                "            window.assert(m.ext === undefined || m.ext.delta === undefined, m.ext);" +
+                "            messages.push(m.data);" +
+                "        }, function(r) { subscribeLatch.countDown(); });" +
+                "    }" +
+                "});");
+        Assertions.assertTrue(subscribeLatch.await(5000));
+
+        int count = 5;
+        for (int i = 0; i < count; ++i) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("symbol", "COMETD");
+            data.put("exchange", "NASDAQ");
+            data.put("volume", i);
+            bayeuxServer.getChannel(channelName).publish(null, data, Promise.noop());
+            Map<String, Object> wire = wireData.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(wire);
+            // Only the first message carries the full data.
+            Assertions.assertEquals(i == 0 ? 3 : 1, wire.size(), wire.toString());
+        }
+
+        evaluateScript("var messagesLatch = new Latch(1);");
+        Latch messagesLatch = javaScript.get("messagesLatch");
+        evaluateScript("" +
+                "var check = function() {" +
+                "    if (messages.length === " + count + ") {" +
+                "        messagesLatch.countDown();" +
+                "    } else {" +
+                "        setTimeout(check, 100);" +
+                "    }" +
+                "};" +
+                "check();");
+        Assertions.assertTrue(messagesLatch.await(5000));
+
+        disconnect();
+    }
+}